@@ -17,6 +17,8 @@ dependencies {
 
     testImplementation("org.mockito:mockito-core:5.13.0")
     testImplementation("org.mockito:mockito-junit-jupiter:5.13.0")
+    // Embedded nodes for the sharded store tests.
+    testImplementation("org.eclipse.jetty.ee10:jetty-ee10-servlet:12.0.14")
 
     // This dependency is used by the application.
     implementation(libs.guava)
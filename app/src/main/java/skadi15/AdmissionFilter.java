@@ -0,0 +1,237 @@
+package skadi15;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.google.common.base.Preconditions;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Rejects {@code /order} requests before the servlet parses or prices anything: with 429 Too Many Requests when the
+ * client has used up its rate, and with 503 Service Unavailable when too many requests are already in flight. Both
+ * carry a {@code Retry-After}.
+ *
+ * <p>Each client has a token bucket, kept as the single timestamp of the generic cell rate algorithm and updated with
+ * one compare-and-set, so admitting a request takes no lock. Clients are told apart by
+ * {@value #CLIENT_HEADER_SETTING} if set, and by remote address otherwise. Once more than
+ * {@value #MAX_CLIENTS_SETTING} clients have buckets, buckets that have refilled completely are dropped, since a new
+ * bucket would be the same; while every bucket is still in use, further clients share one bucket.
+ *
+ * <p>Requests from the other nodes of a sharded or replicated store, which carry the {@link NodeSecret}, are always
+ * admitted, since each serves a client request that was already admitted by the node it reached. Requests that go
+ * async count as in flight until the async request completes. Rejections and the current load are published as a
+ * servlet context attribute for {@link AppServlet} to report.
+ */
+@WebFilter(urlPatterns = {AppServlet.ORDER_PATH, AppServlet.ORDER_PATH + "/*"}, asyncSupported = true)
+public class AdmissionFilter implements Filter {
+    static final String METRICS_ATTRIBUTE = AdmissionFilter.class.getName();
+    // Not among the servlet API's status constants.
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final String RATE_SETTING = "rateLimit.requestsPerSecond";
+    private static final String BURST_SETTING = "rateLimit.burst";
+    private static final String MAX_CLIENTS_SETTING = "rateLimit.maxClients";
+    private static final int DEFAULT_MAX_CLIENTS = 10_000;
+    private static final String CLIENT_HEADER_SETTING = "rateLimit.clientHeader";
+    private static final String MAX_CONCURRENT_SETTING = "loadShedding.maxConcurrent";
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Shed requests have nothing to wait for but the load to drop, so they are asked to back off briefly.
+    private static final long SHED_RETRY_AFTER_SECONDS = 1;
+
+    private final LongSupplier nanoClock;
+    // Nanoseconds between requests at the client rate, or 0 when rate limiting is off.
+    private long emissionIntervalNanos;
+    private long burstNanos;
+    private int maxClients = DEFAULT_MAX_CLIENTS;
+    private String clientHeader;
+    private NodeSecret nodeSecret = new NodeSecret(null);
+    // 0 when load shedding is off.
+    private int maxConcurrent;
+    // Theoretical arrival time of each client's next request; the bucket is full once it is in the past.
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflowBucket = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong lastSweepNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    public AdmissionFilter() {
+        this(System::nanoTime);
+    }
+
+    AdmissionFilter(final LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.lastSweepNanos = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    /**
+     * Reads {@value #RATE_SETTING} and {@value #BURST_SETTING} (default the rate), which limit each client when the
+     * rate is set; {@value #MAX_CLIENTS_SETTING} (default {@value #DEFAULT_MAX_CLIENTS}) and
+     * {@value #CLIENT_HEADER_SETTING}; {@value #MAX_CONCURRENT_SETTING}, which sheds load when set; and
+     * {@value NodeSecret#SETTING}, which admits requests from other nodes.
+     */
+    @Override
+    public void init(final FilterConfig config) {
+        final Settings settings = Settings.of(config);
+        final long rate = settings.getLong(RATE_SETTING, 0);
+        Preconditions.checkArgument(rate >= 0, "Setting %s must not be negative [value=%s]", RATE_SETTING, rate);
+        if (rate > 0) {
+            final long burst = settings.getLong(BURST_SETTING, rate);
+            Preconditions.checkArgument(burst > 0, "Setting %s must be positive [value=%s]", BURST_SETTING, burst);
+            emissionIntervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+            burstNanos = burst * emissionIntervalNanos;
+        }
+        maxClients = settings.getInt(MAX_CLIENTS_SETTING, DEFAULT_MAX_CLIENTS);
+        clientHeader = settings.getString(CLIENT_HEADER_SETTING);
+        maxConcurrent = settings.getInt(MAX_CONCURRENT_SETTING, 0);
+        nodeSecret = NodeSecret.of(settings);
+        config.getServletContext().setAttribute(METRICS_ATTRIBUTE, this);
+    }
+
+    @Override
+    public void doFilter(final ServletRequest req, final ServletResponse resp, final FilterChain chain)
+            throws IOException, ServletException {
+        if (!(req instanceof HttpServletRequest request) || !(resp instanceof HttpServletResponse response)
+                || nodeSecret.authenticates(request)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        if (emissionIntervalNanos > 0) {
+            final long retryAfterNanos = acquire(clientOf(request));
+            if (retryAfterNanos > 0) {
+                rateLimited.increment();
+                reject(response, SC_TOO_MANY_REQUESTS,
+                        (retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+                return;
+            }
+        }
+        if (maxConcurrent <= 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (inFlight.incrementAndGet() > maxConcurrent) {
+            inFlight.decrementAndGet();
+            shed.increment();
+            reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, SHED_RETRY_AFTER_SECONDS);
+            return;
+        }
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new InFlightListener());
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    public AdmissionMetrics getMetrics() {
+        return new AdmissionMetrics(rateLimited.sum(), shed.sum(), inFlight.get(), buckets.size());
+    }
+
+    /**
+     * Takes a token from the client's bucket.
+     *
+     * @return 0 if the request is admitted, or how long until the client has a token again.
+     */
+    private long acquire(final String client) {
+        final long now = nanoClock.getAsLong();
+        final AtomicLong bucket = bucketOf(client, now);
+        while (true) {
+            final long arrival = bucket.get();
+            final long next = Math.max(arrival, now) + emissionIntervalNanos;
+            final long retryAfter = next - now - burstNanos;
+            if (retryAfter > 0) {
+                return retryAfter;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private AtomicLong bucketOf(final String client, final long now) {
+        final AtomicLong bucket = buckets.get(client);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxClients) {
+            sweep(now);
+            if (buckets.size() >= maxClients) {
+                return overflowBucket;
+            }
+        }
+        final AtomicLong created = new AtomicLong(Long.MIN_VALUE);
+        final AtomicLong existing = buckets.putIfAbsent(client, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Drops full buckets, at most once per {@link #SWEEP_INTERVAL_NANOS} so that a flood of new clients does not scan
+     * the map on every request.
+     */
+    private void sweep(final long now) {
+        final long last = lastSweepNanos.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweepNanos.compareAndSet(last, now)) {
+            return;
+        }
+        // A request racing the removal may take its token from the dropped bucket, which lets that client burst once
+        // more at worst.
+        buckets.forEach((client, bucket) -> {
+            if (bucket.get() <= now) {
+                buckets.remove(client, bucket);
+            }
+        });
+    }
+
+    private String clientOf(final HttpServletRequest request) {
+        final String client = clientHeader != null ? request.getHeader(clientHeader) : null;
+        return client != null ? client : request.getRemoteAddr();
+    }
+
+    private static void reject(final HttpServletResponse response, final int status, final long retryAfterSeconds) {
+        response.setStatus(status);
+        response.setHeader("Retry-After", Long.toString(Math.max(1, retryAfterSeconds)));
+    }
+
+    private final class InFlightListener implements AsyncListener {
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            inFlight.decrementAndGet();
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package skadi15;
+
+import lombok.Value;
+
+@Value
+public class AdmissionMetrics {
+    /** Requests rejected with 429 because their client was over its rate. */
+    private final long rateLimited;
+    /** Requests rejected with 503 because too many were in flight. */
+    private final long shed;
+    private final int inFlight;
+    /** Clients with a rate limiter. */
+    private final int clients;
+}
@@ -1,98 +1,1170 @@
 package skadi15;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-@WebServlet("/order")
+@WebServlet(value = {AppServlet.ORDER_PATH, AppServlet.BATCH_PATH, AppServlet.STORE_PATH, AppServlet.STATS_PATH,
+        AppServlet.RATES_PATH, AppServlet.SHARD_PATH, AppServlet.REPLICA_PATH, AppServlet.METRICS_PATH},
+        asyncSupported = true, loadOnStartup = 1)
 public class AppServlet extends HttpServlet {
-    private static final String APPLES_PARAMETER = "apples";
-    private static final String ORANGES_PARAMETER = "oranges";
-    private static final String ORDER_ID_PARAMETER = "order_id";
-    private static final float APPLE_COST = 0.25f;
-    private static final float ORANGE_COST = 0.6f;
+    static final String ORDER_PATH = "/order";
+    static final String BATCH_PATH = "/order/batch";
+    static final String STORE_PATH = "/order/store";
+    static final String STATS_PATH = "/order/stats";
+    static final String RATES_PATH = "/order/rates";
+    // This node's shard of a sharded store, for the other nodes.
+    static final String SHARD_PATH = "/order/shard";
+    // Orders shipped to this node as the standby of another.
+    static final String REPLICA_PATH = "/order/replica";
+    static final String METRICS_PATH = "/metrics";
+    static final String APPLES_PARAMETER = "apples";
+    static final String ORANGES_PARAMETER = "oranges";
+    static final String ORDER_ID_PARAMETER = "order_id";
+    private static final String STREAM_PARAMETER = "stream";
+    static final String LIMIT_PARAMETER = "limit";
+    static final String CURSOR_PARAMETER = "cursor";
+    static final String MIN_COST_PARAMETER = "min_cost";
+    static final String MAX_COST_PARAMETER = "max_cost";
+    static final String COUNT_PARAMETER = "count";
+    private static final List<String> QUERY_PARAMETERS = List.of(
+            LIMIT_PARAMETER, CURSOR_PARAMETER, APPLES_PARAMETER, ORANGES_PARAMETER,
+            MIN_COST_PARAMETER, MAX_COST_PARAMETER);
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+    private static final String ACCEPT_HEADER = "Accept";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final String CACHE_CONTROL_HEADER = "Cache-Control";
+    // Listings change with every order, so caches must check their copy is current before each use.
+    private static final String LISTING_CACHE_CONTROL = "no-cache";
+    // Apples and oranges as big-endian ints.
+    private static final int RECORD_BATCH_ITEM_BYTES = 8;
+    // Batch items are priced, stored and written this many at a time.
+    private static final int BATCH_CHUNK_SIZE = 256;
 
-    private Map<UUID, OrderSummary> orders = new HashMap<>();
+    private static final String PRICING_CONFIG_SETTING = "pricing.config";
+    private static final String PRICING_RELOAD_INTERVAL_SETTING = "pricing.reloadIntervalMillis";
+    private static final long DEFAULT_PRICING_RELOAD_INTERVAL_MILLIS = 1000;
+    private static final String ASYNC_SETTING = "async.enabled";
+    private static final String TIMING_SETTING = "timing.enabled";
+    private static final String TIMING_SAMPLE_INTERVAL_SETTING = "timing.sampleInterval";
+    private static final int DEFAULT_TIMING_SAMPLE_INTERVAL = 64;
+    private static final String HAND_WRITTEN_JSON_SETTING = "serialization.handWritten";
+    private static final double[] TIMING_QUANTILES = {0.5, 0.99, 0.999};
+    private static final String ORDER_ID_GENERATOR_SETTING = "orderId.generator";
+    private static final String RANDOM_ORDER_ID_GENERATOR = "random";
+    private static final String ORDER_ID_NODE_SETTING = "orderId.nodeId";
+    private static final String STORE_TYPE_SETTING = "store.type";
+    private static final String COLUMNAR_STORE_TYPE = "columnar";
+    private static final String JOURNAL_DIR_SETTING = "journal.dir";
+    private static final String JOURNAL_SEGMENT_BYTES_SETTING = "journal.segmentBytes";
+    private static final String JOURNAL_SYNC_INTERVAL_SETTING = "journal.syncIntervalMillis";
+    private static final int DEFAULT_JOURNAL_SEGMENT_BYTES = 64 << 20;
+    private static final long DEFAULT_JOURNAL_SYNC_INTERVAL_MILLIS = 100;
+    private static final String JOURNAL_SNAPSHOT_INTERVAL_SETTING = "journal.snapshotIntervalSeconds";
+    private static final String RETENTION_MAX_COUNT_SETTING = "retention.maxCount";
+    private static final String RETENTION_MAX_AGE_SETTING = "retention.maxAgeSeconds";
+    private static final String RETENTION_MAX_MEMORY_SETTING = "retention.maxMemoryBytes";
+    private static final String RETENTION_SPILL_DIR_SETTING = "retention.spillDir";
+    private static final String ORDER_MAX_AGE_SETTING = "cache.orderMaxAgeSeconds";
+    private static final long DEFAULT_ORDER_MAX_AGE_SECONDS = TimeUnit.DAYS.toSeconds(365);
+    private static final String RESPONSE_CACHE_MAX_ENTRIES_SETTING = "responseCache.maxEntries";
+    private static final String IDEMPOTENCY_MAX_KEYS_SETTING = "idempotency.maxKeys";
+    private static final int DEFAULT_IDEMPOTENCY_MAX_KEYS = 100_000;
+    private static final String IDEMPOTENCY_TTL_SETTING = "idempotency.ttlSeconds";
+    private static final long DEFAULT_IDEMPOTENCY_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+    private static final String SHARD_NODES_SETTING = "shard.nodes";
+    private static final String SHARD_SELF_SETTING = "shard.self";
+    private static final String SHARD_TIMEOUT_SETTING = "shard.timeoutMillis";
+    private static final long DEFAULT_SHARD_TIMEOUT_MILLIS = 5000;
+    private static final String REPLICATION_STANDBY_SETTING = "replication.standby";
+    private static final String REPLICATION_ACK_MODE_SETTING = "replication.ackMode";
+    private static final String REPLICATION_TIMEOUT_SETTING = "replication.timeoutMillis";
+    private static final long DEFAULT_REPLICATION_TIMEOUT_MILLIS = 5000;
+    private static final String REPLICATION_BATCH_SIZE_SETTING = "replication.batchSize";
+    private static final int DEFAULT_REPLICATION_BATCH_SIZE = 1024;
+    private static final String REPLICATION_MAX_IN_FLIGHT_SETTING = "replication.maxInFlight";
+    private static final int DEFAULT_REPLICATION_MAX_IN_FLIGHT = 4;
+    private static final String REPLICATION_MAX_BACKLOG_SETTING = "replication.maxBacklog";
+    private static final int DEFAULT_REPLICATION_MAX_BACKLOG = 1_000_000;
+
+    private OrderRepository orders;
+    // The orders this node holds, which are only some of the orders when the store is sharded.
+    private OrderRepository localOrders;
+    private boolean sharded;
+    // Authenticates requests from the other nodes of a sharded or replicated store.
+    private NodeSecret nodeSecret = new NodeSecret(null);
+    private PricingEngine pricing = PricingEngine.defaults();
+    private OrderIdGenerator orderIdGenerator = new TimeOrderedIdGenerator();
+    private BoundedOrderRepository retention;
+    // Set when orders are replicated to a standby.
+    private ReplicatedOrderRepository replication;
+    // Set when orders are journaled.
+    private JournaledOrderRepository journaled;
+    // How long after the JVM started init completed.
+    private long startupMillis;
+    // Set when the response cache is enabled.
+    private OrderResponseCache responseCache;
+    // Null when idempotency keys are disabled.
+    private IdempotencyIndex idempotency = new IdempotencyIndex(DEFAULT_IDEMPOTENCY_MAX_KEYS,
+            TimeUnit.SECONDS.toNanos(DEFAULT_IDEMPOTENCY_TTL_SECONDS));
+    private final OrderStatistics statistics = new OrderStatistics();
+    private final OrderRates rates = new OrderRates();
+    // Bumped after every change to the store made through the servlet, and part of the listing's entity tag along with
+    // the startup time, so tags from before a restart never match.
+    private final AtomicLong storeVersion = new AtomicLong();
+    private final String storeEpoch = Long.toHexString(System.currentTimeMillis());
+    private String orderCacheControl = cacheControl(DEFAULT_ORDER_MAX_AGE_SECONDS);
+    private RequestTimings timings = new RequestTimings(false, DEFAULT_TIMING_SAMPLE_INTERVAL);
+    // Set when async mode is enabled.
+    private ExecutorService asyncExecutor;
+    private final List<Closeable> resources = new ArrayList<>();
+    // Only a store the servlet created itself may be replaced by the store.type setting.
+    private final boolean defaultStore;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // Flushing after every order would turn a streamed listing into one socket write per order.
+    private final ObjectWriter streamingWriter = objectMapper.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private final ObjectWriter streamingOrderWriter = streamingWriter.forType(OrderSummary.class);
+    private OrderJsonWriter orderJsonWriter = new OrderJsonWriter(streamingWriter, true);
+
+    public AppServlet() {
+        this.orders = new InMemoryOrderRepository();
+        this.localOrders = this.orders;
+        this.defaultStore = true;
+    }
+
+    public AppServlet(final OrderRepository orders) {
+        this.orders = Preconditions.checkNotNull(orders);
+        this.localOrders = this.orders;
+        this.defaultStore = false;
+    }
+
+    /**
+     * Builds the pricing rules, order ID generator and order store from settings:
+     * <ul>
+     * <li>{@value #ASYNC_SETTING}=true handles single order POSTs and streamed listings asynchronously on virtual
+     * threads, with non-blocking output, so slow clients do not hold container threads.</li>
+     * <li>{@value #TIMING_SETTING}=true times the phases of one in {@value #TIMING_SAMPLE_INTERVAL_SETTING} order
+     * POSTs (default {@value #DEFAULT_TIMING_SAMPLE_INTERVAL}) for {@value #METRICS_PATH}, and of every order POST
+     * while a JFR recording has the {@code skadi15.OrderRequest} event enabled.</li>
+     * <li>{@value #HAND_WRITTEN_JSON_SETTING}=false writes single orders with Jackson instead of the hand-written
+     * {@link OrderJsonWriter} format, which produces the same bytes.</li>
+     * <li>{@value #PRICING_CONFIG_SETTING} prices orders with the rules in that file, checking it for changes every
+     * {@value #PRICING_RELOAD_INTERVAL_SETTING} milliseconds.</li>
+     * <li>{@value #ORDER_ID_GENERATOR_SETTING}={@value #RANDOM_ORDER_ID_GENERATOR} switches from time-ordered to random
+     * order IDs, and {@value #ORDER_ID_NODE_SETTING} sets the node ID embedded in time-ordered IDs.</li>
+     * <li>{@value #STORE_TYPE_SETTING}={@value #COLUMNAR_STORE_TYPE} switches to the compact
+     * {@link ColumnarOrderRepository}.</li>
+     * <li>{@value #JOURNAL_DIR_SETTING} journals every order there, after restoring the newest snapshot and replaying
+     * the orders journaled since into the store and the order statistics. {@value #JOURNAL_SNAPSHOT_INTERVAL_SETTING}
+     * snapshots the store there that often in the background (default 0, never), and then also on shutdown, so fewer
+     * orders have to be replayed.</li>
+     * <li>{@value #RETENTION_MAX_COUNT_SETTING}, {@value #RETENTION_MAX_AGE_SETTING} and
+     * {@value #RETENTION_MAX_MEMORY_SETTING} bound the store, spilling evicted orders to a journal in
+     * {@value #RETENTION_SPILL_DIR_SETTING} if that is given.</li>
+     * <li>{@value #ORDER_MAX_AGE_SETTING} is how long clients may cache a single order (default one year), capped at
+     * {@value #RETENTION_MAX_AGE_SETTING}.</li>
+     * <li>{@value #RESPONSE_CACHE_MAX_ENTRIES_SETTING} keeps the encoded JSON of up to that many frequently requested
+     * single orders in an {@link OrderResponseCache}.</li>
+     * <li>{@value #IDEMPOTENCY_MAX_KEYS_SETTING} (default {@value #DEFAULT_IDEMPOTENCY_MAX_KEYS}, 0 disables) and
+     * {@value #IDEMPOTENCY_TTL_SETTING} (default one day) bound the {@value #IDEMPOTENCY_KEY_HEADER} values remembered
+     * by the {@link IdempotencyIndex}.</li>
+     * <li>{@value #REPLICATION_STANDBY_SETTING} is the base URL of a standby that every order is shipped to by an
+     * {@link OrderReplicator}, in batches of up to {@value #REPLICATION_BATCH_SIZE_SETTING} orders (default
+     * {@value #DEFAULT_REPLICATION_BATCH_SIZE}) with up to {@value #REPLICATION_MAX_IN_FLIGHT_SETTING} batches in flight
+     * (default {@value #DEFAULT_REPLICATION_MAX_IN_FLIGHT}). Beyond {@value #REPLICATION_MAX_BACKLOG_SETTING}
+     * unacknowledged orders (default {@value #DEFAULT_REPLICATION_MAX_BACKLOG}) the standby is sent a full copy instead.
+     * {@value #REPLICATION_ACK_MODE_SETTING}=sync only answers an order once the standby has it, waiting up to
+     * {@value #REPLICATION_TIMEOUT_SETTING} milliseconds (default {@value #DEFAULT_REPLICATION_TIMEOUT_MILLIS}); the
+     * default, async, does not wait. Any node with the same {@value NodeSecret#SETTING} as the primary, which is
+     * required, can be a standby; without one {@value #REPLICA_PATH} answers no request.</li>
+     * <li>{@value #SHARD_NODES_SETTING} lists the base URLs of every node of a {@link ShardedOrderRepository},
+     * comma-separated and in the same order on every node, and {@value #SHARD_SELF_SETTING} is this node's URL from that
+     * list. This node's store, with its journal and retention policy, then holds only the orders this node owns, and
+     * requests to other nodes give up after {@value #SHARD_TIMEOUT_SETTING} milliseconds without an answer (default
+     * {@value #DEFAULT_SHARD_TIMEOUT_MILLIS}). The nodes must share a {@value NodeSecret#SETTING}, without which
+     * {@value #SHARD_PATH} answers no request.</li>
+     * </ul>
+     */
+    @Override
+    public void init() throws ServletException {
+        final Settings settings = Settings.of(getServletConfig());
+
+        if (settings.getBoolean(ASYNC_SETTING, false)) {
+            asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+            resources.add(asyncExecutor::close);
+        }
+        timings = new RequestTimings(settings.getBoolean(TIMING_SETTING, false),
+                settings.getInt(TIMING_SAMPLE_INTERVAL_SETTING, DEFAULT_TIMING_SAMPLE_INTERVAL));
+        orderJsonWriter = new OrderJsonWriter(streamingWriter, settings.getBoolean(HAND_WRITTEN_JSON_SETTING, true));
+        nodeSecret = NodeSecret.of(settings);
+
+        final String pricingConfig = settings.getString(PRICING_CONFIG_SETTING);
+        if (pricingConfig != null) {
+            try {
+                pricing = new PricingEngine(Path.of(pricingConfig),
+                        settings.getLong(PRICING_RELOAD_INTERVAL_SETTING, DEFAULT_PRICING_RELOAD_INTERVAL_MILLIS),
+                        e -> log("Could not reload pricing rules " + pricingConfig, e));
+                resources.add(pricing);
+            } catch (final IOException | IllegalArgumentException e) {
+                throw new ServletException("Could not load pricing rules " + pricingConfig, e);
+            }
+        }
+
+        if (RANDOM_ORDER_ID_GENERATOR.equals(settings.getString(ORDER_ID_GENERATOR_SETTING))) {
+            orderIdGenerator = UUID::randomUUID;
+        } else if (settings.getString(ORDER_ID_NODE_SETTING) != null) {
+            orderIdGenerator = new TimeOrderedIdGenerator(settings.getInt(ORDER_ID_NODE_SETTING, 0));
+        }
+
+        if (defaultStore && COLUMNAR_STORE_TYPE.equals(settings.getString(STORE_TYPE_SETTING))) {
+            orders = new ColumnarOrderRepository();
+        }
+
+        final String journalDir = settings.getString(JOURNAL_DIR_SETTING);
+        if (journalDir != null) {
+            try {
+                final long start = System.nanoTime();
+                final OrderJournal journal = openJournal(settings, journalDir);
+                try {
+                    journaled = new JournaledOrderRepository(orders, journal,
+                            TimeUnit.SECONDS.toMillis(settings.getLong(JOURNAL_SNAPSHOT_INTERVAL_SETTING, 0)),
+                            e -> log("Could not snapshot orders to " + journalDir, e));
+                } catch (final IOException | RuntimeException e) {
+                    journal.close();
+                    throw e;
+                }
+                // Closes the journal too, after the snapshot taken on shutdown.
+                resources.add(journaled);
+                orders = journaled;
+                statistics.recordAll(orders.getOrders());
+                log(String.format("Recovered %d orders from journal %s in %d ms (%d from a snapshot, %d replayed)",
+                        orders.size(), journalDir, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                        journaled.getSnapshotOrders(), journaled.getJournalOrders()));
+            } catch (final IOException e) {
+                throw new ServletException("Could not open order journal " + journalDir, e);
+            }
+        }
+
+        final String standby = settings.getString(REPLICATION_STANDBY_SETTING);
+        if (standby != null) {
+            final Duration timeout = Duration.ofMillis(
+                    settings.getLong(REPLICATION_TIMEOUT_SETTING, DEFAULT_REPLICATION_TIMEOUT_MILLIS));
+            final ReplicatedOrderRepository.AckMode ackMode = ReplicatedOrderRepository.AckMode.valueOf(
+                    settings.getString(REPLICATION_ACK_MODE_SETTING, "async").trim().toUpperCase(Locale.ROOT));
+            Preconditions.checkArgument(nodeSecret.isConfigured(),
+                    String.format("Setting %s is required with %s", NodeSecret.SETTING, REPLICATION_STANDBY_SETTING));
+            final OrderReplicator replicator = new OrderReplicator(URI.create(standby + REPLICA_PATH), timeout,
+                    nodeSecret, orders::getOrders,
+                    settings.getInt(REPLICATION_BATCH_SIZE_SETTING, DEFAULT_REPLICATION_BATCH_SIZE),
+                    settings.getInt(REPLICATION_MAX_IN_FLIGHT_SETTING, DEFAULT_REPLICATION_MAX_IN_FLIGHT),
+                    settings.getInt(REPLICATION_MAX_BACKLOG_SETTING, DEFAULT_REPLICATION_MAX_BACKLOG));
+            resources.add(replicator);
+            replication = new ReplicatedOrderRepository(orders, replicator, ackMode, timeout);
+            orders = replication;
+        }
+
+        final int idempotencyMaxKeys = settings.getInt(IDEMPOTENCY_MAX_KEYS_SETTING, DEFAULT_IDEMPOTENCY_MAX_KEYS);
+        idempotency = idempotencyMaxKeys > 0
+                ? new IdempotencyIndex(idempotencyMaxKeys, TimeUnit.SECONDS.toNanos(
+                        settings.getLong(IDEMPOTENCY_TTL_SETTING, DEFAULT_IDEMPOTENCY_TTL_SECONDS)))
+                : null;
+
+        final int responseCacheEntries = settings.getInt(RESPONSE_CACHE_MAX_ENTRIES_SETTING, 0);
+        if (responseCacheEntries > 0) {
+            responseCache = new OrderResponseCache(responseCacheEntries);
+        }
+
+        final long maxAgeSeconds = settings.getLong(RETENTION_MAX_AGE_SETTING, 0);
+        final RetentionPolicy policy = RetentionPolicy.builder()
+                .maxCount(settings.getLong(RETENTION_MAX_COUNT_SETTING, 0))
+                .maxAge(maxAgeSeconds > 0 ? Duration.ofSeconds(maxAgeSeconds) : null)
+                .maxMemoryBytes(settings.getLong(RETENTION_MAX_MEMORY_SETTING, 0))
+                .build();
+        if (!policy.isUnlimited()) {
+            final String spillDir = settings.getString(RETENTION_SPILL_DIR_SETTING);
+            Consumer<OrderSummary> spill = order -> {};
+            if (spillDir != null) {
+                try {
+                    final OrderJournal spillJournal = openJournal(settings, spillDir);
+                    resources.add(spillJournal);
+                    spill = spillJournal::append;
+                } catch (final IOException e) {
+                    throw new ServletException("Could not open spill journal " + spillDir, e);
+                }
+            }
+            retention = new BoundedOrderRepository(orders, policy, spill.andThen(this::onStoreChanged));
+            orders = retention;
+        }
+
+        long orderMaxAgeSeconds = settings.getLong(ORDER_MAX_AGE_SETTING, DEFAULT_ORDER_MAX_AGE_SECONDS);
+        if (maxAgeSeconds > 0) {
+            orderMaxAgeSeconds = Math.min(orderMaxAgeSeconds, maxAgeSeconds);
+        }
+        orderCacheControl = cacheControl(orderMaxAgeSeconds);
+
+        localOrders = orders;
+        final String shardNodes = settings.getString(SHARD_NODES_SETTING);
+        if (shardNodes != null) {
+            final List<String> nodes = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(shardNodes);
+            final String self = settings.getString(SHARD_SELF_SETTING);
+            Preconditions.checkArgument(nodes.contains(self),
+                    String.format("Setting %s must be one of %s [value=%s]", SHARD_SELF_SETTING, nodes, self));
+            Preconditions.checkArgument(nodeSecret.isConfigured(),
+                    String.format("Setting %s is required with %s", NodeSecret.SETTING, SHARD_NODES_SETTING));
+
+            final Duration timeout = Duration.ofMillis(settings.getLong(SHARD_TIMEOUT_SETTING, DEFAULT_SHARD_TIMEOUT_MILLIS));
+            final HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(timeout)
+                    .build();
+            final ExecutorService shardExecutor = Executors.newVirtualThreadPerTaskExecutor();
+            resources.add(shardExecutor::close);
+            resources.add(client::close);
+            final List<OrderRepository> shards = new ArrayList<>(nodes.size());
+            for (final String node : nodes) {
+                shards.add(node.equals(self) ? localOrders
+                        : new RemoteOrderRepository(client, URI.create(node + SHARD_PATH), timeout, nodeSecret));
+            }
+            orders = new ShardedOrderRepository(new ShardRing(nodes), shards, shardExecutor);
+            sharded = true;
+        }
+
+        startupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        log(String.format("Ready to serve %d orders %d ms after the JVM started", localOrders.size(), startupMillis));
+    }
+
+    @Override
+    public void destroy() {
+        for (final Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (final IOException e) {
+                log("Could not close " + resource, e);
+            }
+        }
+        resources.clear();
+    }
+
+    private OrderJournal openJournal(final Settings settings, final String directory) throws IOException {
+        final OrderJournal journal = new OrderJournal(
+                Path.of(directory),
+                settings.getInt(JOURNAL_SEGMENT_BYTES_SETTING, DEFAULT_JOURNAL_SEGMENT_BYTES),
+                settings.getLong(JOURNAL_SYNC_INTERVAL_SETTING, DEFAULT_JOURNAL_SYNC_INTERVAL_MILLIS));
+        return journal;
+    }
 
     @Override
     public void doPost(final HttpServletRequest req, final HttpServletResponse resp) {
+        if (BATCH_PATH.equals(req.getServletPath())) {
+            doBatchPost(req, resp);
+            return;
+        }
+        if (SHARD_PATH.equals(req.getServletPath())) {
+            if (isPeerRequest(sharded, req, resp)) {
+                doShardPost(req, resp);
+            }
+            return;
+        }
+        if (REPLICA_PATH.equals(req.getServletPath())) {
+            if (isPeerRequest(nodeSecret.isConfigured(), req, resp)) {
+                doReplicaPost(req, resp);
+            }
+            return;
+        }
+
+        final RequestTimings.Timer timer = timings.start();
         final int numApples = checkIntParameter(req, APPLES_PARAMETER);
         final int numOranges = checkIntParameter(req, ORANGES_PARAMETER);
+        final WireFormat format = WireFormat.negotiate(req.getHeader(ACCEPT_HEADER));
+        final String idempotencyKey = idempotency != null ? req.getHeader(IDEMPOTENCY_KEY_HEADER) : null;
+        timer.lap(RequestTimings.Phase.PARSE);
 
         try {
-            resp.getOutputStream().print(objectMapper.writeValueAsString(processOrder(numApples, numOranges)));
+            if (format != WireFormat.JSON) {
+                resp.setContentType(format.getContentType());
+            }
+            if (isAsync(req)) {
+                AsyncResponseWriter.start(req.startAsync(), asyncExecutor, chunk -> {
+                    timer.resume();
+                    writeOrder(submitOrder(numApples, numOranges, idempotencyKey, timer, resp), format, chunk);
+                    timer.lap(RequestTimings.Phase.SERIALIZE);
+                    timer.finish();
+                    return false;
+                });
+                return;
+            }
+            final OrderSummary order = submitOrder(numApples, numOranges, idempotencyKey, timer, resp);
+            writeOrder(order, format, resp.getOutputStream());
+            timer.lap(RequestTimings.Phase.SERIALIZE);
+            timer.finish();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Prices a batch of orders given as a JSON array, as NDJSON ({@code application/x-ndjson}), where each item is
+     * {@code {"apples": n, "oranges": m}}, or as {@link WireFormat#RECORD} items. Responds with a JSON array holding,
+     * in input order, either the {@link OrderSummary} for each item or {@code {"index": i, "error": "..."}} if the
+     * item was invalid, or with one record per item if the client accepts {@link WireFormat#RECORD}. Items are handled
+     * in chunks that are stored with one {@link OrderRepository#recordOrders} call before their results are written.
+     * That is a bulk insert for stores that amortise work across a batch, such as {@link ColumnarOrderRepository},
+     * which takes its write lock once per chunk; the default store records the orders one at a time.
+     */
+    private void doBatchPost(final HttpServletRequest req, final HttpServletResponse resp) {
+        final boolean ndjson = req.getContentType() != null && req.getContentType().startsWith(NDJSON_CONTENT_TYPE);
+        final boolean recordInput = WireFormat.ofContentType(req.getContentType()) == WireFormat.RECORD;
+        final WireFormat format = WireFormat.negotiate(req.getHeader(ACCEPT_HEADER));
+
+        try (InputStream input = req.getInputStream();
+                JsonParser parser = recordInput ? null : objectMapper.createParser(input)) {
+            final BatchReader reader;
+            if (recordInput) {
+                final InputStream items = new BufferedInputStream(input);
+                reader = (firstIndex, chunk, results) -> readRecordBatchChunk(items, firstIndex, chunk, results);
+            } else {
+                if (!ndjson) {
+                    Preconditions.checkArgument(parser.nextToken() == JsonToken.START_ARRAY, "Batch must be a JSON array");
+                }
+                reader = (firstIndex, chunk, results) -> readBatchChunk(parser, firstIndex, chunk, results);
+            }
+
+            resp.setContentType(format.getContentType());
+            final OutputStream output = resp.getOutputStream();
+            try (JsonGenerator generator = format == WireFormat.JSON ? objectMapper.createGenerator(output) : null) {
+                if (generator != null) {
+                    generator.writeStartArray();
+                }
+                final List<OrderSummary> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+                final List<Object> results = new ArrayList<>(BATCH_CHUNK_SIZE);
+                int index = 0;
+                boolean more = true;
+                while (more) {
+                    more = reader.readChunk(index, chunk, results);
+                    recordOrders(chunk);
+                    if (generator != null) {
+                        for (final Object result : results) {
+                            streamingWriter.writeValue(generator, result);
+                        }
+                    } else {
+                        writeRecordResults(results, output);
+                    }
+                    index += results.size();
+                    chunk.clear();
+                    results.clear();
+                }
+                if (generator != null) {
+                    generator.writeEndArray();
+                }
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Reads and prices up to {@link #BATCH_CHUNK_SIZE} {@link WireFormat#RECORD} batch items, as
+     * {@link #readBatchChunk} does. A truncated last item ends the batch with an error.
+     *
+     * @return whether more items may follow.
+     */
+    private boolean readRecordBatchChunk(final InputStream items, final int firstIndex, final List<OrderSummary> chunk,
+            final List<Object> results) throws IOException {
+        final ByteBuffer item = ByteBuffer.allocate(RECORD_BATCH_ITEM_BYTES);
+        while (results.size() < BATCH_CHUNK_SIZE) {
+            final int index = firstIndex + results.size();
+            final int read = items.readNBytes(item.array(), 0, RECORD_BATCH_ITEM_BYTES);
+            if (read == 0) {
+                return false;
+            }
+            if (read < RECORD_BATCH_ITEM_BYTES) {
+                results.add(new BatchItemError(index, String.format("Batch item is truncated [bytes=%d]", read)));
+                return false;
+            }
+
+            try {
+                final OrderSummary order = priceOrder(
+                        checkQuantity(APPLES_PARAMETER, item.getInt(0)),
+                        checkQuantity(ORANGES_PARAMETER, item.getInt(4)));
+                chunk.add(order);
+                results.add(order);
+            } catch (final IllegalArgumentException e) {
+                results.add(new BatchItemError(index, e.getMessage()));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a record for each priced order and a record of zeros for each item that failed.
+     */
+    private void writeRecordResults(final List<Object> results, final OutputStream output) throws IOException {
+        final ByteBuffer records = ByteBuffer.allocate(results.size() * OrderRecords.RECORD_BYTES);
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) instanceof OrderSummary order) {
+                OrderRecords.write(records, i * OrderRecords.RECORD_BYTES, order);
+            }
+        }
+        output.write(records.array());
+    }
+
+    /**
+     * Reads and prices up to {@link #BATCH_CHUNK_SIZE} batch items, adding priced orders to {@code chunk} and every
+     * item's result to {@code results}. Malformed JSON cannot be resynchronised, so it ends the batch with an error.
+     *
+     * @return whether more items may follow.
+     */
+    private boolean readBatchChunk(final JsonParser parser, final int firstIndex, final List<OrderSummary> chunk,
+            final List<Object> results) throws IOException {
+        while (results.size() < BATCH_CHUNK_SIZE) {
+            final int index = firstIndex + results.size();
+            final JsonNode item;
+            try {
+                final JsonToken token = parser.nextToken();
+                if (token == null || token == JsonToken.END_ARRAY) {
+                    return false;
+                }
+                item = parser.readValueAsTree();
+            } catch (final JsonProcessingException e) {
+                results.add(new BatchItemError(index, e.getOriginalMessage()));
+                return false;
+            }
+
+            try {
+                final OrderSummary order = priceOrder(
+                        checkIntField(item, APPLES_PARAMETER),
+                        checkIntField(item, ORANGES_PARAMETER));
+                chunk.add(order);
+                results.add(order);
+            } catch (final IllegalArgumentException e) {
+                results.add(new BatchItemError(index, e.getMessage()));
+            }
+        }
+        return true;
+    }
+
     @Override
     public void doGet(final HttpServletRequest req, final HttpServletResponse resp) {
         try {
+            if (STORE_PATH.equals(req.getServletPath())) {
+                writeStoreMetrics(resp);
+                return;
+            }
+            if (STATS_PATH.equals(req.getServletPath())) {
+                resp.setContentType(JSON_CONTENT_TYPE);
+                objectMapper.writeValue(resp.getOutputStream(), statistics.snapshot());
+                return;
+            }
+            if (RATES_PATH.equals(req.getServletPath())) {
+                resp.setContentType(JSON_CONTENT_TYPE);
+                objectMapper.writeValue(resp.getOutputStream(), rates.snapshot());
+                return;
+            }
+            if (METRICS_PATH.equals(req.getServletPath())) {
+                writePrometheusMetrics(resp);
+                return;
+            }
+            if (SHARD_PATH.equals(req.getServletPath())) {
+                if (isPeerRequest(sharded, req, resp)) {
+                    doShardGet(req, resp);
+                }
+                return;
+            }
+
             final UUID orderId = checkUuidParameter(req, ORDER_ID_PARAMETER);
+            final WireFormat format = WireFormat.negotiate(req.getHeader(ACCEPT_HEADER));
             
-            // If no orderId given, return all orders.
-            if (orderId == null) {
-                resp.getOutputStream().print(
-                    getOrders().stream()
-                            .map(order -> {
-                                try {
-                                    return objectMapper.writeValueAsString(order);
-                                } catch (JsonProcessingException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            })
-                            .collect(Collectors.joining(","))
-                );
-            } else {
-                final OrderSummary order = getOrder(orderId);
-                if (order == null) {
-                    resp.getOutputStream().print("No order found for ID " + orderId.toString());
+            // If no orderId given, return a page of orders when a query is given and all orders otherwise. Pages are
+            // always JSON, since they carry a cursor.
+            if (orderId == null && isQuery(req)) {
+                writeOrderPage(findOrders(checkQueryParameters(req)), resp);
+            } else if (orderId == null && !sharded
+                    && isNotModified(req, resp, listingEntityTag(req, format), LISTING_CACHE_CONTROL)) {
+                // The client's copy of the listing is current. Other nodes change a sharded listing without moving
+                // this node's store version, so it is never answered conditionally.
+            } else if (orderId == null && format == WireFormat.RECORD) {
+                resp.setContentType(format.getContentType());
+                final OrderRecordChunks records = new OrderRecordChunks(getOrders());
+                if (isAsync(req)) {
+                    AsyncResponseWriter.start(req.startAsync(), asyncExecutor, records);
                 } else {
-                    resp.getOutputStream().print(objectMapper.writeValueAsString(order));
+                    records.writeTo(resp.getOutputStream());
                 }
+            } else if (orderId == null && checkBooleanParameter(req, STREAM_PARAMETER) && isAsync(req)) {
+                resp.setContentType(JSON_CONTENT_TYPE);
+                AsyncResponseWriter.start(req.startAsync(), asyncExecutor, new OrderArrayChunks(getOrders()));
+            } else if (orderId == null && checkBooleanParameter(req, STREAM_PARAMETER)) {
+                streamOrders(getOrders(), resp);
+            } else if (orderId == null) {
+                // Comma-separated orders without enclosing brackets, as this listing has always been written.
+                final ServletOutputStream output = resp.getOutputStream();
+                boolean first = true;
+                for (final OrderSummary order : getOrders()) {
+                    if (!first) {
+                        output.write(',');
+                    }
+                    orderJsonWriter.write(order, output);
+                    first = false;
+                }
+            } else {
+                writeStoredOrder(orderId, format, req, resp);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private OrderSummary processOrder(final int numApples, final int numOranges) {
-        final float appleCost = Math.ceilDiv(numApples, 2) * APPLE_COST; // BOGO free
-        final float orangeCost = (numOranges / 3 * 2 + numOranges % 3) * ORANGE_COST; // 3 for the price of 2
-        final OrderSummary order = OrderSummary.builder()
-                .orderId(UUID.randomUUID())
+    /**
+     * Removes an order from this node's shard for another node of a sharded store, answering with the removed order
+     * as a {@link WireFormat#RECORD} record, or 404 Not Found if there was none.
+     */
+    @Override
+    public void doDelete(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        if (!SHARD_PATH.equals(req.getServletPath())) {
+            super.doDelete(req, resp);
+            return;
+        }
+        if (!isPeerRequest(sharded, req, resp)) {
+            return;
+        }
+
+        final UUID orderId = checkUuidParameter(req, ORDER_ID_PARAMETER);
+        Preconditions.checkArgument(orderId != null, String.format("Parameter %s not in request", ORDER_ID_PARAMETER));
+        final OrderSummary removed = localOrders.removeOrder(orderId);
+        if (removed != null) {
+            onStoreChanged(removed);
+        }
+        writeShardOrder(removed, resp);
+    }
+
+    /**
+     * Answers 404 Not Found unless the endpoint is enabled, and 403 Forbidden unless the request carries the
+     * {@link NodeSecret}, since the shard and replica endpoints store and remove orders without pricing them.
+     *
+     * @return whether the request comes from another node and may be served.
+     */
+    private boolean isPeerRequest(final boolean enabled, final HttpServletRequest req, final HttpServletResponse resp) {
+        if (!enabled) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return false;
+        }
+        if (!nodeSecret.authenticates(req)) {
+            resp.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Serves this node's shard to another node of a sharded store: a single order as a {@link WireFormat#RECORD}
+     * record, or 404 Not Found if there is none; the number of orders for {@value #COUNT_PARAMETER}; a page as JSON
+     * for a query; and otherwise every order as records.
+     */
+    private void doShardGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        final UUID orderId = checkUuidParameter(req, ORDER_ID_PARAMETER);
+        if (orderId != null) {
+            writeShardOrder(localOrders.getOrder(orderId), resp);
+        } else if (req.getParameterMap().containsKey(COUNT_PARAMETER)) {
+            resp.setContentType("text/plain");
+            resp.getOutputStream().print(localOrders.size());
+        } else if (isQuery(req)) {
+            writeOrderPage(localOrders.findOrders(checkQueryParameters(req)), resp);
+        } else {
+            resp.setContentType(WireFormat.RECORD.getContentType());
+            new OrderRecordChunks(localOrders.getOrders()).writeTo(resp.getOutputStream());
+        }
+    }
+
+    /**
+     * Stores the {@link WireFormat#RECORD} records in the request body in this node's shard, for another node of a
+     * sharded store. They were priced and counted in the statistics by the node that received them.
+     */
+    private void doShardPost(final HttpServletRequest req, final HttpServletResponse resp) {
+        final List<OrderSummary> received = readRecords(req);
+        localOrders.recordOrders(received);
+        received.forEach(this::onStoreChanged);
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * Stores the {@link WireFormat#RECORD} records in the request body, shipped by the {@link OrderReplicator} of a
+     * node this one is the standby of, and answers with this node's startup epoch so the sender can tell when it
+     * restarted. Only orders new to this node are added to the statistics, since the same order may be shipped twice,
+     * in overlapping batches; each order is stored and checked for in one step, so exactly one batch adds it.
+     */
+    private void doReplicaPost(final HttpServletRequest req, final HttpServletResponse resp) {
+        final List<OrderSummary> received = readRecords(req);
+        final List<OrderSummary> added = new ArrayList<>(received.size());
+        for (final OrderSummary order : received) {
+            if (localOrders.putOrder(order) == null) {
+                added.add(order);
+            }
+            onStoreChanged(order);
+        }
+        statistics.recordAll(added);
+        rates.recordAll(added);
+
+        resp.setContentType("text/plain");
+        try {
+            resp.getOutputStream().print(storeEpoch);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private List<OrderSummary> readRecords(final HttpServletRequest req) {
+        final ByteBuffer records;
+        try (InputStream input = req.getInputStream()) {
+            records = ByteBuffer.wrap(input.readAllBytes());
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        Preconditions.checkArgument(records.capacity() % OrderRecords.RECORD_BYTES == 0,
+                String.format("Records must be %d bytes each [bytes=%d]", OrderRecords.RECORD_BYTES, records.capacity()));
+
+        final List<OrderSummary> received = new ArrayList<>(records.capacity() / OrderRecords.RECORD_BYTES);
+        for (int offset = 0; offset < records.capacity(); offset += OrderRecords.RECORD_BYTES) {
+            Preconditions.checkArgument(OrderRecords.isValid(records, offset),
+                    String.format("Record is corrupt [index=%d]", offset / OrderRecords.RECORD_BYTES));
+            received.add(OrderRecords.read(records, offset));
+        }
+        return received;
+    }
+
+    private void writeShardOrder(final OrderSummary order, final HttpServletResponse resp) throws IOException {
+        if (order == null) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        resp.setContentType(WireFormat.RECORD.getContentType());
+        writeOrder(order, WireFormat.RECORD, resp.getOutputStream());
+    }
+
+    private void writeStoredOrder(final UUID orderId, final WireFormat format, final HttpServletRequest req,
+            final HttpServletResponse resp) throws IOException {
+        final CachedResponse cached = responseCache != null && format == WireFormat.JSON
+                ? cachedResponse(orderId)
+                : null;
+        if (cached != null) {
+            if (!isNotModified(req, resp, cached.getEntityTag(), orderCacheControl)) {
+                resp.getOutputStream().write(cached.getBody());
+            }
+            return;
+        }
+
+        final OrderSummary order = getOrder(orderId);
+        if (order == null && format == WireFormat.RECORD) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        } else if (order == null) {
+            resp.getOutputStream().print("No order found for ID " + orderId.toString());
+        } else if (!isNotModified(req, resp, orderEntityTag(order, format), orderCacheControl)) {
+            if (format != WireFormat.JSON) {
+                resp.setContentType(format.getContentType());
+            }
+            writeOrder(order, format, resp.getOutputStream());
+        }
+    }
+
+    /**
+     * @return the order's JSON response from the response cache, encoding and offering it to the cache on a miss, or
+     *         {@code null} if no order is stored under the ID.
+     */
+    private CachedResponse cachedResponse(final UUID orderId) throws IOException {
+        final long stamp = responseCache.stamp(orderId);
+        final CachedResponse cached = responseCache.get(orderId);
+        // A retention policy still has to see the lookup, so the order stays recently used and expires on time, and
+        // so does the owning node's when the store is sharded.
+        if (cached != null && retention == null && !sharded) {
+            return cached;
+        }
+        final OrderSummary order = getOrder(orderId);
+        if (order == null) {
+            return null;
+        }
+        if (cached != null) {
+            return cached;
+        }
+
+        final CachedResponse response = new CachedResponse(orderJsonWriter.toBytes(order),
+                orderEntityTag(order, WireFormat.JSON));
+        responseCache.put(orderId, response, stamp);
+        return response;
+    }
+
+    /**
+     * Tags the response with an entity tag and answers an {@code If-None-Match} that matches it with 304 Not Modified.
+     *
+     * @return whether the response is complete, so the representation must not be written.
+     */
+    private boolean isNotModified(final HttpServletRequest req, final HttpServletResponse resp, final String entityTag,
+            final String cacheControl) {
+        resp.setHeader(ETAG_HEADER, entityTag);
+        resp.setHeader(CACHE_CONTROL_HEADER, cacheControl);
+        resp.addHeader("Vary", ACCEPT_HEADER);
+        if (!HttpHeaders.matchesEntityTag(req.getHeader(IF_NONE_MATCH_HEADER), entityTag)) {
+            return false;
+        }
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    /**
+     * Tags a listing with the store version, read before the listing so that an order stored while it is written can
+     * only make the tag look stale, never current. Each way of writing the listing gets its own tag.
+     */
+    private String listingEntityTag(final HttpServletRequest req, final WireFormat format) {
+        final String representation = format == WireFormat.RECORD ? "record"
+                : checkBooleanParameter(req, STREAM_PARAMETER) ? "stream"
+                : "list";
+        return "\"" + storeEpoch + "-" + storeVersion.get() + "-" + representation + "\"";
+    }
+
+    /**
+     * Tags an order with a fingerprint of its fields, so the tag is computed without serializing the order and stays
+     * the same across restarts.
+     */
+    private static String orderEntityTag(final OrderSummary order, final WireFormat format) {
+        long fingerprint = mix(order.getOrderId().getMostSignificantBits());
+        fingerprint = mix(fingerprint ^ order.getOrderId().getLeastSignificantBits());
+        fingerprint = mix(fingerprint ^ ((long) order.getNumApples() << 32 | order.getNumOranges() & 0xFFFFFFFFL));
+        fingerprint = mix(fingerprint ^ order.getTotalCostCents());
+        return "\"" + Long.toHexString(fingerprint) + "-" + format.name().toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer, which spreads every input bit over the whole result.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ value >>> 33;
+    }
+
+    private static String cacheControl(final long maxAgeSeconds) {
+        return "max-age=" + maxAgeSeconds + ", immutable";
+    }
+
+    /**
+     * Writes the store size, plus eviction and lookup counts when a retention policy is configured.
+     */
+    private void writeStoreMetrics(final HttpServletResponse resp) throws IOException {
+        resp.setContentType(JSON_CONTENT_TYPE);
+        objectMapper.writeValue(resp.getOutputStream(),
+                retention != null ? retention.getMetrics() : Map.of("size", orders.size()));
+    }
+
+    /**
+     * Writes the order statistics, trailing rates, request phase latencies, store, snapshot, replication, idempotency,
+     * response cache, admission and compression metrics in the Prometheus text format for scraping.
+     */
+    private void writePrometheusMetrics(final HttpServletResponse resp) throws IOException {
+        final OrderStats stats = statistics.snapshot();
+        final Map<String, Double> costQuantiles = new LinkedHashMap<>();
+        for (int i = 0; i < OrderStatistics.PERCENTILES.length; i++) {
+            costQuantiles.put(Double.toString(OrderStatistics.PERCENTILES[i]),
+                    Money.toDouble(stats.getCostPercentilesCents().get(OrderStatistics.PERCENTILE_NAMES[i])));
+        }
+        final Map<String, Double> ordersPerSecond = new LinkedHashMap<>();
+        final Map<String, Double> revenuePerMinute = new LinkedHashMap<>();
+        rates.snapshot().forEach((window, rate) -> {
+            ordersPerSecond.put(window, rate.getOrdersPerSecond());
+            revenuePerMinute.put(window, rate.getRevenuePerMinute());
+        });
+
+        final PrometheusText text = new PrometheusText()
+                .counter("orders_total", "Orders recorded since startup.", stats.getCount())
+                .counter("order_revenue_total", "Revenue of orders recorded since startup.", Money.toDouble(stats.getRevenueCents()))
+                .counter("order_apples_total", "Apples ordered since startup.", stats.getNumApples())
+                .counter("order_oranges_total", "Oranges ordered since startup.", stats.getNumOranges())
+                .summary("order_cost", "Estimated order cost percentiles since startup.", costQuantiles,
+                        stats.getCount(), Money.toDouble(stats.getRevenueCents()))
+                .gauge("order_rate_per_second", "Orders per second over a trailing window.", "window", ordersPerSecond)
+                .gauge("order_revenue_per_minute", "Revenue per minute over a trailing window.", "window", revenuePerMinute)
+                .gauge("order_store_size", "Orders in this node's store.", localOrders.size())
+                .gauge("order_startup_seconds", "Time from JVM start until the store was recovered and ready to serve.",
+                        startupMillis / 1e3);
+        if (timings.isEnabled()) {
+            text.family("order_request_phase_seconds", "Order POST latency by phase, over sampled requests.", "summary");
+            timings.quantiles(TIMING_QUANTILES).forEach((phase, nanos) -> {
+                final String phaseName = phase.name().toLowerCase(Locale.ROOT);
+                for (int i = 0; i < TIMING_QUANTILES.length; i++) {
+                    text.sample("order_request_phase_seconds", nanos[i] / 1e9,
+                            "phase", phaseName, "quantile", Double.toString(TIMING_QUANTILES[i]));
+                }
+                text.sample("order_request_phase_seconds_count", timings.count(phase), "phase", phaseName);
+            });
+        }
+        if (retention != null) {
+            final RetentionMetrics metrics = retention.getMetrics();
+            text.counter("order_store_evictions_total", "Orders evicted by the retention policy.", metrics.getEvictions())
+                    .counter("order_store_hits_total", "Order lookups that found the order.", metrics.getHits())
+                    .counter("order_store_misses_total", "Order lookups that found no order.", metrics.getMisses());
+        }
+        if (journaled != null) {
+            final SnapshotMetrics metrics = journaled.getMetrics();
+            text.counter("order_snapshots_total", "Snapshots of the store written next to the journal.",
+                            metrics.getSnapshots())
+                    .counter("order_snapshot_failures_total", "Background snapshots that failed.", metrics.getFailures())
+                    .counter("order_snapshot_discards_total", "Snapshots discarded because orders moved meanwhile.",
+                            metrics.getDiscards())
+                    .gauge("order_snapshot_orders", "Orders in the last snapshot.", metrics.getLastOrders())
+                    .gauge("order_snapshot_seconds", "Time taken to write the last snapshot.", metrics.getLastNanos() / 1e9);
+        }
+        if (replication != null) {
+            final ReplicationMetrics metrics = replication.getMetrics();
+            text.gauge("order_replication_lag", "Orders not yet acknowledged by the standby.", metrics.getLag())
+                    .gauge("order_replication_connected", "Whether the standby is caught up apart from the lag.",
+                            metrics.isConnected() ? 1 : 0)
+                    .counter("order_replication_batches_total", "Batches of orders shipped to the standby.",
+                            metrics.getBatches())
+                    .counter("order_replication_resyncs_total", "Full copies of the store shipped to the standby.",
+                            metrics.getResyncs())
+                    .counter("order_replication_failures_total", "Batches the standby did not store.",
+                            metrics.getFailures());
+        }
+        if (idempotency != null) {
+            text.gauge("order_idempotency_keys", "Idempotency keys remembered.", idempotency.size())
+                    .counter("order_idempotent_replays_total", "Order POSTs answered with an earlier order for their key.",
+                            idempotency.getReplays())
+                    .counter("order_idempotency_evictions_total", "Idempotency keys forgotten to make room or after expiring.",
+                            idempotency.getEvictions());
+        }
+        if (responseCache != null) {
+            final ResponseCacheMetrics metrics = responseCache.getMetrics();
+            text.counter("order_response_cache_hits_total", "Single order GETs served from the response cache.",
+                            metrics.getHits())
+                    .counter("order_response_cache_misses_total", "Single order GETs not in the response cache.",
+                            metrics.getMisses())
+                    .counter("order_response_cache_evictions_total", "Responses evicted from the response cache.",
+                            metrics.getEvictions())
+                    .gauge("order_response_cache_size", "Responses in the response cache.", metrics.getSize())
+                    .gauge("order_response_cache_bytes", "Estimated heap used by the response cache.",
+                            metrics.getMemoryBytes());
+        }
+        final AdmissionFilter admission = getServletConfig() != null
+                ? (AdmissionFilter) getServletContext().getAttribute(AdmissionFilter.METRICS_ATTRIBUTE)
+                : null;
+        if (admission != null) {
+            final AdmissionMetrics metrics = admission.getMetrics();
+            text.counter("order_requests_rate_limited_total", "Requests rejected because their client was over its rate.",
+                            metrics.getRateLimited())
+                    .counter("order_requests_shed_total", "Requests rejected because too many were in flight.",
+                            metrics.getShed())
+                    .gauge("order_requests_in_flight", "Requests being handled, when load shedding is on.",
+                            metrics.getInFlight())
+                    .gauge("order_rate_limited_clients", "Clients with a rate limiter.", metrics.getClients());
+        }
+        final CompressionFilter compression = getServletConfig() != null
+                ? (CompressionFilter) getServletContext().getAttribute(CompressionFilter.METRICS_ATTRIBUTE)
+                : null;
+        if (compression != null) {
+            final CompressionMetrics metrics = compression.getMetrics();
+            text.counter("order_responses_compressed_total", "Responses compressed.", metrics.getCompressedResponses())
+                    .counter("order_responses_below_compression_threshold_total",
+                            "Responses to clients accepting compression that were too small to compress.",
+                            metrics.getUncompressedResponses())
+                    .counter("order_compression_input_bytes_total", "Bytes of compressed responses before compression.",
+                            metrics.getBytesIn())
+                    .counter("order_compression_output_bytes_total", "Bytes of compressed responses after compression.",
+                            metrics.getBytesOut())
+                    .counter("order_compression_seconds_total", "Time spent compressing responses.",
+                            metrics.getCompressionNanos() / 1e9);
+        }
+
+        resp.setContentType(PrometheusText.CONTENT_TYPE);
+        resp.getOutputStream().write(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the orders to the response as a JSON array, one order at a time. Only the generator's fixed-size buffer
+     * is held in memory, so heap use does not depend on how many orders are written.
+     */
+    private void streamOrders(final Iterable<OrderSummary> orders, final HttpServletResponse resp) throws IOException {
+        resp.setContentType(JSON_CONTENT_TYPE);
+        try (JsonGenerator generator = objectMapper.createGenerator(resp.getOutputStream())) {
+            writeOrderArray(orders, generator);
+        }
+    }
+
+    /**
+     * Writes a page as {@code {"orders": [...], "nextCursor": "..."}}, omitting the cursor on the last page.
+     */
+    private void writeOrderPage(final OrderPage page, final HttpServletResponse resp) throws IOException {
+        resp.setContentType(JSON_CONTENT_TYPE);
+        try (JsonGenerator generator = objectMapper.createGenerator(resp.getOutputStream())) {
+            generator.writeStartObject();
+            generator.writeFieldName("orders");
+            writeOrderArray(page.getOrders(), generator);
+            if (page.getNextCursor() != null) {
+                generator.writeStringField("nextCursor", page.getNextCursor());
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeOrderArray(final Iterable<OrderSummary> orders, final JsonGenerator generator)
+            throws IOException {
+        generator.writeStartArray();
+        for (final OrderSummary order : orders) {
+            streamingOrderWriter.writeValue(generator, order);
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeOrder(final OrderSummary order, final WireFormat format, final OutputStream output)
+            throws IOException {
+        if (format == WireFormat.RECORD) {
+            final ByteBuffer record = ByteBuffer.allocate(OrderRecords.RECORD_BYTES);
+            OrderRecords.write(record, 0, order);
+            output.write(record.array());
+        } else {
+            orderJsonWriter.write(order, output);
+        }
+    }
+
+    public OrderSummary processOrder(final int numApples, final int numOranges) {
+        return processOrder(numApples, numOranges, RequestTimings.disabled());
+    }
+
+    /**
+     * Processes the order, unless it carries an idempotency key that an earlier submission already used, in which case
+     * that submission's order is returned and the response is marked as a replay.
+     */
+    private OrderSummary submitOrder(final int numApples, final int numOranges, final String idempotencyKey,
+            final RequestTimings.Timer timer, final HttpServletResponse resp) {
+        if (idempotencyKey == null) {
+            return processOrder(numApples, numOranges, timer);
+        }
+        final IdempotencyIndex.Submission submission = idempotency.submit(idempotencyKey, numApples, numOranges,
+                () -> processOrder(numApples, numOranges, timer));
+        if (submission.isReplayed()) {
+            resp.setHeader(IDEMPOTENT_REPLAYED_HEADER, "true");
+        }
+        return submission.getOrder();
+    }
+
+    private OrderSummary processOrder(final int numApples, final int numOranges, final RequestTimings.Timer timer) {
+        final OrderSummary order = priceOrder(numApples, numOranges);
+        timer.lap(RequestTimings.Phase.PRICE);
+        recordOrder(order);
+        timer.lap(RequestTimings.Phase.STORE);
+        return order;
+    }
+
+    private OrderSummary priceOrder(final int numApples, final int numOranges) {
+        return OrderSummary.builder()
+                .orderId(orderIdGenerator.nextId())
                 .numApples(numApples)
                 .numOranges(numOranges)
-                .totalCost(appleCost + orangeCost)
+                .totalCostCents(pricing.current().priceOrder(numApples, numOranges))
                 .build();
-        recordOrder(order);
-        return order;
     }
 
     public void recordOrder(final OrderSummary order) {
-        orders.put(order.getOrderId(), order);
+        orders.recordOrder(order);
+        onStoreChanged(order);
+        statistics.record(order);
+        rates.record(order);
+    }
+
+    public void recordOrders(final Collection<OrderSummary> orders) {
+        this.orders.recordOrders(orders);
+        orders.forEach(this::onStoreChanged);
+        statistics.recordAll(orders);
+        rates.recordAll(orders);
+    }
+
+    /**
+     * Invalidates what was derived from the store, after an order is stored or evicted.
+     */
+    private void onStoreChanged(final OrderSummary order) {
+        storeVersion.incrementAndGet();
+        if (responseCache != null) {
+            responseCache.invalidate(order.getOrderId());
+        }
     }
 
     public OrderSummary getOrder(final UUID orderId) {
-        return orders.get(orderId);
+        return orders.getOrder(orderId);
     }
 
     public Collection<OrderSummary> getOrders() {
-        return orders.values();
+        return orders.getOrders();
+    }
+
+    public OrderPage findOrders(final OrderQuery query) {
+        return orders.findOrders(query);
+    }
+
+    private boolean isAsync(final HttpServletRequest request) {
+        return asyncExecutor != null && request.isAsyncSupported();
+    }
+
+    private boolean isQuery(final HttpServletRequest request) {
+        return QUERY_PARAMETERS.stream().anyMatch(request.getParameterMap()::containsKey);
+    }
+
+    private OrderQuery checkQueryParameters(final HttpServletRequest request) {
+        final Integer limit = checkOptionalIntParameter(request, LIMIT_PARAMETER);
+        Preconditions.checkArgument(limit == null || (limit > 0 && limit <= OrderQuery.MAX_LIMIT),
+                String.format("Parameter %s must be between 1 and %d [value=%d]", LIMIT_PARAMETER, OrderQuery.MAX_LIMIT, limit));
+
+        return OrderQuery.builder()
+                .numApples(checkOptionalIntParameter(request, APPLES_PARAMETER))
+                .numOranges(checkOptionalIntParameter(request, ORANGES_PARAMETER))
+                .minTotalCostCents(checkOptionalMoneyParameter(request, MIN_COST_PARAMETER))
+                .maxTotalCostCents(checkOptionalMoneyParameter(request, MAX_COST_PARAMETER))
+                .cursor(request.getParameterMap().containsKey(CURSOR_PARAMETER) ? request.getParameter(CURSOR_PARAMETER) : null)
+                .limit(limit == null ? OrderQuery.DEFAULT_LIMIT : limit)
+                .build();
     }
 
     private int checkIntParameter(final HttpServletRequest request, final String parameter) {
@@ -108,6 +1180,56 @@ public class AppServlet extends HttpServlet {
         }
     }
 
+    private int checkIntField(final JsonNode item, final String field) {
+        Preconditions.checkArgument(item.isObject(), "Batch item must be a JSON object");
+        Preconditions.checkArgument(item.has(field), String.format("Field %s not in batch item", field));
+
+        final JsonNode value = item.get(field);
+        if (!value.isIntegralNumber() || !value.canConvertToInt()) {
+            throw new IllegalArgumentException(String.format("Field %s does not contain a valid integer [value=%s]", field, value));
+        }
+        return checkQuantity(field, value.intValue());
+    }
+
+    private int checkQuantity(final String field, final int value) {
+        Preconditions.checkArgument(value >= 0, String.format("Field %s must not be negative [value=%d]", field, value));
+        return value;
+    }
+
+    private Integer checkOptionalIntParameter(final HttpServletRequest request, final String parameter) {
+        if (!request.getParameterMap().containsKey(parameter)) {
+            return null;
+        }
+
+        return checkIntParameter(request, parameter);
+    }
+
+    private Long checkOptionalMoneyParameter(final HttpServletRequest request, final String parameter) {
+        if (!request.getParameterMap().containsKey(parameter)) {
+            return null;
+        }
+
+        final String rawValue = request.getParameter(parameter);
+        final long cents;
+        try {
+            cents = Money.parse(rawValue);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Parameter %s does not contain a valid amount [value=%s]", parameter, rawValue));
+        }
+        Preconditions.checkArgument(cents >= 0, String.format("Parameter %s must not be negative [value=%s]", parameter, rawValue));
+        return cents;
+    }
+
+    private boolean checkBooleanParameter(final HttpServletRequest request, final String parameter) {
+        if (!request.getParameterMap().containsKey(parameter)) {
+            return false;
+        }
+
+        final String rawValue = request.getParameter(parameter);
+        // A bare flag such as "?stream" counts as enabled.
+        return rawValue.isEmpty() || Boolean.parseBoolean(rawValue);
+    }
+
     private UUID checkUuidParameter(final HttpServletRequest request, final String parameter) {
         if (!request.getParameterMap().containsKey(parameter)) {
             return null;
@@ -116,4 +1238,42 @@ public class AppServlet extends HttpServlet {
         final String rawValue = request.getParameter(parameter);
         return UUID.fromString(rawValue);
     }
+
+    /**
+     * Reads and prices the next chunk of batch items, see {@link #readBatchChunk}.
+     */
+    @FunctionalInterface
+    private interface BatchReader {
+        boolean readChunk(int firstIndex, List<OrderSummary> chunk, List<Object> results) throws IOException;
+    }
+
+    /**
+     * The JSON array of {@link #streamOrders} produced a chunk at a time, for {@link AsyncResponseWriter}.
+     */
+    private class OrderArrayChunks implements AsyncResponseWriter.Source {
+        private final Iterator<OrderSummary> orders;
+        private JsonGenerator generator;
+
+        OrderArrayChunks(final Iterable<OrderSummary> orders) {
+            this.orders = orders.iterator();
+        }
+
+        @Override
+        public boolean writeNext(final ByteArrayOutputStream chunk) throws IOException {
+            if (generator == null) {
+                generator = objectMapper.createGenerator(chunk);
+                generator.writeStartArray();
+            }
+            while (orders.hasNext()) {
+                streamingOrderWriter.writeValue(generator, orders.next());
+                if (generator.getOutputBuffered() + chunk.size() >= AsyncResponseWriter.CHUNK_BYTES) {
+                    generator.flush();
+                    return true;
+                }
+            }
+            generator.writeEndArray();
+            generator.close();
+            return false;
+        }
+    }
 }
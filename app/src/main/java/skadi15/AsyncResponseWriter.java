@@ -0,0 +1,108 @@
+package skadi15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Writes an async response with non-blocking output. The body is produced in chunks on an executor, and each chunk is
+ * only produced once the container reports the previous one written, so a slow client holds a buffered chunk rather
+ * than a thread. The response is completed once the whole body has been written.
+ */
+class AsyncResponseWriter implements WriteListener {
+    static final int CHUNK_BYTES = 8192;
+
+    /**
+     * Produces a response body in chunks.
+     */
+    @FunctionalInterface
+    interface Source {
+        /**
+         * Writes the next part of the body to {@code chunk}, which is the same stream on every call and is emptied
+         * before each call. Parts should be around {@value AsyncResponseWriter#CHUNK_BYTES} bytes.
+         *
+         * @return whether more of the body follows.
+         */
+        boolean writeNext(ByteArrayOutputStream chunk) throws IOException;
+    }
+
+    private final AsyncContext context;
+    private final HttpServletResponse response;
+    private final ServletOutputStream output;
+    private final Executor executor;
+    private final Source source;
+    private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_BYTES);
+    private boolean finished;
+
+    private AsyncResponseWriter(final AsyncContext context, final HttpServletResponse response,
+            final Executor executor, final Source source) throws IOException {
+        this.context = context;
+        this.response = response;
+        this.output = response.getOutputStream();
+        this.executor = executor;
+        this.source = source;
+    }
+
+    /**
+     * Starts writing {@code source} to the response of the async request. The request has no async timeout, since a
+     * large response to a slow client may legitimately take a long time; the connector's idle timeout still closes
+     * clients that stop reading altogether.
+     */
+    static void start(final AsyncContext context, final Executor executor, final Source source) throws IOException {
+        context.setTimeout(0);
+        final AsyncResponseWriter writer = new AsyncResponseWriter(context, (HttpServletResponse) context.getResponse(),
+                executor, source);
+        writer.output.setWriteListener(writer);
+    }
+
+    @Override
+    public void onWritePossible() {
+        executor.execute(this::writeWhileReady);
+    }
+
+    @Override
+    public void onError(final Throwable error) {
+        complete();
+    }
+
+    /**
+     * Writes chunks until the output would block, leaving the container to call {@link #onWritePossible()} again once
+     * it has drained. Only one call runs at a time, since the container does not call back until {@code isReady()} has
+     * returned false, and this returns as soon as it does.
+     */
+    private void writeWhileReady() {
+        try {
+            while (output.isReady()) {
+                if (finished) {
+                    complete();
+                    return;
+                }
+                chunk.reset();
+                finished = !source.writeNext(chunk);
+                chunk.writeTo(output);
+            }
+        } catch (final IOException | RuntimeException e) {
+            // Once the response is committed, the client only sees it cut short.
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(e instanceof IllegalArgumentException
+                        ? HttpServletResponse.SC_BAD_REQUEST
+                        : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            complete();
+        }
+    }
+
+    private void complete() {
+        try {
+            context.complete();
+        } catch (final IllegalStateException e) {
+            // The container already completed the request, e.g. because the client disconnected.
+        }
+    }
+}
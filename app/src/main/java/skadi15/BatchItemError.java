@@ -0,0 +1,12 @@
+package skadi15;
+
+import lombok.Value;
+
+/**
+ * Result written in place of an {@link OrderSummary} for a batch item that could not be priced.
+ */
+@Value
+public class BatchItemError {
+    private final int index;
+    private final String error;
+}
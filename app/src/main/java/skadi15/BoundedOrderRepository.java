@@ -0,0 +1,305 @@
+package skadi15;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link OrderRepository} that applies a {@link RetentionPolicy} to a delegate. Orders beyond the count or memory limit
+ * are evicted least recently used first, and orders older than the age limit are evicted in the order they were
+ * recorded. Evicted orders are handed to an eviction listener, which can spill them to a persistence tier.
+ *
+ * <p>Each tracked order sits on two intrusive linked lists, one in access order and one in insertion order, so
+ * recording, touching and evicting an order are all O(1). List updates take a lock; reads only try to take it to
+ * record the access and skip that if it is contended, which makes the recency order approximate under load instead of
+ * serialising readers. Expired orders are evicted when the next order is recorded or when they are looked up, so
+ * listings may briefly include them.
+ *
+ * <p>Orders the delegate already holds when the policy is applied, such as after a journal replay, are aged from the
+ * creation time in their ID if it is a time-ordered (version 7) UUID, and otherwise treated as recorded then. They are
+ * tracked oldest first, and those already beyond the policy are evicted straight away.
+ */
+public class BoundedOrderRepository implements OrderRepository {
+    // Tracking node, its map entry and table slot.
+    static final long TRACKING_BYTES_PER_ORDER = 56 + 40;
+
+    private final OrderRepository delegate;
+    private final long maxCount;
+    private final long maxAgeNanos;
+    private final Consumer<OrderSummary> evictionListener;
+    private final LongSupplier nanoClock;
+    private final LongSupplier millisClock;
+    private final ConcurrentMap<UUID, Node> nodes = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Node sentinel = new Node(null, 0);
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long tracked;
+
+    public BoundedOrderRepository(final OrderRepository delegate, final RetentionPolicy policy,
+            final Consumer<OrderSummary> evictionListener) {
+        this(delegate, policy, evictionListener, System::nanoTime, System::currentTimeMillis);
+    }
+
+    BoundedOrderRepository(final OrderRepository delegate, final RetentionPolicy policy,
+            final Consumer<OrderSummary> evictionListener, final LongSupplier nanoClock, final LongSupplier millisClock) {
+        Preconditions.checkArgument(!policy.isUnlimited(), "Retention policy must set at least one limit");
+
+        this.delegate = delegate;
+        this.evictionListener = evictionListener;
+        this.nanoClock = nanoClock;
+        this.millisClock = millisClock;
+
+        long maxCount = policy.getMaxCount() > 0 ? policy.getMaxCount() : Long.MAX_VALUE;
+        if (policy.getMaxMemoryBytes() > 0) {
+            final long bytesPerOrder = delegate.estimatedBytesPerOrder() + TRACKING_BYTES_PER_ORDER;
+            maxCount = Math.min(maxCount, Math.max(1, policy.getMaxMemoryBytes() / bytesPerOrder));
+        }
+        this.maxCount = maxCount;
+        this.maxAgeNanos = policy.getMaxAge() != null ? policy.getMaxAge().toNanos() : Long.MAX_VALUE;
+
+        evict(trackExisting());
+    }
+
+    @Override
+    public void recordOrder(final OrderSummary order) {
+        delegate.recordOrder(order);
+        final long now = nanoClock.getAsLong();
+        evict(track(List.of(order), recorded -> now, now));
+    }
+
+    @Override
+    public OrderSummary putOrder(final OrderSummary order) {
+        final OrderSummary previous = delegate.putOrder(order);
+        final long now = nanoClock.getAsLong();
+        evict(track(List.of(order), recorded -> now, now));
+        return previous;
+    }
+
+    @Override
+    public void recordOrders(final Collection<OrderSummary> orders) {
+        delegate.recordOrders(orders);
+        final long now = nanoClock.getAsLong();
+        evict(track(orders, recorded -> now, now));
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        final OrderSummary order = delegate.getOrder(orderId);
+        final Node node = nodes.get(orderId);
+        if (order == null) {
+            misses.increment();
+            return null;
+        }
+        if (node != null && nanoClock.getAsLong() - node.recordedNanos > maxAgeNanos) {
+            misses.increment();
+            evict(untrack(orderId, node));
+            return null;
+        }
+
+        hits.increment();
+        if (node != null && lock.tryLock()) {
+            try {
+                if (node.isLinked()) {
+                    node.unlinkAccess();
+                    node.linkAccessBefore(sentinel);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return order;
+    }
+
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        final Node node = nodes.get(orderId);
+        if (node != null) {
+            untrack(orderId, node);
+        }
+        return delegate.removeOrder(orderId);
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return delegate.getOrders();
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        return delegate.findOrders(query);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long estimatedBytesPerOrder() {
+        return delegate.estimatedBytesPerOrder() + TRACKING_BYTES_PER_ORDER;
+    }
+
+    @Override
+    public boolean removalsMoveOrders() {
+        return delegate.removalsMoveOrders();
+    }
+
+    public RetentionMetrics getMetrics() {
+        return new RetentionMetrics(size(), evictions.sum(), hits.sum(), misses.sum());
+    }
+
+    /**
+     * Starts tracking the orders the delegate already holds, oldest first.
+     *
+     * @return IDs that exceed the policy and must be evicted.
+     */
+    private List<UUID> trackExisting() {
+        final long now = nanoClock.getAsLong();
+        final long nowMillis = millisClock.getAsLong();
+        final ToLongFunction<OrderSummary> recordedNanos = order -> {
+            final UUID orderId = order.getOrderId();
+            if (orderId.version() != 7) {
+                return now;
+            }
+            // The top 48 bits are the Unix time in milliseconds; a time in the future counts as now.
+            final long ageMillis = Math.max(0, nowMillis - (orderId.getMostSignificantBits() >>> 16));
+            return now - TimeUnit.MILLISECONDS.toNanos(ageMillis);
+        };
+
+        final List<OrderSummary> existing = new ArrayList<>(delegate.getOrders());
+        existing.sort(Comparator.comparingLong(recordedNanos));
+        return track(existing, recordedNanos, now);
+    }
+
+    /**
+     * Starts tracking the orders as the most recently used and recorded, in iteration order. Orders must be given
+     * oldest first.
+     *
+     * @return IDs that now exceed the policy and must be evicted.
+     */
+    private List<UUID> track(final Collection<OrderSummary> orders, final ToLongFunction<OrderSummary> recordedNanos,
+            final long now) {
+        final List<UUID> victims = new ArrayList<>();
+        lock.lock();
+        try {
+            for (final OrderSummary order : orders) {
+                final Node node = new Node(order.getOrderId(), recordedNanos.applyAsLong(order));
+                final Node previous = nodes.put(order.getOrderId(), node);
+                if (previous != null && previous.isLinked()) {
+                    previous.unlink();
+                    tracked--;
+                }
+                node.linkAccessBefore(sentinel);
+                node.linkRecordedBefore(sentinel);
+                tracked++;
+            }
+
+            while (tracked > maxCount) {
+                victims.add(unlinkEldest(sentinel.nextAccess));
+            }
+            while (sentinel.nextRecorded != sentinel && now - sentinel.nextRecorded.recordedNanos > maxAgeNanos) {
+                victims.add(unlinkEldest(sentinel.nextRecorded));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return victims;
+    }
+
+    private List<UUID> untrack(final UUID orderId, final Node node) {
+        lock.lock();
+        try {
+            if (!node.isLinked()) {
+                return List.of();
+            }
+            node.unlink();
+            nodes.remove(orderId, node);
+            tracked--;
+            return List.of(orderId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private UUID unlinkEldest(final Node eldest) {
+        eldest.unlink();
+        nodes.remove(eldest.orderId, eldest);
+        tracked--;
+        return eldest.orderId;
+    }
+
+    private void evict(final List<UUID> victims) {
+        for (final UUID victim : victims) {
+            final OrderSummary evicted = delegate.removeOrder(victim);
+            if (evicted != null) {
+                evictions.increment();
+                evictionListener.accept(evicted);
+            }
+        }
+    }
+
+    /**
+     * Entry on the circular access-order and insertion-order lists, both anchored at {@link #sentinel}. Only touched
+     * while holding {@link #lock}, apart from the immutable fields.
+     */
+    private static class Node {
+        final UUID orderId;
+        final long recordedNanos;
+        Node previousAccess = this;
+        Node nextAccess = this;
+        Node previousRecorded = this;
+        Node nextRecorded = this;
+
+        Node(final UUID orderId, final long recordedNanos) {
+            this.orderId = orderId;
+            this.recordedNanos = recordedNanos;
+        }
+
+        boolean isLinked() {
+            return nextRecorded != this;
+        }
+
+        void linkAccessBefore(final Node next) {
+            previousAccess = next.previousAccess;
+            nextAccess = next;
+            next.previousAccess.nextAccess = this;
+            next.previousAccess = this;
+        }
+
+        void linkRecordedBefore(final Node next) {
+            previousRecorded = next.previousRecorded;
+            nextRecorded = next;
+            next.previousRecorded.nextRecorded = this;
+            next.previousRecorded = this;
+        }
+
+        void unlinkAccess() {
+            previousAccess.nextAccess = nextAccess;
+            nextAccess.previousAccess = previousAccess;
+            previousAccess = this;
+            nextAccess = this;
+        }
+
+        void unlink() {
+            unlinkAccess();
+            previousRecorded.nextRecorded = nextRecorded;
+            nextRecorded.previousRecorded = previousRecorded;
+            previousRecorded = this;
+            nextRecorded = this;
+        }
+    }
+}
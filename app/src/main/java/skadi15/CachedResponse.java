@@ -0,0 +1,12 @@
+package skadi15;
+
+import lombok.Value;
+
+/**
+ * Encoded body of a response and the entity tag it is served with.
+ */
+@Value
+public class CachedResponse {
+    private final byte[] body;
+    private final String entityTag;
+}
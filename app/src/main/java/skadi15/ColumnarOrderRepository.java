@@ -0,0 +1,414 @@
+package skadi15;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compact {@link OrderRepository} that stores each field in its own primitive column instead of keeping an
+ * {@link OrderSummary} object per order. Order IDs are indexed by an open-addressing hash table of row numbers, and
+ * {@link OrderSummary} objects are only created when an order is read.
+ *
+ * <p>A stored order takes 28 bytes of column space plus 5 to 11 bytes of index, depending on how full the index is,
+ * and leaves the GC only a few hundred primitive arrays to trace. Costs are kept as int cents; the rare cost that does
+ * not fit is kept in a side table instead of widening the column for every order. Columns grow in small fixed-size chunks, so growing
+ * never copies existing rows and wastes at most one chunk.
+ *
+ * <p>Writes take an exclusive lock; reads are optimistic and only fall back to a shared lock if a write raced them.
+ * Queries scan rows in insertion order, as secondary indexes would cost more memory than the store itself.
+ */
+public class ColumnarOrderRepository implements OrderRepository {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+    private static final int INITIAL_INDEX_CAPACITY = 1 << 10;
+    static final int BYTES_PER_ROW = Long.BYTES * 2 + Integer.BYTES * 3;
+    // Cost column value of rows whose cost is in largeCosts.
+    private static final int LARGE_COST = Integer.MIN_VALUE;
+    // Side table entry, boxed key and value.
+    private static final int LARGE_COST_BYTES = 32 + 16 + 24;
+
+    private final StampedLock lock = new StampedLock();
+    private long[][] idMsbs = new long[0][];
+    private long[][] idLsbs = new long[0][];
+    private int[][] numApples = new int[0][];
+    private int[][] numOranges = new int[0][];
+    private int[][] totalCostsCents = new int[0][];
+    private final Map<Integer, Long> largeCostsCents = new ConcurrentHashMap<>();
+    // Row number + 1 of each indexed order, 0 for an empty slot.
+    private int[] index = new int[INITIAL_INDEX_CAPACITY];
+    private int rowCount;
+
+    @Override
+    public void recordOrder(final OrderSummary order) {
+        final long stamp = lock.writeLock();
+        try {
+            insert(order);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public OrderSummary putOrder(final OrderSummary order) {
+        final long stamp = lock.writeLock();
+        try {
+            final int slot = findSlot(index, order.getOrderId().getMostSignificantBits(),
+                    order.getOrderId().getLeastSignificantBits());
+            final OrderSummary previous = index[slot] != 0 ? materialize(index[slot] - 1) : null;
+            insert(order);
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void recordOrders(final Collection<OrderSummary> orders) {
+        final long stamp = lock.writeLock();
+        try {
+            orders.forEach(this::insert);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        final long msb = orderId.getMostSignificantBits();
+        final long lsb = orderId.getLeastSignificantBits();
+
+        final long optimisticStamp = lock.tryOptimisticRead();
+        if (optimisticStamp != 0) {
+            try {
+                final OrderSummary order = find(msb, lsb);
+                if (lock.validate(optimisticStamp)) {
+                    return order;
+                }
+            } catch (final NullPointerException | ArrayIndexOutOfBoundsException e) {
+                // A racing write was only partly visible; retry under the read lock.
+            }
+        }
+
+        final long stamp = lock.readLock();
+        try {
+            return find(msb, lsb);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Removes the order's row by moving the last row into its place, which keeps the columns dense but means a query
+     * cursor may skip or repeat the moved order.
+     */
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        final long stamp = lock.writeLock();
+        try {
+            final int slot = findSlot(index, orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+            if (index[slot] == 0) {
+                return null;
+            }
+
+            final int row = index[slot] - 1;
+            final OrderSummary removed = materialize(row);
+            deleteSlot(slot);
+
+            final int last = rowCount - 1;
+            if (row != last) {
+                final long lastMsb = idMsbs[last >>> CHUNK_SHIFT][last & CHUNK_MASK];
+                final long lastLsb = idLsbs[last >>> CHUNK_SHIFT][last & CHUNK_MASK];
+                idMsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = lastMsb;
+                idLsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = lastLsb;
+                numApples[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = numApples[last >>> CHUNK_SHIFT][last & CHUNK_MASK];
+                numOranges[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = numOranges[last >>> CHUNK_SHIFT][last & CHUNK_MASK];
+                setTotalCost(row, totalCostAt(last));
+                index[findSlot(index, lastMsb, lastLsb)] = row + 1;
+            }
+            setTotalCost(last, 0);
+            rowCount--;
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<OrderSummary> iterator() {
+                return new RowIterator(0);
+            }
+
+            @Override
+            public int size() {
+                return ColumnarOrderRepository.this.size();
+            }
+        };
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        final RowIterator rows = new RowIterator(query.getCursor() == null ? 0 : decodeCursor(query.getCursor()));
+        final List<OrderSummary> page = new ArrayList<>(Math.min(query.getLimit(), OrderQuery.DEFAULT_LIMIT));
+        while (rows.hasNext()) {
+            final OrderSummary order = rows.next();
+            if (!query.matches(order)) {
+                continue;
+            }
+            if (page.size() == query.getLimit()) {
+                // Resume at the row just returned, which is the first row of the next page.
+                return new OrderPage(page, Integer.toString(rows.lastRow));
+            }
+            page.add(order);
+        }
+        return new OrderPage(page, null);
+    }
+
+    @Override
+    public int size() {
+        final long stamp = lock.readLock();
+        try {
+            return rowCount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long estimatedBytesPerOrder() {
+        // Columns plus the index at its average fill.
+        return BYTES_PER_ROW + 2 * Integer.BYTES;
+    }
+
+    /**
+     * @return true, since a removal moves the last row into the removed one's place. For the same reason a
+     *         {@link #findOrders} cursor, which is a row number, skips or repeats the moved order when an order is
+     *         removed between two pages.
+     */
+    @Override
+    public boolean removalsMoveOrders() {
+        return true;
+    }
+
+    /**
+     * @return bytes allocated for columns and index.
+     */
+    public long memoryBytes() {
+        final long stamp = lock.readLock();
+        try {
+            return (long) idMsbs.length * CHUNK_ROWS * BYTES_PER_ROW + (long) index.length * Integer.BYTES
+                    + (long) largeCostsCents.size() * LARGE_COST_BYTES;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void insert(final OrderSummary order) {
+        final long msb = order.getOrderId().getMostSignificantBits();
+        final long lsb = order.getOrderId().getLeastSignificantBits();
+
+        final int slot = findSlot(index, msb, lsb);
+        final int row;
+        if (index[slot] != 0) {
+            row = index[slot] - 1;
+        } else {
+            row = rowCount;
+            if ((row & CHUNK_MASK) == 0 && row >>> CHUNK_SHIFT == idMsbs.length) {
+                addChunk();
+            }
+            idMsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = msb;
+            idLsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = lsb;
+            index[slot] = row + 1;
+            rowCount++;
+            // Keep the index at most three quarters full so probe sequences stay short.
+            if (rowCount > index.length - (index.length >>> 2)) {
+                resizeIndex();
+            }
+        }
+        numApples[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = order.getNumApples();
+        numOranges[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = order.getNumOranges();
+        setTotalCost(row, order.getTotalCostCents());
+    }
+
+    private void setTotalCost(final int row, final long cents) {
+        final int[] chunk = totalCostsCents[row >>> CHUNK_SHIFT];
+        if (chunk[row & CHUNK_MASK] == LARGE_COST) {
+            largeCostsCents.remove(row);
+        }
+        if (cents != (int) cents || cents == LARGE_COST) {
+            largeCostsCents.put(row, cents);
+            chunk[row & CHUNK_MASK] = LARGE_COST;
+        } else {
+            chunk[row & CHUNK_MASK] = (int) cents;
+        }
+    }
+
+    private long totalCostAt(final int row) {
+        final int cents = totalCostsCents[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        // Unboxing throws NullPointerException if an optimistic read races the side table, like any other torn read.
+        return cents != LARGE_COST ? cents : largeCostsCents.get(row);
+    }
+
+    /**
+     * Reads the index once, so an optimistic read that races a resize probes one consistent table. Anything else a
+     * racing write changes is caught by the caller's stamp validation.
+     */
+    private OrderSummary find(final long msb, final long lsb) {
+        final int[] index = this.index;
+        final int entry = index[findSlot(index, msb, lsb)];
+        return entry == 0 ? null : materialize(entry - 1);
+    }
+
+    /**
+     * @return the slot holding the ID, or the empty slot where it would be inserted.
+     */
+    private int findSlot(final int[] index, final long msb, final long lsb) {
+        final int mask = index.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (true) {
+            final int entry = index[slot];
+            if (entry == 0) {
+                return slot;
+            }
+            final int row = entry - 1;
+            if (idMsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK] == msb && idLsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK] == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Empties a slot and shifts later entries of the same probe sequence back into it, so lookups never need
+     * tombstones.
+     */
+    private void deleteSlot(final int slot) {
+        final int mask = index.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (index[next] != 0) {
+            final int row = index[next] - 1;
+            final int ideal = hash(idMsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK], idLsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK]) & mask;
+            // The entry may only move back if its ideal slot is not between the hole and where it sits now.
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        index[hole] = 0;
+    }
+
+    private OrderSummary materialize(final int row) {
+        final int chunk = row >>> CHUNK_SHIFT;
+        final int offset = row & CHUNK_MASK;
+        return OrderSummary.builder()
+                .orderId(new UUID(idMsbs[chunk][offset], idLsbs[chunk][offset]))
+                .numApples(numApples[chunk][offset])
+                .numOranges(numOranges[chunk][offset])
+                .totalCostCents(totalCostAt(row))
+                .build();
+    }
+
+    private void addChunk() {
+        final int chunks = idMsbs.length + 1;
+        final long[][] newIdMsbs = Arrays.copyOf(idMsbs, chunks);
+        final long[][] newIdLsbs = Arrays.copyOf(idLsbs, chunks);
+        final int[][] newNumApples = Arrays.copyOf(numApples, chunks);
+        final int[][] newNumOranges = Arrays.copyOf(numOranges, chunks);
+        final int[][] newTotalCostsCents = Arrays.copyOf(totalCostsCents, chunks);
+        newIdMsbs[chunks - 1] = new long[CHUNK_ROWS];
+        newIdLsbs[chunks - 1] = new long[CHUNK_ROWS];
+        newNumApples[chunks - 1] = new int[CHUNK_ROWS];
+        newNumOranges[chunks - 1] = new int[CHUNK_ROWS];
+        newTotalCostsCents[chunks - 1] = new int[CHUNK_ROWS];
+        idMsbs = newIdMsbs;
+        idLsbs = newIdLsbs;
+        numApples = newNumApples;
+        numOranges = newNumOranges;
+        totalCostsCents = newTotalCostsCents;
+    }
+
+    private void resizeIndex() {
+        final int[] resized = new int[index.length << 1];
+        for (int row = 0; row < rowCount; row++) {
+            final long msb = idMsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+            final long lsb = idLsbs[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+            resized[findSlot(resized, msb, lsb)] = row + 1;
+        }
+        index = resized;
+    }
+
+    private static int hash(final long msb, final long lsb) {
+        final long hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    private static int decodeCursor(final String cursor) {
+        try {
+            final int row = Integer.parseInt(cursor);
+            Preconditions.checkArgument(row >= 0, String.format("Cursor is not valid [value=%s]", cursor));
+            return row;
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Cursor is not valid [value=%s]", cursor));
+        }
+    }
+
+    /**
+     * Materializes rows one at a time under the read lock. Rows added after the iterator passes them are not seen.
+     */
+    /**
+     * Reads each row in {@link #hasNext()}, under the same lock that checks it exists, so rows removed between the two
+     * calls end the iteration early instead of failing it.
+     */
+    private class RowIterator implements Iterator<OrderSummary> {
+        private int next;
+        private OrderSummary pending;
+        // The row of the order last returned by next().
+        private int lastRow = -1;
+
+        RowIterator(final int first) {
+            next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pending != null) {
+                return true;
+            }
+            final long stamp = lock.readLock();
+            try {
+                if (next < rowCount) {
+                    pending = materialize(next++);
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            return pending != null;
+        }
+
+        @Override
+        public OrderSummary next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final OrderSummary order = pending;
+            pending = null;
+            lastRow = next - 1;
+            return order;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package skadi15;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link PricingRules} flattened into parallel arrays, so pricing a product is a fixed sequence of integer operations
+ * on cents with no branches on the rules. Every product uses the same formula,
+ * {@code (quantity - quantity / buy * (buy - pay)) * unitPrice}, which is plain unit pricing when nothing is free.
+ * Prices are in cents, so large orders are exact: unit prices are capped at {@link Integer#MAX_VALUE} cents, which
+ * keeps the cost of any int quantities of two products within a {@code long}.
+ * Instances are immutable and can be swapped atomically when rules are reloaded.
+ *
+ * <p>Hard-coded pricing divides by constants, which the JIT turns into a multiply and shift. Dividing by a promotion
+ * size read from config would be a hardware divide instead, so the division is done the same way by hand: quantities
+ * are non-negative ints, so {@code quantity / buy} is the high 64 bits of {@code quantity * ceil(2^64 / buy)}.
+ */
+public final class CompiledPricing {
+    private static final String APPLES = "apples";
+    private static final String ORANGES = "oranges";
+
+    private final String[] names;
+    private final long[] unitPrices;
+    private final long[] reciprocals;
+    private final int[] freePerGroup;
+    private final int applesIndex;
+    private final int orangesIndex;
+
+    private CompiledPricing(final List<PricingRules.Product> products) {
+        final int count = products.size();
+        names = new String[count];
+        unitPrices = new long[count];
+        reciprocals = new long[count];
+        freePerGroup = new int[count];
+        for (int i = 0; i < count; i++) {
+            final PricingRules.Product product = products.get(i);
+            Preconditions.checkArgument(product.getName() != null, "Product name must be given");
+            Preconditions.checkArgument(product.getUnitPriceCents() >= 0 && product.getUnitPriceCents() <= Integer.MAX_VALUE,
+                    String.format("Unit price must be between 0 and %s [product=%s, value=%s]", Money.toString(Integer.MAX_VALUE),
+                            product.getName(), Money.toString(product.getUnitPriceCents())));
+            Preconditions.checkArgument(product.getBuy() >= 1 && product.getPay() >= 0 && product.getPay() <= product.getBuy(),
+                    String.format("Promotion must pay for between 0 and %d units [product=%s, pay=%d]", product.getBuy(), product.getName(), product.getPay()));
+            for (int j = 0; j < i; j++) {
+                Preconditions.checkArgument(!names[j].equals(product.getName()),
+                        String.format("Product listed twice [product=%s]", product.getName()));
+            }
+            names[i] = product.getName();
+            if (product.getBuy() == 1) {
+                // The reciprocal of 1 does not fit in 64 bits, but a group of 1 is just a unit price of 0 or 1 units.
+                unitPrices[i] = product.getUnitPriceCents() * product.getPay();
+            } else {
+                unitPrices[i] = product.getUnitPriceCents();
+                reciprocals[i] = Long.divideUnsigned(-1L, product.getBuy()) + 1;
+                freePerGroup[i] = product.getBuy() - product.getPay();
+            }
+        }
+        applesIndex = indexOf(APPLES);
+        orangesIndex = indexOf(ORANGES);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the rules are invalid or do not price apples and oranges.
+     */
+    public static CompiledPricing compile(final PricingRules rules) {
+        Preconditions.checkArgument(rules.getProducts() != null, "Pricing rules must list products");
+        return new CompiledPricing(rules.getProducts());
+    }
+
+    /**
+     * @return the index of the product, for use with {@link #price(int, int)}.
+     * @throws IllegalArgumentException if there is no such product.
+     */
+    public int indexOf(final String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.format("No pricing for product %s", name));
+    }
+
+    /**
+     * @param quantity must not be negative.
+     * @return the cost in cents.
+     */
+    public long price(final int productIndex, final int quantity) {
+        final int groups = (int) Math.unsignedMultiplyHigh(reciprocals[productIndex], quantity);
+        return (quantity - groups * freePerGroup[productIndex]) * unitPrices[productIndex];
+    }
+
+    /**
+     * @return the cost in cents.
+     */
+    public long priceOrder(final int numApples, final int numOranges) {
+        return price(applesIndex, numApples) + price(orangesIndex, numOranges);
+    }
+}
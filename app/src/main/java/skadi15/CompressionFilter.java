@@ -0,0 +1,329 @@
+package skadi15;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Compresses {@code /order} responses with the best {@link ContentEncoding} the client accepts. Output is held back
+ * until it grows past {@value #MIN_BYTES_SETTING} bytes: smaller responses are sent as they are, since compressing
+ * them saves little, and larger ones are compressed as they are written, so no more than the threshold is ever
+ * buffered however large the response gets.
+ *
+ * <p>Responses written through an {@link jakarta.servlet.AsyncContext} go to the unwrapped response and are not
+ * compressed. Compression totals are published as a servlet context attribute for {@link AppServlet} to report.
+ */
+@WebFilter(urlPatterns = {AppServlet.ORDER_PATH, AppServlet.ORDER_PATH + "/*"}, asyncSupported = true)
+public class CompressionFilter implements Filter {
+    static final String METRICS_ATTRIBUTE = CompressionFilter.class.getName();
+    private static final String ENABLED_SETTING = "compression.enabled";
+    private static final String MIN_BYTES_SETTING = "compression.minBytes";
+    private static final int DEFAULT_MIN_BYTES = 1024;
+    private static final int BUFFER_BYTES = 8192;
+
+    private boolean enabled = true;
+    private int minBytes = DEFAULT_MIN_BYTES;
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder uncompressedResponses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+
+    /**
+     * Reads {@value #ENABLED_SETTING} (default true) and {@value #MIN_BYTES_SETTING} (default
+     * {@value #DEFAULT_MIN_BYTES}).
+     */
+    @Override
+    public void init(final FilterConfig config) {
+        final Settings settings = Settings.of(config);
+        enabled = settings.getBoolean(ENABLED_SETTING, true);
+        minBytes = settings.getInt(MIN_BYTES_SETTING, DEFAULT_MIN_BYTES);
+        Preconditions.checkArgument(minBytes >= 0,
+                String.format("Setting %s must not be negative [value=%d]", MIN_BYTES_SETTING, minBytes));
+        config.getServletContext().setAttribute(METRICS_ATTRIBUTE, this);
+    }
+
+    @Override
+    public void doFilter(final ServletRequest req, final ServletResponse resp, final FilterChain chain)
+            throws IOException, ServletException {
+        if (!enabled || !(req instanceof HttpServletRequest request) || !(resp instanceof HttpServletResponse response)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        response.addHeader("Vary", "Accept-Encoding");
+        final ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final CompressingResponse compressing = new CompressingResponse(response, encoding);
+        chain.doFilter(request, compressing);
+        if (!request.isAsyncStarted()) {
+            compressing.finish();
+        }
+    }
+
+    public CompressionMetrics getMetrics() {
+        return new CompressionMetrics(compressedResponses.sum(), uncompressedResponses.sum(), bytesIn.sum(),
+                bytesOut.sum(), compressionNanos.sum());
+    }
+
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+        private final ContentEncoding encoding;
+        private CompressingOutputStream output;
+        private PrintWriter writer;
+
+        CompressingResponse(final HttpServletResponse response, final ContentEncoding encoding) {
+            super(response);
+            this.encoding = encoding;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            Preconditions.checkState(writer == null, "getWriter() has already been called");
+            if (output == null) {
+                output = new CompressingOutputStream((HttpServletResponse) getResponse(), super.getOutputStream(),
+                        encoding);
+            }
+            return output;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        // The length is only known once it is decided whether to compress.
+        @Override
+        public void setContentLength(final int length) {
+        }
+
+        @Override
+        public void setContentLengthLong(final long length) {
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            } else if (output != null) {
+                output.flush();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (output != null) {
+                output.resetPending();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (output != null) {
+                output.resetPending();
+            }
+        }
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.close();
+            } else if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Holds output back until it passes {@link #minBytes}, then compresses it from there on. Closing it sends what is
+     * held back uncompressed, or finishes the compressed stream, but leaves the container's stream open.
+     */
+    private final class CompressingOutputStream extends ServletOutputStream {
+        private final HttpServletResponse response;
+        private final ServletOutputStream output;
+        private final ContentEncoding encoding;
+        private byte[] pending = new byte[minBytes];
+        private int pendingBytes;
+        private OutputStream compressor;
+        private long uncompressedBytes;
+        private boolean closed;
+
+        CompressingOutputStream(final HttpServletResponse response, final ServletOutputStream output,
+                final ContentEncoding encoding) {
+            this.response = response;
+            this.output = output;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            Preconditions.checkState(!closed, "Stream is closed");
+            if (compressor == null && pendingBytes + len <= minBytes) {
+                System.arraycopy(b, off, pending, pendingBytes, len);
+                pendingBytes += len;
+                return;
+            }
+            if (compressor == null) {
+                startCompressing();
+            }
+            compressor.write(b, off, len);
+            uncompressedBytes += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Held back output stays held back, or a flush would decide against compressing.
+            if (compressor != null) {
+                compressor.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (compressor != null) {
+                compressor.close();
+                compressedResponses.increment();
+                bytesIn.add(uncompressedBytes);
+            } else {
+                // A 304's length would be that of the response it stands for.
+                if (!response.isCommitted() && response.getStatus() != HttpServletResponse.SC_NOT_MODIFIED) {
+                    response.setContentLength(pendingBytes);
+                }
+                output.write(pending, 0, pendingBytes);
+                uncompressedResponses.increment();
+            }
+            pending = null;
+        }
+
+        @Override
+        public boolean isReady() {
+            return output.isReady();
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            output.setWriteListener(writeListener);
+        }
+
+        void resetPending() {
+            Preconditions.checkState(compressor == null, "Compressed output has already been sent");
+            pendingBytes = 0;
+        }
+
+        private void startCompressing() throws IOException {
+            response.setHeader("Content-Encoding", encoding.getToken());
+            // The compressed bytes differ from the ones a strong entity tag promises, but are equivalent to them.
+            final String entityTag = response.getHeader("ETag");
+            if (entityTag != null && !entityTag.startsWith("W/")) {
+                response.setHeader("ETag", "W/" + entityTag);
+            }
+            final OutputStream compressed = encoding.compress(new ContainerOutputStream(output));
+            compressor = new BufferedOutputStream(new TimedOutputStream(compressed), BUFFER_BYTES);
+            compressor.write(pending, 0, pendingBytes);
+            uncompressedBytes += pendingBytes;
+            pending = null;
+        }
+    }
+
+    /**
+     * Times the compressor, which is fed whole buffers by a {@link BufferedOutputStream}.
+     */
+    private final class TimedOutputStream extends OutputStream {
+        private final OutputStream compressor;
+
+        TimedOutputStream(final OutputStream compressor) {
+            this.compressor = compressor;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final long start = System.nanoTime();
+            compressor.write(b, off, len);
+            compressionNanos.add(System.nanoTime() - start);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            compressor.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            final long start = System.nanoTime();
+            compressor.close();
+            compressionNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Counts compressed bytes on their way to the container, and keeps the compressor from closing its stream.
+     */
+    private final class ContainerOutputStream extends OutputStream {
+        private final ServletOutputStream output;
+
+        ContainerOutputStream(final ServletOutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            output.write(b);
+            bytesOut.increment();
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            output.write(b, off, len);
+            bytesOut.add(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package skadi15;
+
+import lombok.Value;
+
+@Value
+public class CompressionMetrics {
+    private final long compressedResponses;
+    /** Responses to clients accepting compression that stayed under the size threshold. */
+    private final long uncompressedResponses;
+    /** Bytes of compressed responses before compression. */
+    private final long bytesIn;
+    /** Bytes of compressed responses after compression. */
+    private final long bytesOut;
+    /** Time spent compressing, including handing compressed bytes to the container. */
+    private final long compressionNanos;
+
+    public long getBytesSaved() {
+        return bytesIn - bytesOut;
+    }
+
+    public double getRatio() {
+        return bytesIn == 0 ? 0 : (double) bytesOut / bytesIn;
+    }
+}
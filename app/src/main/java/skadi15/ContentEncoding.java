@@ -0,0 +1,131 @@
+package skadi15;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response compressions {@link CompressionFilter} can apply, in the order preferred when a client accepts several
+ * equally. zstd is only available when zstd-jni is on the classpath, since the JDK has no zstd codec.
+ */
+enum ContentEncoding {
+    ZSTD("zstd") {
+        @Override
+        OutputStream compress(final OutputStream output) throws IOException {
+            try {
+                return ZSTD_STREAM.newInstance(output);
+            } catch (final InvocationTargetException e) {
+                throw new IOException("Could not start zstd compression", e.getCause());
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        boolean isAvailable() {
+            return ZSTD_STREAM != null;
+        }
+    },
+    GZIP("gzip") {
+        @Override
+        OutputStream compress(final OutputStream output) throws IOException {
+            return new GZIPOutputStream(output, BUFFER_BYTES);
+        }
+    },
+    DEFLATE("deflate") {
+        @Override
+        OutputStream compress(final OutputStream output) {
+            // HTTP's deflate is the zlib format, which is what a default Deflater writes.
+            return new DeflaterOutputStream(output, new Deflater(), BUFFER_BYTES) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private static final int BUFFER_BYTES = 8192;
+    // Null unless zstd-jni is on the classpath.
+    private static final Constructor<? extends OutputStream> ZSTD_STREAM = findZstdStream();
+
+    private final String token;
+
+    ContentEncoding(final String token) {
+        this.token = token;
+    }
+
+    /**
+     * The {@code Content-Encoding} header value.
+     */
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Wraps the output so that everything written to the returned stream reaches it compressed. Closing the returned
+     * stream finishes the compressed data and closes the output.
+     */
+    abstract OutputStream compress(OutputStream output) throws IOException;
+
+    boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Picks the encoding with the highest quality in an {@code Accept-Encoding} header among those available, with a
+     * {@code *} standing for any encoding not listed.
+     *
+     * @return {@code null} if the client accepts none of them.
+     */
+    static ContentEncoding negotiate(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        final double[] qualities = new double[values().length];
+        final boolean[] listed = new boolean[values().length];
+        double wildcardQuality = 0;
+        for (final String element : acceptEncoding.split(",")) {
+            final String token = HttpHeaders.value(element);
+            final double quality = HttpHeaders.quality(element);
+            if ("*".equals(token)) {
+                wildcardQuality = quality;
+            }
+            for (final ContentEncoding encoding : values()) {
+                if (encoding.token.equals(token)) {
+                    qualities[encoding.ordinal()] = quality;
+                    listed[encoding.ordinal()] = true;
+                }
+            }
+        }
+
+        ContentEncoding best = null;
+        double bestQuality = 0;
+        for (final ContentEncoding encoding : values()) {
+            final double quality = listed[encoding.ordinal()] ? qualities[encoding.ordinal()] : wildcardQuality;
+            if (encoding.isAvailable() && quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends OutputStream> findZstdStream() {
+        try {
+            return (Constructor<? extends OutputStream>) Class.forName("com.github.luben.zstd.ZstdOutputStream")
+                    .getConstructor(OutputStream.class);
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package skadi15;
+
+import java.util.Locale;
+
+/**
+ * Parsing for elements of comma-separated request headers: negotiation headers such as {@code Accept} and
+ * {@code Accept-Encoding}, e.g. {@code application/json;q=0.5}, and the entity tags of {@code If-None-Match}.
+ */
+final class HttpHeaders {
+    private HttpHeaders() {
+    }
+
+    /**
+     * @return the element without its parameters, trimmed and in lower case.
+     */
+    static String value(final String element) {
+        final int parameters = element.indexOf(';');
+        return (parameters < 0 ? element : element.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the element's {@code q} parameter, 1 if it has none and 0 if it is malformed.
+     */
+    static double quality(final String element) {
+        for (final String parameter : element.split(";")) {
+            final String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2));
+                } catch (final NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Compares an {@code If-None-Match} header with the current entity tag the weak way HTTP specifies for it, so a
+     * tag weakened by compression still matches.
+     *
+     * @return whether the header lists the tag or is {@code *}.
+     */
+    static boolean matchesEntityTag(final String ifNoneMatch, final String entityTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        final String opaqueTag = opaqueTag(entityTag);
+        for (final String element : ifNoneMatch.split(",")) {
+            final String candidate = element.trim();
+            if ("*".equals(candidate) || opaqueTag(candidate).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(final String entityTag) {
+        return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+    }
+}
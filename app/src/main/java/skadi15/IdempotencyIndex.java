@@ -0,0 +1,146 @@
+package skadi15;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+/**
+ * Remembers the order created for each {@code Idempotency-Key}, so a client retrying a POST gets the original order
+ * back instead of a second one. Keys are forgotten after a time to live, and the oldest keys first once there are more
+ * than the limit. Keys live in memory only, so a retry after a restart creates a new order.
+ *
+ * <p>Looking up a key that has been seen is one lock-free map read. A retry racing the original submission waits for
+ * it to finish rather than processing the order again.
+ */
+class IdempotencyIndex {
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final int maxKeys;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Entries in the order they were added, which is also the order they expire in.
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    IdempotencyIndex(final int maxKeys, final long ttlNanos) {
+        this(maxKeys, ttlNanos, System::nanoTime);
+    }
+
+    IdempotencyIndex(final int maxKeys, final long ttlNanos, final LongSupplier nanoClock) {
+        Preconditions.checkArgument(maxKeys > 0, "Idempotency index must hold at least one key");
+        Preconditions.checkArgument(ttlNanos > 0, "Idempotency keys must live for some time");
+        this.maxKeys = maxKeys;
+        this.ttlNanos = ttlNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns the order first submitted under the key, or processes the order if the key is new.
+     *
+     * @throws IllegalArgumentException if the key is malformed or was used for an order with different quantities.
+     */
+    Submission submit(final String key, final int numApples, final int numOranges,
+            final Supplier<OrderSummary> processor) {
+        Preconditions.checkArgument(!key.isEmpty() && key.length() <= MAX_KEY_LENGTH,
+                "Idempotency key must be 1 to %s characters", MAX_KEY_LENGTH);
+
+        final long now = nanoClock.getAsLong();
+        Entry entry = entries.get(key);
+        while (entry == null || isExpired(entry, now)) {
+            if (entry != null && entries.remove(key, entry)) {
+                evictions.increment();
+            }
+            final Entry created = new Entry(key, numApples, numOranges, now);
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                insertionOrder.add(created);
+                evict(now);
+                return new Submission(process(created, processor), false);
+            }
+        }
+
+        Preconditions.checkArgument(entry.numApples == numApples && entry.numOranges == numOranges,
+                "Idempotency key %s was already used for an order of %s apples and %s oranges",
+                key, entry.numApples, entry.numOranges);
+        try {
+            final OrderSummary order = entry.order.join();
+            replays.increment();
+            return new Submission(order, true);
+        } catch (final CompletionException e) {
+            throw new IllegalStateException("Order submitted under idempotency key " + key + " failed", e.getCause());
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getReplays() {
+        return replays.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    private OrderSummary process(final Entry entry, final Supplier<OrderSummary> processor) {
+        try {
+            final OrderSummary order = processor.get();
+            entry.order.complete(order);
+            return order;
+        } catch (final RuntimeException e) {
+            // Retries that arrive from now on try again; those already waiting fail with this submission.
+            entries.remove(entry.key, entry);
+            entry.order.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private boolean isExpired(final Entry entry, final long now) {
+        return now - entry.createdNanos > ttlNanos;
+    }
+
+    private void evict(final long now) {
+        Entry eldest;
+        while ((eldest = insertionOrder.peek()) != null && (entries.size() > maxKeys || isExpired(eldest, now))) {
+            // Another thread may have taken this entry first, in which case the next eldest goes instead.
+            eldest = insertionOrder.poll();
+            if (eldest != null && entries.remove(eldest.key, eldest)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    @Value
+    static class Submission {
+        private final OrderSummary order;
+        /** Whether the order was created by an earlier submission. */
+        private final boolean replayed;
+    }
+
+    private static final class Entry {
+        final String key;
+        final int numApples;
+        final int numOranges;
+        final long createdNanos;
+        final CompletableFuture<OrderSummary> order = new CompletableFuture<>();
+
+        Entry(final String key, final int numApples, final int numOranges, final long createdNanos) {
+            this.key = key;
+            this.numApples = numApples;
+            this.numOranges = numOranges;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
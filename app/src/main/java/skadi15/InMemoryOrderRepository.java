@@ -0,0 +1,85 @@
+package skadi15;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Default {@link OrderRepository} that keeps every order on the heap. Backed by a {@link ConcurrentHashMap}, so writes
+ * only contend when they land in the same bin and reads never lock. Queries are answered from sorted secondary
+ * {@link OrderIndexes}, which are updated inside the map's per-key {@code compute}, so concurrent writes of one ID
+ * cannot leave an index entry behind for an order that was replaced.
+ */
+public class InMemoryOrderRepository implements OrderRepository {
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    // OrderSummary and its UUID, a map node and table slot, and a skip-list node in each of the three indexes.
+    private static final long ESTIMATED_BYTES_PER_ORDER = 32 + 32 + 40 + 3 * 40;
+
+    private final ConcurrentMap<UUID, OrderSummary> orders;
+    private final OrderIndexes indexes = new OrderIndexes();
+
+    public InMemoryOrderRepository() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public InMemoryOrderRepository(final int initialCapacity) {
+        orders = new ConcurrentHashMap<>(initialCapacity);
+    }
+
+    @Override
+    public void recordOrder(final OrderSummary order) {
+        putOrder(order);
+    }
+
+    @Override
+    public OrderSummary putOrder(final OrderSummary order) {
+        final OrderSummary[] replaced = new OrderSummary[1];
+        orders.compute(order.getOrderId(), (orderId, previous) -> {
+            if (previous != null) {
+                indexes.remove(previous);
+            }
+            indexes.add(order);
+            replaced[0] = previous;
+            return order;
+        });
+        return replaced[0];
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        return orders.get(orderId);
+    }
+
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        final OrderSummary[] removed = new OrderSummary[1];
+        orders.computeIfPresent(orderId, (id, previous) -> {
+            indexes.remove(previous);
+            removed[0] = previous;
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return Collections.unmodifiableCollection(orders.values());
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        return indexes.find(query, orders::get);
+    }
+
+    @Override
+    public int size() {
+        return orders.size();
+    }
+
+    @Override
+    public long estimatedBytesPerOrder() {
+        return ESTIMATED_BYTES_PER_ORDER;
+    }
+}
@@ -0,0 +1,262 @@
+package skadi15;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link OrderRepository} that stores every order in a delegate and then writes it to an {@link OrderJournal}, and
+ * rebuilds the delegate when it is created from the newest {@link OrderSnapshot} in the journal directory and the
+ * journal segments written after it. Removals, including evictions by a retention policy wrapped around this
+ * repository, are journaled too, so removed orders stay removed after a restart.
+ *
+ * <p>A snapshot rolls the journal to a new segment and then copies the delegate's orders to disk while orders keep
+ * being recorded. Since an order is stored before it is journaled, every order in the segments before the roll is
+ * already in the delegate when the copy starts, so the snapshot holds it; orders recorded during the copy may or may
+ * not be in the snapshot, but are in the new segment either way. Once the snapshot is on disk the segments and
+ * snapshots before it are deleted. An order removed during the copy may be in the snapshot too, but its removal is
+ * journaled in the new segment, so replaying the segment removes it again. Some stores move orders when others are
+ * removed, which an iteration may miss, so for those a snapshot during which orders were removed is discarded, and the
+ * next attempt copies again from the same roll instead of starting another segment.
+ */
+public class JournaledOrderRepository implements OrderRepository, Closeable {
+    private static final int REPLAY_BATCH_SIZE = 4096;
+
+    private final OrderRepository delegate;
+    private final OrderJournal journal;
+    private final Consumer<Exception> snapshotErrors;
+    private final ScheduledExecutorService snapshotExecutor;
+    private final long snapshotOrders;
+    private final long journalOrders;
+    // Incremented before and after every removal, so it is odd while one is in progress.
+    private final AtomicLong removals = new AtomicLong();
+    // The segment the last snapshot that was not kept rolled the journal to, or -1. Guarded by this.
+    private long pendingSegment = -1;
+    // Replaced whole, so reading it never waits for a snapshot in progress.
+    private volatile SnapshotMetrics metrics = new SnapshotMetrics(0, 0, 0, 0, 0);
+
+    public JournaledOrderRepository(final OrderRepository delegate, final OrderJournal journal) throws IOException {
+        this(delegate, journal, 0, e -> {});
+    }
+
+    /**
+     * @param snapshotIntervalMillis how often to snapshot the store in the background, or 0 to only snapshot on
+     *                               {@link #snapshot()}. With snapshots enabled, one is also taken on {@link #close()}.
+     * @param snapshotErrors         told about background snapshots that failed.
+     */
+    public JournaledOrderRepository(final OrderRepository delegate, final OrderJournal journal,
+            final long snapshotIntervalMillis, final Consumer<Exception> snapshotErrors) throws IOException {
+        Preconditions.checkArgument(snapshotIntervalMillis >= 0,
+                String.format("Snapshot interval must not be negative [snapshotIntervalMillis=%d]", snapshotIntervalMillis));
+        this.delegate = delegate;
+        this.journal = journal;
+        this.snapshotErrors = snapshotErrors;
+
+        final List<OrderSummary> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+        final Consumer<OrderSummary> replay = order -> {
+            batch.add(order);
+            if (batch.size() == REPLAY_BATCH_SIZE) {
+                delegate.recordOrders(batch);
+                batch.clear();
+            }
+        };
+        final Consumer<UUID> replayRemoval = orderId -> {
+            // Orders before the removal may include the removed one.
+            delegate.recordOrders(batch);
+            batch.clear();
+            delegate.removeOrder(orderId);
+        };
+        final Path snapshot = OrderSnapshot.latest(journal.getDirectory());
+        snapshotOrders = snapshot != null ? OrderSnapshot.read(snapshot, replay) : 0;
+        journalOrders = journal.replay(snapshot != null ? OrderSnapshot.journalSegment(snapshot) : 0, replay,
+                replayRemoval);
+        delegate.recordOrders(batch);
+
+        if (snapshotIntervalMillis > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "order-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
+    }
+
+    @Override
+    public void recordOrder(final OrderSummary order) {
+        delegate.recordOrder(order);
+        journal.append(order);
+    }
+
+    @Override
+    public OrderSummary putOrder(final OrderSummary order) {
+        final OrderSummary previous = delegate.putOrder(order);
+        journal.append(order);
+        return previous;
+    }
+
+    @Override
+    public void recordOrders(final Collection<OrderSummary> orders) {
+        delegate.recordOrders(orders);
+        journal.appendAll(orders);
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        return delegate.getOrder(orderId);
+    }
+
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        removals.incrementAndGet();
+        try {
+            final OrderSummary removed = delegate.removeOrder(orderId);
+            if (removed != null) {
+                journal.appendRemoval(orderId);
+            }
+            return removed;
+        } finally {
+            removals.incrementAndGet();
+        }
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return delegate.getOrders();
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        return delegate.findOrders(query);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long estimatedBytesPerOrder() {
+        return delegate.estimatedBytesPerOrder();
+    }
+
+    @Override
+    public boolean removalsMoveOrders() {
+        return delegate.removalsMoveOrders();
+    }
+
+    /**
+     * Writes a snapshot of the store next to the journal, then deletes the journal segments and snapshots it makes
+     * redundant. Recording orders is not blocked meanwhile.
+     *
+     * @return whether the snapshot was kept, which it is not if the delegate moved orders while it was being written.
+     */
+    public synchronized boolean snapshot() throws IOException {
+        final long start = System.nanoTime();
+        // Every order journaled before an earlier roll is still in the delegate, so a retry can copy from that roll.
+        if (pendingSegment < 0) {
+            pendingSegment = journal.rollSegment();
+        }
+        final long segment = pendingSegment;
+        final boolean removalsMoveOrders = delegate.removalsMoveOrders();
+        final long removalsBefore = removals.get();
+        final Path target = OrderSnapshot.path(journal.getDirectory(), segment);
+        final Path temporary = OrderSnapshot.temporaryPath(target);
+        final long count;
+        try {
+            count = OrderSnapshot.write(temporary, segment, delegate.getOrders());
+            if (removalsMoveOrders && (removalsBefore % 2 != 0 || removals.get() != removalsBefore)) {
+                metrics = new SnapshotMetrics(metrics.getSnapshots(), metrics.getFailures(), metrics.getDiscards() + 1,
+                        metrics.getLastOrders(), metrics.getLastNanos());
+                return false;
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        forceDirectory();
+        pendingSegment = -1;
+
+        journal.deleteSegmentsBefore(segment);
+        OrderSnapshot.deleteBefore(journal.getDirectory(), segment);
+        metrics = new SnapshotMetrics(metrics.getSnapshots() + 1, metrics.getFailures(), metrics.getDiscards(), count,
+                System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * @return the number of orders restored from a snapshot when this repository was created.
+     */
+    public long getSnapshotOrders() {
+        return snapshotOrders;
+    }
+
+    /**
+     * @return the number of orders replayed from journal segments newer than the snapshot when this repository was
+     * created.
+     */
+    public long getJournalOrders() {
+        return journalOrders;
+    }
+
+    public SnapshotMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            try {
+                snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // The next start then only has to read the snapshot.
+            snapshotQuietly();
+        }
+        journal.close();
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (final IOException | RuntimeException e) {
+            synchronized (this) {
+                metrics = new SnapshotMetrics(metrics.getSnapshots(), metrics.getFailures() + 1, metrics.getDiscards(),
+                        metrics.getLastOrders(), metrics.getLastNanos());
+            }
+            snapshotErrors.accept(e);
+        }
+    }
+
+    /**
+     * Makes the rename of a new snapshot durable before the journal segments it replaces are deleted. Not every
+     * platform can open a directory, in which case the rename is left to the file system.
+     */
+    private void forceDirectory() {
+        try (FileChannel directory = FileChannel.open(journal.getDirectory(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (final IOException e) {
+            // Nothing more can be done on this platform.
+        }
+    }
+}
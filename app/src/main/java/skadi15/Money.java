@@ -0,0 +1,139 @@
+package skadi15;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Amounts of money as a {@code long} count of cents. Keeping amounts as primitives rather than wrapping them in an
+ * object means pricing and aggregation never allocate and stay exact however large an order gets.
+ *
+ * <p>In JSON an amount is a decimal number of whole units, as {@code float} costs used to be written: {@code 145}
+ * cents is {@code 1.45}, {@code 290} is {@code 2.9} and {@code 0} is {@code 0.0}.
+ */
+public final class Money {
+    public static final int CENTS_PER_UNIT = 100;
+
+    // Sign, 19 digits and the decimal point.
+    static final int MAX_CHARS = 21;
+    private static final ThreadLocal<char[]> FORMAT_BUFFERS = ThreadLocal.withInitial(() -> new char[MAX_CHARS]);
+
+    private Money() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not a number with at most two decimal places that fits in a
+     *                                  {@code long} count of cents.
+     */
+    public static long parse(final String value) {
+        try {
+            return ofDecimal(new BigDecimal(value));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Not a valid amount of money [value=%s]", value));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value has more than two decimal places or does not fit in a {@code long}
+     *                                  count of cents.
+     */
+    public static long ofDecimal(final BigDecimal value) {
+        try {
+            return value.movePointRight(2).longValueExact();
+        } catch (final ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Not a valid amount of money [value=%s]", value));
+        }
+    }
+
+    public static String toString(final long cents) {
+        final char[] buffer = new char[MAX_CHARS];
+        final int start = format(cents, buffer);
+        return new String(buffer, start, MAX_CHARS - start);
+    }
+
+    /**
+     * The amount as a double, for metrics and rates that need not be exact.
+     */
+    public static double toDouble(final long cents) {
+        return (double) cents / CENTS_PER_UNIT;
+    }
+
+    /**
+     * Writes the amount right-aligned into the end of {@code buffer}, which must hold at least {@value #MAX_CHARS}
+     * chars.
+     *
+     * @return the index of the first char written.
+     */
+    static int format(final long cents, final char[] buffer) {
+        // Digits are produced from the negated value, since Long.MIN_VALUE has no positive counterpart.
+        long remaining = cents < 0 ? cents : -cents;
+        int position = buffer.length;
+
+        final int hundredths = (int) -(remaining % 10);
+        remaining /= 10;
+        final int tenths = (int) -(remaining % 10);
+        remaining /= 10;
+        if (hundredths != 0) {
+            buffer[--position] = (char) ('0' + hundredths);
+        }
+        buffer[--position] = (char) ('0' + tenths);
+        buffer[--position] = '.';
+        do {
+            buffer[--position] = (char) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (cents < 0) {
+            buffer[--position] = '-';
+        }
+        return position;
+    }
+
+    /**
+     * Writes a {@code long} count of cents as a decimal JSON number without creating a string.
+     */
+    public static class Serializer extends StdSerializer<Long> {
+        public Serializer() {
+            super(Long.class);
+        }
+
+        @Override
+        public void serialize(final Long cents, final JsonGenerator generator, final SerializerProvider provider)
+                throws IOException {
+            final char[] buffer = FORMAT_BUFFERS.get();
+            final int start = format(cents, buffer);
+            generator.writeNumber(buffer, start, buffer.length - start);
+        }
+    }
+
+    /**
+     * Reads a decimal JSON number, or a string holding one, as a {@code long} count of cents.
+     */
+    public static class Deserializer extends StdDeserializer<Long> {
+        public Deserializer() {
+            super(Long.class);
+        }
+
+        @Override
+        public Long deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+            try {
+                if (parser.hasToken(JsonToken.VALUE_STRING)) {
+                    return parse(parser.getText());
+                }
+                if (parser.getCurrentToken() != null && parser.getCurrentToken().isNumeric()) {
+                    return ofDecimal(parser.getDecimalValue());
+                }
+            } catch (final IllegalArgumentException e) {
+                throw JsonMappingException.from(parser, e.getMessage(), e);
+            }
+            return (Long) context.handleUnexpectedToken(Long.class, parser);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package skadi15;
+
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * The secret shared by the nodes of a sharded or replicated store, from {@value #SETTING}. A node sends it in
+ * {@value #HEADER} with every request to another node, and only requests carrying it are served by the endpoints that
+ * store and remove orders without pricing them, and exempted from admission control.
+ */
+final class NodeSecret {
+    static final String SETTING = "node.secret";
+    static final String HEADER = "X-Node-Secret";
+
+    // Null when no secret is set, in which case no request comes from another node.
+    private final byte[] secret;
+
+    NodeSecret(final String secret) {
+        this.secret = secret != null && !secret.isEmpty() ? secret.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    static NodeSecret of(final Settings settings) {
+        return new NodeSecret(settings.getString(SETTING));
+    }
+
+    boolean isConfigured() {
+        return secret != null;
+    }
+
+    /**
+     * Compares the secret in constant time, so its contents cannot be guessed from how long a rejection takes.
+     *
+     * @return whether the request carries the secret.
+     */
+    boolean authenticates(final HttpServletRequest request) {
+        final String header = request.getHeader(HEADER);
+        return secret != null && header != null
+                && MessageDigest.isEqual(secret, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds the secret to a request to another node.
+     */
+    HttpRequest.Builder sign(final HttpRequest.Builder request) {
+        return secret != null ? request.header(HEADER, new String(secret, StandardCharsets.UTF_8)) : request;
+    }
+}
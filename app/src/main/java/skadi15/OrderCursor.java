@@ -0,0 +1,49 @@
+package skadi15;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Encodes the position of the last order on a page. The cursor carries every field the indexes sort on, so a page can
+ * resume from it even if that order has since been removed.
+ */
+final class OrderCursor {
+    private static final int ENCODED_BYTES = Long.BYTES * 2 + Integer.BYTES * 2 + Long.BYTES;
+
+    private OrderCursor() {
+    }
+
+    static String encode(final OrderSummary order) {
+        final ByteBuffer buffer = ByteBuffer.allocate(ENCODED_BYTES)
+                .putLong(order.getOrderId().getMostSignificantBits())
+                .putLong(order.getOrderId().getLeastSignificantBits())
+                .putInt(order.getNumApples())
+                .putInt(order.getNumOranges())
+                .putLong(order.getTotalCostCents());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @return an order that sorts at the cursor position in every index.
+     */
+    static OrderSummary decode(final String cursor) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Cursor is not valid [value=%s]", cursor));
+        }
+        if (bytes.length != ENCODED_BYTES) {
+            throw new IllegalArgumentException(String.format("Cursor is not valid [value=%s]", cursor));
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return OrderSummary.builder()
+                .orderId(new UUID(buffer.getLong(), buffer.getLong()))
+                .numApples(buffer.getInt())
+                .numOranges(buffer.getInt())
+                .totalCostCents(buffer.getLong())
+                .build();
+    }
+}
@@ -0,0 +1,11 @@
+package skadi15;
+
+import java.util.UUID;
+
+/**
+ * Source of IDs for new orders. Implementations must be safe to call from many threads at once.
+ */
+@FunctionalInterface
+public interface OrderIdGenerator {
+    UUID nextId();
+}
@@ -0,0 +1,97 @@
+package skadi15;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * Sorted secondary indexes over stored orders, used to answer an {@link OrderQuery} in O(page size + log n) when the
+ * query filters on an indexed field. Each index is ordered by one field and then by order ID, so every order has a
+ * unique position and a page can resume from an {@link OrderCursor}.
+ */
+class OrderIndexes {
+    private static final UUID MIN_ID = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+    private static final UUID MAX_ID = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private static final Comparator<OrderSummary> BY_APPLES = Comparator.comparingInt(OrderSummary::getNumApples)
+            .thenComparing(OrderSummary::getOrderId);
+    private static final Comparator<OrderSummary> BY_ORANGES = Comparator.comparingInt(OrderSummary::getNumOranges)
+            .thenComparing(OrderSummary::getOrderId);
+    private static final Comparator<OrderSummary> BY_COST = Comparator.comparingLong(OrderSummary::getTotalCostCents)
+            .thenComparing(OrderSummary::getOrderId);
+
+    private final NavigableSet<OrderSummary> byApples = new ConcurrentSkipListSet<>(BY_APPLES);
+    private final NavigableSet<OrderSummary> byOranges = new ConcurrentSkipListSet<>(BY_ORANGES);
+    private final NavigableSet<OrderSummary> byCost = new ConcurrentSkipListSet<>(BY_COST);
+
+    void add(final OrderSummary order) {
+        byApples.add(order);
+        byOranges.add(order);
+        byCost.add(order);
+    }
+
+    void remove(final OrderSummary order) {
+        byApples.remove(order);
+        byOranges.remove(order);
+        byCost.remove(order);
+    }
+
+    /**
+     * Walks one index, picked by a fixed priority: apples if the query filters on them, else oranges, else cost. The
+     * choice does not depend on the data, so every page of a query walks the same index and its cursor stays valid,
+     * but a query on apples and a cost range scans every order with that number of apples. The indexes are updated
+     * after the primary store, so every candidate is checked against {@code lookup} and skipped if it is no longer the
+     * stored order for its ID.
+     */
+    OrderPage find(final OrderQuery query, final Function<UUID, OrderSummary> lookup) {
+        NavigableSet<OrderSummary> candidates = select(query);
+        if (query.getCursor() != null) {
+            candidates = candidates.tailSet(OrderCursor.decode(query.getCursor()), false);
+        }
+
+        final List<OrderSummary> page = new ArrayList<>(Math.min(query.getLimit(), OrderQuery.DEFAULT_LIMIT));
+        for (final OrderSummary order : candidates) {
+            if (lookup.apply(order.getOrderId()) != order || !query.matches(order)) {
+                continue;
+            }
+            if (page.size() == query.getLimit()) {
+                return new OrderPage(page, OrderCursor.encode(page.get(page.size() - 1)));
+            }
+            page.add(order);
+        }
+        return new OrderPage(page, null);
+    }
+
+    private NavigableSet<OrderSummary> select(final OrderQuery query) {
+        if (query.getNumApples() != null) {
+            return byApples.subSet(
+                    probe(MIN_ID, query.getNumApples(), 0, 0), true,
+                    probe(MAX_ID, query.getNumApples(), 0, 0), true);
+        }
+        if (query.getNumOranges() != null) {
+            return byOranges.subSet(
+                    probe(MIN_ID, 0, query.getNumOranges(), 0), true,
+                    probe(MAX_ID, 0, query.getNumOranges(), 0), true);
+        }
+
+        final long minTotalCostCents = query.getMinTotalCostCents() == null ? Long.MIN_VALUE : query.getMinTotalCostCents();
+        final long maxTotalCostCents = query.getMaxTotalCostCents() == null ? Long.MAX_VALUE : query.getMaxTotalCostCents();
+        return byCost.subSet(
+                probe(MIN_ID, 0, 0, minTotalCostCents), true,
+                probe(MAX_ID, 0, 0, maxTotalCostCents), true);
+    }
+
+    private static OrderSummary probe(final UUID orderId, final int numApples, final int numOranges,
+            final long totalCostCents) {
+        return OrderSummary.builder()
+                .orderId(orderId)
+                .numApples(numApples)
+                .numOranges(numOranges)
+                .totalCostCents(totalCostCents)
+                .build();
+    }
+}
@@ -0,0 +1,297 @@
+package skadi15;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Append-only journal of orders, and of the IDs of removed orders, in memory-mapped, fixed-size segment files.
+ *
+ * <p>Appending reserves a slot in the current segment with one atomic increment and writes the record into the
+ * mapping with absolute puts, so concurrent appenders never lock and never allocate. When a segment fills up the next
+ * appender maps a new one. A background task forces dirty segments to disk every {@code syncIntervalMillis}
+ * (group commit), so an append is durable once the following sync completes.
+ *
+ * <p>Each run writes to new segments; the segments of earlier runs are only read, by
+ * {@link #replay(long, Consumer, Consumer)}.
+ * {@link #rollSegment()} starts a new segment early, so everything appended from then on can be told apart by segment
+ * number, and {@link #deleteSegmentsBefore(long)} drops segments whose orders are kept elsewhere.
+ */
+public class OrderJournal implements Closeable {
+    private static final String SEGMENT_PREFIX = "orders-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAGIC = 0x4F524A4C; // "ORJL"
+    // The header is one record long, so records stay aligned to their own size.
+    private static final int HEADER_BYTES = OrderRecords.RECORD_BYTES;
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final List<Path> existingSegments;
+    private final Queue<Segment> unsyncedSegments = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService syncExecutor;
+    private final Object rollLock = new Object();
+    private long nextSegmentNumber;
+    private volatile Segment current;
+
+    /**
+     * @param segmentBytes       size of each segment file, including its header.
+     * @param syncIntervalMillis how often dirty segments are forced to disk, or 0 to only force them on {@link #sync()}
+     *                           and {@link #close()}.
+     */
+    public OrderJournal(final Path directory, final int segmentBytes, final long syncIntervalMillis) throws IOException {
+        Preconditions.checkArgument(segmentBytes >= HEADER_BYTES + OrderRecords.RECORD_BYTES,
+                String.format("Journal segments must hold at least one record [segmentBytes=%d]", segmentBytes));
+        Preconditions.checkArgument(syncIntervalMillis >= 0,
+                String.format("Journal sync interval must not be negative [syncIntervalMillis=%d]", syncIntervalMillis));
+
+        this.directory = Files.createDirectories(directory);
+        this.recordsPerSegment = (segmentBytes - HEADER_BYTES) / OrderRecords.RECORD_BYTES;
+        try (Stream<Path> files = Files.list(directory)) {
+            existingSegments = files
+                    .filter(OrderJournal::isSegment)
+                    .sorted()
+                    .toList();
+        }
+        nextSegmentNumber = existingSegments.isEmpty() ? 0 : segmentNumber(existingSegments.get(existingSegments.size() - 1)) + 1;
+        current = createSegment();
+
+        if (syncIntervalMillis > 0) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "order-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long replay(final Consumer<OrderSummary> consumer) throws IOException {
+        return replay(0, consumer, orderId -> {});
+    }
+
+    /**
+     * Reads every order and removal written by earlier runs to segments numbered {@code fromSegment} or later, in the
+     * order they were appended, oldest segment first. Slots that never received a complete record, such as the tail
+     * of a segment that was being written during a crash, are skipped. Segments written with version 1 records are
+     * read too.
+     *
+     * @return the number of orders read, not counting removals.
+     */
+    public long replay(final long fromSegment, final Consumer<OrderSummary> consumer,
+            final Consumer<UUID> removals) throws IOException {
+        long count = 0;
+        for (final Path segment : existingSegments) {
+            if (segmentNumber(segment) < fromSegment || !Files.exists(segment)) {
+                continue;
+            }
+            final MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                if (channel.size() < OrderRecords.VERSION_1_RECORD_BYTES) {
+                    continue;
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            final boolean version1 = checkHeader(segment, buffer) == 1;
+            final int recordBytes = version1 ? OrderRecords.VERSION_1_RECORD_BYTES : OrderRecords.RECORD_BYTES;
+            final int limit = buffer.capacity() - recordBytes;
+            for (int offset = recordBytes; offset <= limit; offset += recordBytes) {
+                if (version1 ? OrderRecords.isValidVersion1(buffer, offset) : OrderRecords.isValid(buffer, offset)) {
+                    consumer.accept(version1 ? OrderRecords.readVersion1(buffer, offset) : OrderRecords.read(buffer, offset));
+                    count++;
+                } else if (!version1 && OrderRecords.isValidRemoval(buffer, offset)) {
+                    removals.accept(OrderRecords.readRemoval(buffer, offset));
+                }
+            }
+        }
+        return count;
+    }
+
+    public void append(final OrderSummary order) {
+        append(order, null);
+    }
+
+    /**
+     * Records that the order with this ID was removed, so replaying stops at its removal.
+     */
+    public void appendRemoval(final UUID orderId) {
+        append(null, orderId);
+    }
+
+    public void appendAll(final Collection<OrderSummary> orders) {
+        orders.forEach(this::append);
+    }
+
+    /**
+     * Starts a new segment, even if the current one has room left. Appenders that already hold a slot in the old
+     * segment finish writing there; every slot reserved after this returns is in the new segment or a later one.
+     *
+     * @return the number of the new segment.
+     */
+    public long rollSegment() {
+        synchronized (rollLock) {
+            final Segment old = current;
+            current = createSegment();
+            // Any slot reserved from now on is past the end, which sends the appender on to the new segment.
+            old.expected = Math.min(old.reserved.getAndAdd(recordsPerSegment), recordsPerSegment);
+            return current.number;
+        }
+    }
+
+    /**
+     * Deletes the segment files numbered below {@code segment}, whether written by this run or an earlier one.
+     * Records still being written to a deleted segment of this run are lost from the journal.
+     */
+    public void deleteSegmentsBefore(final long segment) throws IOException {
+        final List<Path> deleted;
+        try (Stream<Path> files = Files.list(directory)) {
+            deleted = files
+                    .filter(OrderJournal::isSegment)
+                    .filter(file -> segmentNumber(file) < segment)
+                    .toList();
+        }
+        for (final Path file : deleted) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void sync() {
+        // Segments that have been rolled away from are only dropped once every reserved slot has been written and
+        // forced, since slow appenders may still be writing into them.
+        final List<Segment> finished = new ArrayList<>();
+        for (final Segment segment : unsyncedSegments) {
+            final boolean complete = segment.written.get() >= segment.expected;
+            segment.buffer.force();
+            if (complete) {
+                finished.add(segment);
+            }
+        }
+        unsyncedSegments.removeAll(finished);
+    }
+
+    @Override
+    public void close() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+            try {
+                syncExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sync();
+    }
+
+    /**
+     * Writes the order, or else a removal of {@code removedId}.
+     */
+    private void append(final OrderSummary order, final UUID removedId) {
+        while (true) {
+            final Segment segment = current;
+            final int slot = segment.reserved.getAndIncrement();
+            if (slot < recordsPerSegment) {
+                final int offset = HEADER_BYTES + slot * OrderRecords.RECORD_BYTES;
+                if (order != null) {
+                    OrderRecords.write(segment.buffer, offset, order);
+                } else {
+                    OrderRecords.writeRemoval(segment.buffer, offset, removedId);
+                }
+                segment.written.incrementAndGet();
+                return;
+            }
+            roll(segment);
+        }
+    }
+
+    private void roll(final Segment full) {
+        synchronized (rollLock) {
+            if (current == full) {
+                current = createSegment();
+            }
+        }
+    }
+
+    private Segment createSegment() {
+        final long number = nextSegmentNumber++;
+        final Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        final int segmentBytes = HEADER_BYTES + recordsPerSegment * OrderRecords.RECORD_BYTES;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, OrderRecords.VERSION);
+            buffer.putInt(8, OrderRecords.RECORD_BYTES);
+            final Segment segment = new Segment(number, buffer);
+            unsyncedSegments.add(segment);
+            return segment;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the record version of the segment.
+     */
+    private static int checkHeader(final Path segment, final ByteBuffer buffer) throws IOException {
+        final int version = buffer.getInt(4);
+        final boolean supported = version == OrderRecords.VERSION && buffer.getInt(8) == OrderRecords.RECORD_BYTES
+                || version == 1 && buffer.getInt(8) == OrderRecords.VERSION_1_RECORD_BYTES;
+        if (buffer.getInt(0) != MAGIC || !supported) {
+            throw new IOException(String.format("Not a version 1 or %d order journal segment [path=%s]", OrderRecords.VERSION, segment));
+        }
+        return version;
+    }
+
+    private static boolean isSegment(final Path file) {
+        final String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(final Path segment) {
+        final String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private class Segment {
+        final long number;
+        final MappedByteBuffer buffer;
+        final AtomicInteger reserved = new AtomicInteger();
+        final AtomicInteger written = new AtomicInteger();
+        // Records that will be written before the segment is complete, fewer than it holds if it was rolled early.
+        volatile int expected = recordsPerSegment;
+
+        Segment(final long number, final MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+}
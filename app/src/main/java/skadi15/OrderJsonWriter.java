@@ -0,0 +1,176 @@
+package skadi15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Writes an {@link OrderSummary} as JSON straight to an output stream. Each thread formats orders into its own
+ * reusable byte buffer, which is handed to the stream in one write, so no intermediate string or array is created per
+ * order.
+ *
+ * <p>The hand-written format produces the same bytes as Jackson does for the four fixed fields, without a generator
+ * per order. Without it, the cached {@link ObjectWriter} writes into the same buffer.
+ */
+final class OrderJsonWriter {
+    private static final byte[] ORDER_ID_FIELD = ascii("{\"orderId\":");
+    private static final byte[] NUM_APPLES_FIELD = ascii(",\"numApples\":");
+    private static final byte[] NUM_ORANGES_FIELD = ascii(",\"numOranges\":");
+    private static final byte[] TOTAL_COST_FIELD = ascii(",\"totalCost\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+    // Fields, a quoted UUID, two ints and an amount.
+    static final int MAX_BYTES = ORDER_ID_FIELD.length + 38 + NUM_APPLES_FIELD.length + 11 + NUM_ORANGES_FIELD.length
+            + 11 + TOTAL_COST_FIELD.length + Money.MAX_CHARS + 1;
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    // Null when writing by hand.
+    private final ObjectWriter writer;
+
+    /**
+     * @param writer used unless {@code handWritten} is set.
+     */
+    OrderJsonWriter(final ObjectWriter writer, final boolean handWritten) {
+        this.writer = handWritten ? null : writer.forType(OrderSummary.class);
+    }
+
+    void write(final OrderSummary order, final OutputStream output) throws IOException {
+        final Buffer buffer = encode(order);
+        output.write(buffer.bytes(), 0, buffer.size());
+        buffer.trim();
+    }
+
+    /**
+     * @return the order's JSON in an array of its own, for keeping.
+     */
+    byte[] toBytes(final OrderSummary order) throws IOException {
+        final Buffer buffer = encode(order);
+        final byte[] bytes = buffer.toByteArray();
+        buffer.trim();
+        return bytes;
+    }
+
+    private Buffer encode(final OrderSummary order) throws IOException {
+        final Buffer buffer = BUFFERS.get();
+        buffer.reset();
+        if (writer == null) {
+            buffer.format(order);
+        } else {
+            writer.writeValue(buffer, order);
+        }
+        return buffer;
+    }
+
+    /**
+     * Formats the order into the start of {@code bytes}, which must hold at least {@link #MAX_BYTES}.
+     *
+     * @param digits scratch space of at least {@link Money#MAX_CHARS} chars.
+     * @return the number of bytes written.
+     */
+    static int format(final OrderSummary order, final byte[] bytes, final char[] digits) {
+        int position = put(ORDER_ID_FIELD, bytes, 0);
+        if (order.getOrderId() == null) {
+            position = put(NULL, bytes, position);
+        } else {
+            bytes[position++] = '"';
+            position = putUuid(order.getOrderId(), bytes, position);
+            bytes[position++] = '"';
+        }
+        position = put(NUM_APPLES_FIELD, bytes, position);
+        position = putInt(order.getNumApples(), bytes, position);
+        position = put(NUM_ORANGES_FIELD, bytes, position);
+        position = putInt(order.getNumOranges(), bytes, position);
+        position = put(TOTAL_COST_FIELD, bytes, position);
+        final int start = Money.format(order.getTotalCostCents(), digits);
+        for (int i = start; i < digits.length; i++) {
+            bytes[position++] = (byte) digits[i];
+        }
+        bytes[position++] = '}';
+        return position;
+    }
+
+    private static int put(final byte[] source, final byte[] bytes, final int position) {
+        System.arraycopy(source, 0, bytes, position, source.length);
+        return position + source.length;
+    }
+
+    /**
+     * Writes the UUID in its canonical 8-4-4-4-12 lowercase hex form, as {@link UUID#toString()} does.
+     */
+    private static int putUuid(final UUID uuid, final byte[] bytes, int position) {
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+        putHex(msb >>> 32, 8, bytes, position);
+        bytes[position + 8] = '-';
+        putHex(msb >>> 16, 4, bytes, position + 9);
+        bytes[position + 13] = '-';
+        putHex(msb, 4, bytes, position + 14);
+        bytes[position + 18] = '-';
+        putHex(lsb >>> 48, 4, bytes, position + 19);
+        bytes[position + 23] = '-';
+        putHex(lsb, 12, bytes, position + 24);
+        return position + 36;
+    }
+
+    private static void putHex(long value, final int digits, final byte[] bytes, final int position) {
+        for (int i = position + digits - 1; i >= position; i--) {
+            bytes[i] = HEX_DIGITS[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+
+    private static int putInt(final int value, final byte[] bytes, int position) {
+        // Digits are produced from the negated value, since Integer.MIN_VALUE has no positive counterpart.
+        int remaining = value < 0 ? value : -value;
+        if (value < 0) {
+            bytes[position++] = '-';
+        }
+        int end = position;
+        for (int i = remaining; i <= -10; i /= 10) {
+            end++;
+        }
+        final int length = end + 1;
+        do {
+            bytes[end--] = (byte) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        return length;
+    }
+
+    private static byte[] ascii(final String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Per-thread output buffer exposing its array, so it can be written without copying.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private final char[] digits = new char[Money.MAX_CHARS];
+
+        Buffer() {
+            super(MAX_BYTES);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        void format(final OrderSummary order) {
+            count = OrderJsonWriter.format(order, buf, digits);
+        }
+
+        /**
+         * Drops an array grown past the initial size by an unusually large write, so threads do not keep it.
+         */
+        void trim() {
+            if (buf.length > MAX_BYTES * 4) {
+                buf = new byte[MAX_BYTES];
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package skadi15;
+
+import java.util.List;
+
+import lombok.Value;
+
+@Value
+public class OrderPage {
+    private final List<OrderSummary> orders;
+    /** Cursor for the next page, or {@code null} if this is the last page. */
+    private final String nextCursor;
+}
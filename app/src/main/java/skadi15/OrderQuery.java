@@ -0,0 +1,30 @@
+package skadi15;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A page request against the stored orders. Unset ({@code null}) filters match every order.
+ */
+@Value
+@Builder(toBuilder = true)
+public class OrderQuery {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private final Integer numApples;
+    private final Integer numOranges;
+    private final Long minTotalCostCents;
+    private final Long maxTotalCostCents;
+    /** Opaque position returned as {@link OrderPage#getNextCursor()} by the previous page. */
+    private final String cursor;
+    @Builder.Default
+    private final int limit = DEFAULT_LIMIT;
+
+    public boolean matches(final OrderSummary order) {
+        return (numApples == null || order.getNumApples() == numApples)
+                && (numOranges == null || order.getNumOranges() == numOranges)
+                && (minTotalCostCents == null || order.getTotalCostCents() >= minTotalCostCents)
+                && (maxTotalCostCents == null || order.getTotalCostCents() <= maxTotalCostCents);
+    }
+}
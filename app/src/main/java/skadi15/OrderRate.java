@@ -0,0 +1,13 @@
+package skadi15;
+
+import lombok.Value;
+
+/**
+ * Orders over one trailing window of {@link OrderRates}.
+ */
+@Value
+public class OrderRate {
+    private final long orders;
+    private final double ordersPerSecond;
+    private final double revenuePerMinute;
+}
@@ -0,0 +1,104 @@
+package skadi15;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Orders and revenue over the last 1, 5 and 15 minutes, kept in a ring of one-second buckets. Recording adds to the
+ * current second's bucket, and reading sums the buckets of the window, so neither depends on how many orders there
+ * are and neither takes a lock.
+ *
+ * <p>Each bucket records the second it belongs to next to full-width counters, so revenue is exact however much is
+ * ordered in one second. The first write in a new second swaps in a fresh bucket for it with one CAS on the ring slot,
+ * replacing the bucket from 15 minutes ago; writers that lose the race add to the winner's bucket.
+ */
+public class OrderRates {
+    public static final int[] WINDOW_MINUTES = {1, 5, 15};
+
+    private static final int BUCKETS = 15 * 60;
+
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKETS);
+    private final LongSupplier millisClock;
+
+    public OrderRates() {
+        this(System::currentTimeMillis);
+    }
+
+    OrderRates(final LongSupplier millisClock) {
+        this.millisClock = millisClock;
+    }
+
+    public void record(final OrderSummary order) {
+        final Bucket bucket = bucket(currentSecond());
+        bucket.orders.incrementAndGet();
+        bucket.revenueCents.addAndGet(order.getTotalCostCents());
+    }
+
+    public void recordAll(final Collection<OrderSummary> orders) {
+        long cents = 0;
+        for (final OrderSummary order : orders) {
+            cents += order.getTotalCostCents();
+        }
+        final Bucket bucket = bucket(currentSecond());
+        bucket.orders.addAndGet(orders.size());
+        bucket.revenueCents.addAndGet(cents);
+    }
+
+    /**
+     * Rates over each of {@link #WINDOW_MINUTES}, keyed by window such as {@code "5m"}. Windows end at the start of the
+     * current second, so the partly counted current second does not drag rates down.
+     */
+    public Map<String, OrderRate> snapshot() {
+        final long now = currentSecond();
+        final Map<String, OrderRate> rates = new LinkedHashMap<>();
+        for (final int minutes : WINDOW_MINUTES) {
+            long count = 0;
+            long cents = 0;
+            for (long second = now - minutes * 60L; second < now; second++) {
+                final Bucket bucket = buckets.get(Math.floorMod(second, BUCKETS));
+                // Buckets last written in other seconds are skipped.
+                if (bucket != null && bucket.second == second) {
+                    count += bucket.orders.get();
+                    cents += bucket.revenueCents.get();
+                }
+            }
+            rates.put(minutes + "m", new OrderRate(count, (double) count / (minutes * 60), Money.toDouble(cents) / minutes));
+        }
+        return rates;
+    }
+
+    private long currentSecond() {
+        return Math.floorDiv(millisClock.getAsLong(), 1000);
+    }
+
+    /**
+     * @return the bucket of {@code second}, replacing the stale bucket in its slot if need be.
+     */
+    private Bucket bucket(final long second) {
+        final int slot = Math.floorMod(second, BUCKETS);
+        while (true) {
+            final Bucket current = buckets.get(slot);
+            if (current != null && current.second == second) {
+                return current;
+            }
+            final Bucket fresh = new Bucket(second);
+            if (buckets.compareAndSet(slot, current, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static class Bucket {
+        final long second;
+        final AtomicLong orders = new AtomicLong();
+        final AtomicLong revenueCents = new AtomicLong();
+
+        Bucket(final long second) {
+            this.second = second;
+        }
+    }
+}
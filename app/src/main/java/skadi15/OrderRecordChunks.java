@@ -0,0 +1,46 @@
+package skadi15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Orders in the {@link WireFormat#RECORD} layout, written a chunk of records at a time through one reused buffer,
+ * either for {@link AsyncResponseWriter} or straight to a blocking stream.
+ */
+final class OrderRecordChunks implements AsyncResponseWriter.Source {
+    private static final int RECORDS_PER_CHUNK = AsyncResponseWriter.CHUNK_BYTES / OrderRecords.RECORD_BYTES;
+
+    private final Iterator<OrderSummary> orders;
+    private final ByteBuffer records = ByteBuffer.allocate(RECORDS_PER_CHUNK * OrderRecords.RECORD_BYTES);
+
+    OrderRecordChunks(final Iterable<OrderSummary> orders) {
+        this.orders = orders.iterator();
+    }
+
+    @Override
+    public boolean writeNext(final ByteArrayOutputStream chunk) {
+        chunk.write(records.array(), 0, fill());
+        return orders.hasNext();
+    }
+
+    void writeTo(final OutputStream output) throws IOException {
+        while (orders.hasNext()) {
+            output.write(records.array(), 0, fill());
+        }
+    }
+
+    /**
+     * @return the number of bytes of records written into {@link #records}.
+     */
+    private int fill() {
+        int offset = 0;
+        while (offset < records.capacity() && orders.hasNext()) {
+            OrderRecords.write(records, offset, orders.next());
+            offset += OrderRecords.RECORD_BYTES;
+        }
+        return offset;
+    }
+}
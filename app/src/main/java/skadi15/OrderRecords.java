@@ -0,0 +1,147 @@
+package skadi15;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Fixed-width binary layout of an {@link OrderSummary}, shared by everything that writes orders outside the heap.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     8  orderId most significant bits
+ *      8     8  orderId least significant bits
+ *     16     4  numApples
+ *     20     4  numOranges
+ *     24     8  totalCostCents
+ *     32     4  checksum, never 0
+ *     36     4  flags, also keeps records 8-byte aligned
+ * </pre>
+ *
+ * Storage that starts zero-filled can tell written records from empty slots by the checksum, which also rejects
+ * records that were only partly written before a crash. A removal record, flagged {@link #REMOVAL}, only carries the
+ * ID of an order that was removed; it is only valid where removals are expected, such as in a journal. All access is
+ * absolute, so concurrent writers to different offsets of one buffer do not interfere.
+ *
+ * <p>Version 1 records were 32 bytes, with the cost as float bits at offset 24 and the checksum at offset 28. They
+ * can still be read, with the cost rounded to the nearest cent.
+ */
+final class OrderRecords {
+    static final int VERSION = 2;
+    static final int RECORD_BYTES = 40;
+    static final int VERSION_1_RECORD_BYTES = 32;
+    static final int REMOVAL = 1;
+
+    private OrderRecords() {
+    }
+
+    static void write(final ByteBuffer buffer, final int offset, final OrderSummary order) {
+        final long msb = order.getOrderId().getMostSignificantBits();
+        final long lsb = order.getOrderId().getLeastSignificantBits();
+        final long cents = order.getTotalCostCents();
+        buffer.putLong(offset, msb);
+        buffer.putLong(offset + 8, lsb);
+        buffer.putInt(offset + 16, order.getNumApples());
+        buffer.putInt(offset + 20, order.getNumOranges());
+        buffer.putLong(offset + 24, cents);
+        buffer.putInt(offset + 36, 0);
+        // Written last so a reader never accepts a record whose fields are still being written.
+        buffer.putInt(offset + 32, checksum(msb, lsb, order.getNumApples(), order.getNumOranges(), cents, 0));
+    }
+
+    static void writeRemoval(final ByteBuffer buffer, final int offset, final UUID orderId) {
+        final long msb = orderId.getMostSignificantBits();
+        final long lsb = orderId.getLeastSignificantBits();
+        buffer.putLong(offset, msb);
+        buffer.putLong(offset + 8, lsb);
+        buffer.putInt(offset + 16, 0);
+        buffer.putInt(offset + 20, 0);
+        buffer.putLong(offset + 24, 0);
+        buffer.putInt(offset + 36, REMOVAL);
+        buffer.putInt(offset + 32, checksum(msb, lsb, 0, 0, 0, REMOVAL));
+    }
+
+    /**
+     * @return the orders as consecutive records.
+     */
+    static byte[] toBytes(final Collection<OrderSummary> orders) {
+        final ByteBuffer records = ByteBuffer.allocate(orders.size() * RECORD_BYTES);
+        int offset = 0;
+        for (final OrderSummary order : orders) {
+            write(records, offset, order);
+            offset += RECORD_BYTES;
+        }
+        return records.array();
+    }
+
+    /**
+     * @return whether the slot at {@code offset} holds a complete order record.
+     */
+    static boolean isValid(final ByteBuffer buffer, final int offset) {
+        return buffer.getInt(offset + 36) == 0 && hasValidChecksum(buffer, offset);
+    }
+
+    /**
+     * @return whether the slot at {@code offset} holds a complete removal record.
+     */
+    static boolean isValidRemoval(final ByteBuffer buffer, final int offset) {
+        return buffer.getInt(offset + 36) == REMOVAL && hasValidChecksum(buffer, offset);
+    }
+
+    static UUID readRemoval(final ByteBuffer buffer, final int offset) {
+        return new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+    }
+
+    static OrderSummary read(final ByteBuffer buffer, final int offset) {
+        return OrderSummary.builder()
+                .orderId(new UUID(buffer.getLong(offset), buffer.getLong(offset + 8)))
+                .numApples(buffer.getInt(offset + 16))
+                .numOranges(buffer.getInt(offset + 20))
+                .totalCostCents(buffer.getLong(offset + 24))
+                .build();
+    }
+
+    static boolean isValidVersion1(final ByteBuffer buffer, final int offset) {
+        final int stored = buffer.getInt(offset + 28);
+        return stored != 0 && stored == checksum(
+                buffer.getLong(offset),
+                buffer.getLong(offset + 8),
+                buffer.getInt(offset + 16),
+                buffer.getInt(offset + 20),
+                buffer.getInt(offset + 24), 0);
+    }
+
+    static OrderSummary readVersion1(final ByteBuffer buffer, final int offset) {
+        final float totalCost = Float.intBitsToFloat(buffer.getInt(offset + 24));
+        return OrderSummary.builder()
+                .orderId(new UUID(buffer.getLong(offset), buffer.getLong(offset + 8)))
+                .numApples(buffer.getInt(offset + 16))
+                .numOranges(buffer.getInt(offset + 20))
+                .totalCostCents(Math.round((double) totalCost * Money.CENTS_PER_UNIT))
+                .build();
+    }
+
+    private static boolean hasValidChecksum(final ByteBuffer buffer, final int offset) {
+        final int stored = buffer.getInt(offset + 32);
+        return stored != 0 && stored == checksum(
+                buffer.getLong(offset),
+                buffer.getLong(offset + 8),
+                buffer.getInt(offset + 16),
+                buffer.getInt(offset + 20),
+                buffer.getLong(offset + 24),
+                buffer.getInt(offset + 36));
+    }
+
+    private static int checksum(final long msb, final long lsb, final int numApples, final int numOranges,
+            final long cost, final int flags) {
+        long hash = msb * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ lsb) * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ ((long) numApples << 32 | (numOranges & 0xFFFFFFFFL))) * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ cost) * 0x9E3779B97F4A7C15L;
+        // Only mixed in when set, so order records keep the checksums they had before flags existed.
+        if (flags != 0) {
+            hash = (hash ^ flags) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (hash ^ hash >>> 32) | 1;
+    }
+}
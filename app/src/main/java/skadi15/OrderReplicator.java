@@ -0,0 +1,406 @@
+package skadi15;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Ships the orders recorded on this node to a standby {@link AppServlet}, which stores them through its
+ * {@value AppServlet#REPLICA_PATH} endpoint. Orders are numbered as they are appended and kept in a backlog until the
+ * standby acknowledges them. A shipping thread sends whatever has built up as one batch of {@link WireFormat#RECORD}
+ * records, with up to {@code maxInFlight} batches on the wire at once, and an order is acknowledged once its batch and
+ * every earlier batch have been stored. Storing an order again only replaces it, so batches may arrive in any order
+ * and may be sent twice.
+ *
+ * <p>Every answer carries the standby's startup epoch. The first time the standby is reached, whenever its epoch
+ * changes because it restarted, and whenever the backlog outgrows {@code maxBacklog}, the whole store is shipped
+ * instead, and shipping carries on from the orders appended after that copy began. After a failed batch the
+ * unacknowledged orders are sent again once the standby answers, so a standby that was only briefly unreachable catches
+ * up from the backlog without a full copy.
+ */
+public class OrderReplicator implements Closeable {
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private final HttpClient client;
+    private final URI replicaUri;
+    private final Duration timeout;
+    private final NodeSecret secret;
+    private final Supplier<? extends Collection<OrderSummary>> store;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int maxBacklog;
+    private final Thread shipper;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Everything below is guarded by lock.
+    // The orders numbered up to lastSequence that are not acknowledged yet, oldest first. Orders dropped when the
+    // backlog overflowed are not in it, so its head may be after acknowledgedSequence + 1.
+    private final ArrayDeque<OrderSummary> backlog = new ArrayDeque<>();
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+    private long lastSequence;
+    private long shippedSequence;
+    private long acknowledgedSequence;
+    // The last order dropped from an overflowing backlog, which only a copy of the store can ship.
+    private long droppedSequence;
+    // Set when a batch failed, until the unacknowledged orders are queued to be sent again.
+    private boolean failed;
+    // Null until the store has been copied to the standby since it started.
+    private String standbyEpoch;
+    private boolean closed;
+    private long batches;
+    private long resyncs;
+    private long failures;
+
+    /**
+     * @param replicaUri the standby's {@value AppServlet#REPLICA_PATH} endpoint.
+     * @param timeout    how long to wait for the standby to answer a batch.
+     * @param secret     sent with every batch, so the standby stores it.
+     * @param store      the orders to copy when the standby needs all of them.
+     */
+    OrderReplicator(final URI replicaUri, final Duration timeout, final NodeSecret secret,
+            final Supplier<? extends Collection<OrderSummary>> store, final int batchSize, final int maxInFlight,
+            final int maxBacklog) {
+        Preconditions.checkArgument(batchSize > 0, String.format("Replication batch size must be positive [value=%d]", batchSize));
+        Preconditions.checkArgument(maxInFlight > 0,
+                String.format("Replication batches in flight must be positive [value=%d]", maxInFlight));
+        Preconditions.checkArgument(maxBacklog >= batchSize,
+                String.format("Replication backlog must hold a batch [maxBacklog=%d, batchSize=%d]", maxBacklog, batchSize));
+
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        this.replicaUri = replicaUri;
+        this.timeout = timeout;
+        this.secret = secret;
+        this.store = store;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.maxBacklog = maxBacklog;
+        this.shipper = new Thread(this::run, "order-replicator");
+        shipper.setDaemon(true);
+        shipper.start();
+    }
+
+    /**
+     * Queues orders that were just stored to be shipped.
+     *
+     * @return the sequence number of the last of them, to wait for with {@link #awaitAcknowledged}.
+     */
+    public long append(final Collection<OrderSummary> orders) {
+        lock.lock();
+        try {
+            lastSequence += orders.size();
+            if (backlog.size() + orders.size() > maxBacklog) {
+                // Too far behind to keep every order, so the standby gets a copy of the store instead.
+                backlog.clear();
+                droppedSequence = lastSequence;
+                shippedSequence = lastSequence;
+                standbyEpoch = null;
+            } else {
+                backlog.addAll(orders);
+            }
+            changed.signalAll();
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the standby has stored every order up to the sequence number.
+     *
+     * @throws UncheckedIOException if it has not within the timeout. The orders stay queued.
+     */
+    public void awaitAcknowledged(final long sequence, final Duration timeout) {
+        long remainingNanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while (acknowledgedSequence < sequence) {
+                if (closed || remainingNanos <= 0) {
+                    throw new UncheckedIOException(new IOException(String.format(
+                            "Standby did not acknowledge orders in time [uri=%s, sequence=%d, acknowledged=%d]",
+                            replicaUri, sequence, acknowledgedSequence)));
+                }
+                remainingNanos = changed.awaitNanos(remainingNanos);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for standby " + replicaUri));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ReplicationMetrics getMetrics() {
+        lock.lock();
+        try {
+            return new ReplicationMetrics(lastSequence - acknowledgedSequence, standbyEpoch != null && !failed,
+                    batches, resyncs, failures);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives the standby up to the timeout to acknowledge every order appended so far, then stops shipping.
+     */
+    @Override
+    public void close() {
+        final long appended;
+        lock.lock();
+        try {
+            appended = lastSequence;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            awaitAcknowledged(appended, timeout);
+        } catch (final UncheckedIOException e) {
+            // Whatever is left is in this node's store, and its journal if it has one.
+        }
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        shipper.interrupt();
+        try {
+            shipper.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        client.close();
+    }
+
+    private void run() {
+        while (true) {
+            final boolean retry;
+            final boolean resync;
+            lock.lock();
+            try {
+                while (!closed && !hasWork()) {
+                    changed.await();
+                }
+                if (closed) {
+                    return;
+                }
+                retry = failed;
+                if (failed) {
+                    failed = false;
+                    shippedSequence = Math.max(acknowledgedSequence, lastSequence - backlog.size());
+                }
+                resync = standbyEpoch == null;
+            } catch (final InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (retry) {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+                if (resync) {
+                    resync();
+                } else {
+                    shipNext();
+                }
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final RuntimeException e) {
+                lock.lock();
+                try {
+                    failed = true;
+                    failures++;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Recovering from a failure or a lost standby waits for the batches on the wire, so that none of them is mistaken
+     * for an acknowledgment of what is sent next.
+     */
+    private boolean hasWork() {
+        if (failed || standbyEpoch == null) {
+            return inFlight.isEmpty();
+        }
+        return inFlight.size() < maxInFlight && shippedSequence < lastSequence;
+    }
+
+    /**
+     * Ships the whole store, then acknowledges every order numbered before the copy began, since the store already
+     * held them.
+     */
+    private void resync() {
+        final long copiedSequence;
+        lock.lock();
+        try {
+            copiedSequence = lastSequence;
+            resyncs++;
+        } finally {
+            lock.unlock();
+        }
+
+        final ArrayDeque<CompletableFuture<String>> responses = new ArrayDeque<>();
+        String epoch = null;
+        final Iterator<OrderSummary> orders = store.get().iterator();
+        // An empty store still sends one empty batch, to learn the standby's epoch.
+        do {
+            final List<OrderSummary> chunk = new ArrayList<>(batchSize);
+            while (orders.hasNext() && chunk.size() < batchSize) {
+                chunk.add(orders.next());
+            }
+            responses.add(post(chunk));
+            while (responses.size() >= maxInFlight) {
+                epoch = checkEpoch(epoch, join(responses.poll()));
+            }
+        } while (orders.hasNext());
+        while (!responses.isEmpty()) {
+            epoch = checkEpoch(epoch, join(responses.poll()));
+        }
+
+        lock.lock();
+        try {
+            // Orders dropped while the copy was made may not be in it.
+            standbyEpoch = droppedSequence > copiedSequence ? null : epoch;
+            acknowledge(copiedSequence);
+            shippedSequence = Math.max(shippedSequence, copiedSequence);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void shipNext() {
+        final Batch batch;
+        final String epoch;
+        final List<OrderSummary> orders;
+        lock.lock();
+        try {
+            final long firstSequence = lastSequence - backlog.size() + 1;
+            final long start = Math.max(shippedSequence + 1, firstSequence);
+            orders = new ArrayList<>((int) Math.min(batchSize, lastSequence - start + 1));
+            final Iterator<OrderSummary> pending = backlog.iterator();
+            for (long skipped = start - firstSequence; skipped > 0; skipped--) {
+                pending.next();
+            }
+            while (orders.size() < batchSize && pending.hasNext()) {
+                orders.add(pending.next());
+            }
+            batch = new Batch(start + orders.size() - 1);
+            shippedSequence = batch.lastSequence;
+            inFlight.add(batch);
+            batches++;
+            epoch = standbyEpoch;
+        } finally {
+            lock.unlock();
+        }
+        post(orders).whenComplete((answer, error) -> complete(batch, epoch, answer, error));
+    }
+
+    private void complete(final Batch batch, final String epoch, final String answer, final Throwable error) {
+        lock.lock();
+        try {
+            batch.done = true;
+            batch.stored = error == null && epoch.equals(answer);
+            if (error != null) {
+                failed = true;
+                failures++;
+            } else if (!epoch.equals(answer) && epoch.equals(standbyEpoch)) {
+                // The standby restarted and lost the orders it had.
+                standbyEpoch = null;
+            }
+            while (!inFlight.isEmpty() && inFlight.peekFirst().done) {
+                final Batch head = inFlight.poll();
+                if (head.stored && !failed && standbyEpoch != null) {
+                    acknowledge(head.lastSequence);
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acknowledge(final long sequence) {
+        if (sequence <= acknowledgedSequence) {
+            return;
+        }
+        final long firstSequence = lastSequence - backlog.size() + 1;
+        for (long i = Math.min(backlog.size(), sequence - firstSequence + 1); i > 0; i--) {
+            backlog.poll();
+        }
+        acknowledgedSequence = sequence;
+    }
+
+    /**
+     * @return the standby's epoch, from its answer.
+     */
+    private CompletableFuture<String> post(final List<OrderSummary> orders) {
+        final HttpRequest request = secret.sign(HttpRequest.newBuilder(replicaUri))
+                .timeout(timeout)
+                .header("Content-Type", WireFormat.RECORD.getContentType())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(OrderRecords.toBytes(orders)))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            if (response.statusCode() / 100 != 2) {
+                throw new UncheckedIOException(new IOException(String.format(
+                        "Standby rejected orders [uri=%s, status=%d]", replicaUri, response.statusCode())));
+            }
+            return response.body().trim();
+        });
+    }
+
+    private String checkEpoch(final String expected, final String epoch) {
+        if (expected != null && !expected.equals(epoch)) {
+            throw new IllegalStateException(String.format("Standby restarted while the store was copied [uri=%s]", replicaUri));
+        }
+        return epoch;
+    }
+
+    private static <T> T join(final CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        }
+    }
+
+    private static class Batch {
+        final long lastSequence;
+        boolean done;
+        boolean stored;
+
+        Batch(final long lastSequence) {
+            this.lastSequence = lastSequence;
+        }
+    }
+}
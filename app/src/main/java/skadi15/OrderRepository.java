@@ -0,0 +1,76 @@
+package skadi15;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Storage for processed orders. Implementations must be safe to call from many container worker threads at once.
+ */
+public interface OrderRepository {
+    /**
+     * Stores an order, replacing any order already stored under the same ID.
+     */
+    void recordOrder(OrderSummary order);
+
+    /**
+     * Stores an order like {@link #recordOrder}, as one step with finding the order it replaces, so that of several
+     * callers storing the same order only one is told it is new. The default takes two steps and should be overridden
+     * by implementations that can take one.
+     *
+     * @return the order that was stored under the same ID, or {@code null} if there was none.
+     */
+    default OrderSummary putOrder(final OrderSummary order) {
+        final OrderSummary previous = getOrder(order.getOrderId());
+        recordOrder(order);
+        return previous;
+    }
+
+    /**
+     * Stores a batch of orders. Implementations that can amortise work across a batch should override this.
+     */
+    default void recordOrders(final Collection<OrderSummary> orders) {
+        orders.forEach(this::recordOrder);
+    }
+
+    /**
+     * @return the order stored under the given ID, or {@code null} if there is none.
+     */
+    OrderSummary getOrder(UUID orderId);
+
+    /**
+     * Removes the order stored under the given ID.
+     *
+     * @return the removed order, or {@code null} if there was none.
+     */
+    OrderSummary removeOrder(UUID orderId);
+
+    /**
+     * @return a live view of all stored orders. Iteration is weakly consistent and never fails because of
+     *         concurrent writes.
+     */
+    Collection<OrderSummary> getOrders();
+
+    /**
+     * @return the page of stored orders matching the query.
+     * @throws IllegalArgumentException if the query's cursor is not one this repository issued.
+     */
+    OrderPage findOrders(OrderQuery query);
+
+    /**
+     * @return the number of stored orders.
+     */
+    int size();
+
+    /**
+     * @return approximate bytes of memory a stored order costs, used to turn a memory budget into an order count.
+     */
+    long estimatedBytesPerOrder();
+
+    /**
+     * @return whether removing an order may move other orders, so that an iteration of {@link #getOrders()} running
+     *         meanwhile can miss orders that were stored throughout it.
+     */
+    default boolean removalsMoveOrders() {
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package skadi15;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one order POST timed by {@link RequestTimings}. The event's duration covers the whole request and
+ * each field the time spent in one phase.
+ */
+@Name("skadi15.OrderRequest")
+@Label("Order Request")
+@Category("Orders")
+@Description("Time spent in each phase of an order POST")
+@StackTrace(false)
+class OrderRequestEvent extends Event {
+    @Label("Parse")
+    @Timespan
+    long parseNanos;
+
+    @Label("Price")
+    @Timespan
+    long priceNanos;
+
+    @Label("Store")
+    @Timespan
+    long storeNanos;
+
+    @Label("Serialize")
+    @Timespan
+    long serializeNanos;
+
+    void set(final RequestTimings.Phase phase, final long nanos) {
+        switch (phase) {
+            case PARSE -> parseNanos = nanos;
+            case PRICE -> priceNanos = nanos;
+            case STORE -> storeNanos = nanos;
+            case SERIALIZE -> serializeNanos = nanos;
+        }
+    }
+}
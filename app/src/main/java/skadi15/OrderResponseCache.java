@@ -0,0 +1,305 @@
+package skadi15;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounded cache of encoded single-order responses, so a hot lookup is a map probe and one write. Admission and
+ * eviction follow W-TinyLFU: new entries enter a small LRU window, and an entry leaving the window only displaces the
+ * main area's eviction victim if a frequency sketch says it has been requested more often. One-off lookups, such as a
+ * job walking every order once, pass through the window without flushing the hot entries. The main area is a
+ * segmented LRU in which entries hit while on probation are promoted to the protected segment.
+ *
+ * <p>Policy updates take a lock; hits only try to take it to record the access and skip that if it is contended, as in
+ * {@link BoundedOrderRepository}. Callers must {@link #invalidate} an order after replacing or removing it, and pass
+ * {@link #put} the {@link #stamp} read before looking the order up, so a response encoded from an order that changed
+ * meanwhile is never admitted.
+ */
+public class OrderResponseCache {
+    // Cache node, map entry and table slot, key, response holder, entity tag string and both array headers.
+    static final long OVERHEAD_BYTES_PER_ENTRY = 32 + 40 + 32 + 24 + 24 + 32;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int STAMP_STRIPES = 64;
+
+    private final int windowMax;
+    private final int mainMax;
+    private final int protectedMax;
+    private final ConcurrentMap<UUID, Node> nodes = new ConcurrentHashMap<>();
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final Node window = Node.sentinel();
+    private final Node probation = Node.sentinel();
+    private final Node protectedSegment = Node.sentinel();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private int windowSize;
+    private int probationSize;
+    private int protectedSize;
+    private volatile long memoryBytes;
+
+    public OrderResponseCache(final int maxEntries) {
+        Preconditions.checkArgument(maxEntries > 0, "Response cache must hold at least one entry");
+        windowMax = Math.max(1, maxEntries * WINDOW_PERCENT / 100);
+        mainMax = maxEntries - windowMax;
+        protectedMax = mainMax * PROTECTED_PERCENT / 100;
+        sketch = new FrequencySketch(maxEntries);
+    }
+
+    /**
+     * @return the cached response for the order, or {@code null} if there is none.
+     */
+    public CachedResponse get(final UUID orderId) {
+        final Node node = nodes.get(orderId);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        if (lock.tryLock()) {
+            try {
+                onHit(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.response;
+    }
+
+    /**
+     * @return a value to pass to {@link #put}, read before looking up the order the response is encoded from.
+     */
+    public long stamp(final UUID orderId) {
+        return stamps.get(stripe(orderId));
+    }
+
+    /**
+     * Offers a response for caching. It is dropped if the order was invalidated since {@code stamp} was read, and may
+     * be dropped later if the order is requested less often than the cached ones.
+     */
+    public void put(final UUID orderId, final CachedResponse response, final long stamp) {
+        lock.lock();
+        try {
+            sketch.increment(orderId);
+            if (stamps.get(stripe(orderId)) != stamp || nodes.containsKey(orderId)) {
+                return;
+            }
+            final Node node = new Node(orderId, response);
+            nodes.put(orderId, node);
+            // An invalidation racing the put either sees the node in the map or changes the stamp before this check.
+            if (stamps.get(stripe(orderId)) != stamp) {
+                nodes.remove(orderId, node);
+                return;
+            }
+            node.queue = window;
+            node.linkBefore(window);
+            windowSize++;
+            memoryBytes += node.weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the order's response. Must be called after the order is replaced or removed in the store.
+     */
+    public void invalidate(final UUID orderId) {
+        stamps.incrementAndGet(stripe(orderId));
+        final Node node = nodes.remove(orderId);
+        if (node != null) {
+            lock.lock();
+            try {
+                if (node.isLinked()) {
+                    unlink(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public ResponseCacheMetrics getMetrics() {
+        return new ResponseCacheMetrics(nodes.size(), memoryBytes, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private void onHit(final Node node) {
+        sketch.increment(node.orderId);
+        if (!node.isLinked()) {
+            return;
+        }
+        node.unlinkQueue();
+        if (node.queue == probation) {
+            probationSize--;
+            node.queue = protectedSegment;
+            protectedSize++;
+            if (protectedSize > protectedMax) {
+                final Node demoted = protectedSegment.next;
+                demoted.unlinkQueue();
+                protectedSize--;
+                demoted.queue = probation;
+                demoted.linkBefore(probation);
+                probationSize++;
+            }
+        }
+        node.linkBefore(node.queue);
+    }
+
+    /**
+     * Moves entries beyond the window's share into probation, and while the main area is over its share, evicts
+     * whichever of the newest candidate and the least recently used victim is requested less often.
+     */
+    private void evict() {
+        while (windowSize > windowMax) {
+            final Node candidate = window.next;
+            candidate.unlinkQueue();
+            windowSize--;
+            candidate.queue = probation;
+            candidate.linkBefore(probation);
+            probationSize++;
+
+            if (probationSize + protectedSize > mainMax) {
+                Node victim = probation.next;
+                if (victim == candidate && protectedSize > 0) {
+                    victim = protectedSegment.next;
+                }
+                final boolean admit = victim != candidate
+                        && sketch.frequency(candidate.orderId) > sketch.frequency(victim.orderId);
+                final Node evicted = admit ? victim : candidate;
+                nodes.remove(evicted.orderId, evicted);
+                unlink(evicted);
+                evictions.increment();
+            }
+        }
+    }
+
+    private void unlink(final Node node) {
+        node.unlinkQueue();
+        if (node.queue == window) {
+            windowSize--;
+        } else if (node.queue == probation) {
+            probationSize--;
+        } else {
+            protectedSize--;
+        }
+        memoryBytes -= node.weight;
+    }
+
+    private static int stripe(final UUID orderId) {
+        return orderId.hashCode() & (STAMP_STRIPES - 1);
+    }
+
+    /**
+     * Entry on one of the circular window, probation and protected lists, each anchored at a sentinel. Only touched
+     * while holding {@link #lock}, apart from the immutable fields.
+     */
+    private static class Node {
+        final UUID orderId;
+        final CachedResponse response;
+        final long weight;
+        // Sentinel of the list the entry is on.
+        Node queue;
+        Node previous = this;
+        Node next = this;
+
+        Node(final UUID orderId, final CachedResponse response) {
+            this.orderId = orderId;
+            this.response = response;
+            this.weight = response == null ? 0
+                    : OVERHEAD_BYTES_PER_ENTRY + response.getBody().length + response.getEntityTag().length();
+        }
+
+        static Node sentinel() {
+            return new Node(null, null);
+        }
+
+        boolean isLinked() {
+            return next != this;
+        }
+
+        void linkBefore(final Node sentinel) {
+            previous = sentinel.previous;
+            next = sentinel;
+            sentinel.previous.next = this;
+            sentinel.previous = this;
+        }
+
+        void unlinkQueue() {
+            previous.next = next;
+            next.previous = previous;
+            previous = this;
+            next = this;
+        }
+    }
+
+    /**
+     * Count-min sketch of four-bit counters, four per key, estimating how often each order has been requested
+     * recently. Counters are halved once the sketch has counted ten times as many requests as the cache holds, so old
+     * popularity fades. Only touched while holding {@link #lock}.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97cb3127c3a5c85cL, 0xbe98f273b492b66fL, 0x2f90404f9ae16a3bL, 0x84222325cbf29ce4L};
+        private static final long HALF_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(final int maxEntries) {
+            // Sixteen counters per long, so a table of one long per entry keeps collisions rare.
+            table = new long[Integer.highestOneBit(Math.max(maxEntries, 8) - 1) << 1];
+            sampleSize = 10 * maxEntries;
+        }
+
+        int frequency(final UUID orderId) {
+            final int hash = spread(orderId.hashCode());
+            final int start = (hash & 3) << 2;
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                final int offset = (start + i) << 2;
+                frequency = Math.min(frequency, (int) (table[indexOf(hash, i)] >>> offset) & 0xF);
+            }
+            return frequency;
+        }
+
+        void increment(final UUID orderId) {
+            final int hash = spread(orderId.hashCode());
+            final int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(hash, i);
+                final long mask = 0xFL << ((start + i) << 2);
+                if ((table[index] & mask) != mask) {
+                    table[index] += mask & -mask;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & HALF_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int indexOf(final int hash, final int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int spread(final int hash) {
+            final int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
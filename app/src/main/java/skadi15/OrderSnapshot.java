@@ -0,0 +1,165 @@
+package skadi15;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time copies of an order store in files named after the first {@link OrderJournal} segment they do not
+ * cover, so a store is rebuilt from the newest snapshot and the journal segments from that number on.
+ *
+ * <p>A snapshot is a header one record long, holding {@code "ORSN"}, the record version, the record size, the journal
+ * segment number and the order count, followed by that many {@link OrderRecords} records. Snapshots are written under
+ * a temporary name and forced before they are renamed, so a snapshot file is always complete.
+ */
+final class OrderSnapshot {
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4F52534E; // "ORSN"
+    private static final int HEADER_BYTES = OrderRecords.RECORD_BYTES;
+    private static final int WRITE_BUFFER_BUDGET_BYTES = 64 * 1024;
+    // Whole records only, so a full buffer never ends part way through one.
+    private static final int WRITE_BUFFER_BYTES =
+            WRITE_BUFFER_BUDGET_BYTES / OrderRecords.RECORD_BYTES * OrderRecords.RECORD_BYTES;
+    // Mappings are limited to 2 GiB, so larger snapshots are read a window at a time.
+    private static final int MAP_RECORDS = (1 << 30) / OrderRecords.RECORD_BYTES;
+
+    private OrderSnapshot() {
+    }
+
+    static Path path(final Path directory, final long journalSegment) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, journalSegment, SUFFIX));
+    }
+
+    static Path temporaryPath(final Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * @return the newest snapshot in the directory, or {@code null} if there is none.
+     */
+    static Path latest(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(OrderSnapshot::isSnapshot).max(Path::compareTo).orElse(null);
+        }
+    }
+
+    static long journalSegment(final Path snapshot) {
+        final String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Writes the orders to a file and forces it to disk.
+     *
+     * @return the number of orders written.
+     */
+    static long write(final Path file, final long journalSegment, final Iterable<OrderSummary> orders) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(HEADER_BYTES);
+            for (final OrderSummary order : orders) {
+                OrderRecords.write(buffer, buffer.position(), order);
+                buffer.position(buffer.position() + OrderRecords.RECORD_BYTES);
+                count++;
+                if (!buffer.hasRemaining()) {
+                    writeFully(channel, buffer.flip(), channel.position());
+                    buffer.clear();
+                }
+            }
+            writeFully(channel, buffer.flip(), channel.position());
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .putInt(MAGIC)
+                    .putInt(OrderRecords.VERSION)
+                    .putInt(OrderRecords.RECORD_BYTES)
+                    .putInt(0)
+                    .putLong(journalSegment)
+                    .putLong(count);
+            writeFully(channel, header.clear(), 0);
+            channel.force(true);
+        }
+        return count;
+    }
+
+    /**
+     * Reads every order of a snapshot through memory mappings.
+     *
+     * @return the number of orders read.
+     * @throws IOException if the file is not a complete snapshot.
+     */
+    static long read(final Path snapshot, final Consumer<OrderSummary> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw corrupt(snapshot);
+            }
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            final long count = header.getLong(24);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != OrderRecords.VERSION
+                    || header.getInt(8) != OrderRecords.RECORD_BYTES || header.getLong(16) != journalSegment(snapshot)
+                    || count < 0 || channel.size() != HEADER_BYTES + count * OrderRecords.RECORD_BYTES) {
+                throw corrupt(snapshot);
+            }
+
+            for (long first = 0; first < count; first += MAP_RECORDS) {
+                final int bytes = (int) Math.min(MAP_RECORDS, count - first) * OrderRecords.RECORD_BYTES;
+                final MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * OrderRecords.RECORD_BYTES, bytes);
+                for (int offset = 0; offset < bytes; offset += OrderRecords.RECORD_BYTES) {
+                    if (!OrderRecords.isValid(records, offset)) {
+                        throw corrupt(snapshot);
+                    }
+                    consumer.accept(OrderRecords.read(records, offset));
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Deletes the snapshots older than {@code journalSegment}, and temporary files left by snapshots that never
+     * completed.
+     */
+    static void deleteBefore(final Path directory, final long journalSegment) throws IOException {
+        final List<Path> deleted;
+        try (Stream<Path> files = Files.list(directory)) {
+            deleted = files
+                    .filter(file -> isSnapshot(file) && journalSegment(file) < journalSegment
+                            || file.getFileName().toString().startsWith(PREFIX)
+                            && file.getFileName().toString().endsWith(SUFFIX + TEMPORARY_SUFFIX))
+                    .toList();
+        }
+        for (final Path file : deleted) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static boolean isSnapshot(final Path file) {
+        final String name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        long next = position;
+        while (buffer.hasRemaining()) {
+            next += channel.write(buffer, next);
+        }
+        channel.position(next);
+    }
+
+    private static IOException corrupt(final Path snapshot) {
+        return new IOException(String.format("Not a complete version %d order snapshot [path=%s]",
+                OrderRecords.VERSION, snapshot));
+    }
+}
@@ -0,0 +1,46 @@
+package skadi15;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * All-time order totals and cost percentiles, maintained as orders are recorded so reading them does not depend on how
+ * many orders there are. Totals are {@link LongAdder}s and costs go into a {@link QuantileSketch}, so recording from
+ * many threads costs a few uncontended increments. Orders later evicted from the store stay counted.
+ */
+public class OrderStatistics {
+    static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder revenueCents = new LongAdder();
+    private final LongAdder apples = new LongAdder();
+    private final LongAdder oranges = new LongAdder();
+    private final QuantileSketch costs = new QuantileSketch();
+
+    public void record(final OrderSummary order) {
+        count.increment();
+        revenueCents.add(order.getTotalCostCents());
+        apples.add(order.getNumApples());
+        oranges.add(order.getNumOranges());
+        costs.record(order.getTotalCostCents());
+    }
+
+    public void recordAll(final Iterable<OrderSummary> orders) {
+        orders.forEach(this::record);
+    }
+
+    /**
+     * Totals are read one at a time, so a snapshot taken while orders are recorded may count an order in some totals
+     * and not yet in others.
+     */
+    public OrderStats snapshot() {
+        final long[] values = costs.quantiles(PERCENTILES);
+        final Map<String, Long> percentiles = new LinkedHashMap<>();
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            percentiles.put(PERCENTILE_NAMES[i], values[i]);
+        }
+        return new OrderStats(count.sum(), revenueCents.sum(), apples.sum(), oranges.sum(), percentiles);
+    }
+}
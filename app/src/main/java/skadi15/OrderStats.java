@@ -0,0 +1,22 @@
+package skadi15;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import lombok.Value;
+
+@Value
+public class OrderStats {
+    private final long count;
+    @JsonProperty("revenue")
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long revenueCents;
+    private final long numApples;
+    private final long numOranges;
+    /** Estimated order cost at the 50th, 90th, 99th and 99.9th percentiles, within 1%. */
+    @JsonProperty("costPercentiles")
+    @JsonSerialize(contentUsing = Money.Serializer.class)
+    private final Map<String, Long> costPercentilesCents;
+}
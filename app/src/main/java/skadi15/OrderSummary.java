@@ -2,6 +2,10 @@ package skadi15;
 
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import lombok.Builder;
 import lombok.Value;
 import lombok.extern.jackson.Jacksonized;
@@ -13,7 +17,11 @@ public class OrderSummary {
     private final UUID orderId;
     private final int numApples;
     private final int numOranges;
-    private final float totalCost;
+    /** Written to JSON in whole units, see {@link Money}. */
+    @JsonProperty("totalCost")
+    @JsonSerialize(using = Money.Serializer.class)
+    @JsonDeserialize(using = Money.Deserializer.class)
+    private final long totalCostCents;
 
     public boolean isEquivalentTo(final OrderSummary other) {
         if (other == null) {
@@ -22,6 +30,6 @@ public class OrderSummary {
 
         return numApples == other.numApples
                 && numOranges == other.numOranges
-                && totalCost == other.totalCost;
+                && totalCostCents == other.totalCostCents;
     }
 }
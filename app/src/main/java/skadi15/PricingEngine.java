@@ -0,0 +1,128 @@
+package skadi15;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+
+/**
+ * Holds the current {@link CompiledPricing} and replaces it when the pricing config changes. Callers read
+ * {@link #current()} once per order, so every order is priced entirely by either the old or the new rules.
+ *
+ * <p>The built-in rules are loaded from the {@value #DEFAULT_RULES} class path resource. Rules read from a file are
+ * reloaded whenever its modification time changes; a config that fails to load or compile is reported to the error
+ * listener and the previous rules stay in effect.
+ */
+public class PricingEngine implements Closeable {
+    static final String DEFAULT_RULES = "/pricing.json";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Path config;
+    private final Consumer<Exception> reloadErrors;
+    private final ScheduledExecutorService reloadExecutor;
+    private volatile CompiledPricing current;
+    private FileTime loadedModifiedTime;
+
+    /**
+     * Prices orders with fixed rules.
+     */
+    public PricingEngine(final CompiledPricing pricing) {
+        this.config = null;
+        this.reloadErrors = error -> {};
+        this.reloadExecutor = null;
+        this.current = Preconditions.checkNotNull(pricing);
+    }
+
+    /**
+     * Prices orders with the rules in a file.
+     *
+     * @param reloadIntervalMillis how often the file is checked for changes, or 0 to only reload on {@link #reload()}.
+     * @throws IllegalArgumentException if the rules are invalid.
+     */
+    public PricingEngine(final Path config, final long reloadIntervalMillis, final Consumer<Exception> reloadErrors)
+            throws IOException {
+        Preconditions.checkArgument(reloadIntervalMillis >= 0,
+                String.format("Pricing reload interval must not be negative [reloadIntervalMillis=%d]", reloadIntervalMillis));
+
+        this.config = config;
+        this.reloadErrors = reloadErrors;
+        reload();
+
+        if (reloadIntervalMillis > 0) {
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "pricing-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloadExecutor.scheduleWithFixedDelay(this::reloadQuietly, reloadIntervalMillis, reloadIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            reloadExecutor = null;
+        }
+    }
+
+    /**
+     * @return an engine with the built-in rules.
+     */
+    public static PricingEngine defaults() {
+        try (InputStream input = PricingEngine.class.getResourceAsStream(DEFAULT_RULES)) {
+            Preconditions.checkState(input != null, "Missing pricing rules resource " + DEFAULT_RULES);
+            return new PricingEngine(CompiledPricing.compile(OBJECT_MAPPER.readValue(input, PricingRules.class)));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public CompiledPricing current() {
+        return current;
+    }
+
+    /**
+     * Loads the config file if it changed since it was last loaded.
+     *
+     * @return whether new rules were loaded.
+     * @throws IllegalArgumentException if the rules are invalid, in which case the previous rules are kept.
+     */
+    public synchronized boolean reload() throws IOException {
+        Preconditions.checkState(config != null, "Pricing rules were not loaded from a file");
+
+        final FileTime modifiedTime = Files.getLastModifiedTime(config);
+        if (modifiedTime.equals(loadedModifiedTime)) {
+            return false;
+        }
+        // A broken config is reported once, not on every check, and retried when the file changes again.
+        loadedModifiedTime = modifiedTime;
+        final PricingRules rules;
+        try (InputStream input = Files.newInputStream(config)) {
+            rules = OBJECT_MAPPER.readValue(input, PricingRules.class);
+        }
+        current = CompiledPricing.compile(rules);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (final IOException | RuntimeException e) {
+            reloadErrors.accept(e);
+        }
+    }
+}
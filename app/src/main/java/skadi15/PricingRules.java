@@ -0,0 +1,46 @@
+package skadi15;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * Products, unit prices and promotions as loaded from pricing config, e.g.
+ *
+ * <pre>
+ * {"products": [
+ *     {"name": "apples", "unitPrice": 0.25, "buy": 2, "pay": 1},
+ *     {"name": "oranges", "unitPrice": 0.6, "buy": 3, "pay": 2}
+ * ]}
+ * </pre>
+ */
+@Value
+@Builder
+@Jacksonized
+public class PricingRules {
+    private final List<Product> products;
+
+    /**
+     * A product priced per unit, with an optional "buy {@code buy}, pay for {@code pay}" promotion. The defaults of
+     * 1 and 1 mean no promotion.
+     */
+    @Value
+    @Builder
+    @Jacksonized
+    public static class Product {
+        private final String name;
+        /** Written in config in whole units, see {@link Money}. */
+        @JsonProperty("unitPrice")
+        @JsonDeserialize(using = Money.Deserializer.class)
+        private final long unitPriceCents;
+        @Builder.Default
+        private final int buy = 1;
+        @Builder.Default
+        private final int pay = 1;
+    }
+}
@@ -0,0 +1,75 @@
+package skadi15;
+
+import java.util.Map;
+
+/**
+ * Builds a scrape response in the Prometheus text exposition format, one metric family at a time.
+ */
+final class PrometheusText {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder text = new StringBuilder(1024);
+
+    PrometheusText counter(final String name, final String help, final double value) {
+        return family(name, help, "counter").sample(name, value);
+    }
+
+    PrometheusText gauge(final String name, final String help, final double value) {
+        return family(name, help, "gauge").sample(name, value);
+    }
+
+    /**
+     * A gauge with one sample per entry, labelled {@code label="key"}.
+     */
+    PrometheusText gauge(final String name, final String help, final String label, final Map<String, ? extends Number> values) {
+        family(name, help, "gauge");
+        values.forEach((key, value) -> sample(name, value.doubleValue(), label, key));
+        return this;
+    }
+
+    /**
+     * A summary with one sample per quantile, keyed by quantile such as {@code "0.99"}, plus its count and sum.
+     */
+    PrometheusText summary(final String name, final String help, final Map<String, ? extends Number> quantiles,
+            final long count, final double sum) {
+        family(name, help, "summary");
+        quantiles.forEach((quantile, value) -> sample(name, value.doubleValue(), "quantile", quantile));
+        sample(name + "_sum", sum);
+        return sample(name + "_count", count);
+    }
+
+    /**
+     * Starts a metric family whose samples are then added with {@link #sample}.
+     */
+    PrometheusText family(final String name, final String help, final String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * @param labels label names each followed by its value.
+     */
+    PrometheusText sample(final String name, final double value, final String... labels) {
+        text.append(name);
+        for (int i = 0; i < labels.length; i += 2) {
+            text.append(i == 0 ? '{' : ',').append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+        }
+        if (labels.length > 0) {
+            text.append('}');
+        }
+        text.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            text.append((long) value);
+        } else {
+            text.append(value);
+        }
+        text.append('\n');
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package skadi15;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Mergeable sketch of non-negative long values that answers quantile queries to within 1% relative error, in fixed
+ * memory however many values are recorded.
+ *
+ * <p>Values are counted in log-linear buckets, as in HdrHistogram: values below 128 get a bucket each, and every
+ * power of two above that is split into 64 equal buckets, so a bucket is never wider than 1/64 of its smallest value
+ * and its midpoint is within 0.8% of any value in it. Recording is one atomic increment into a per-thread stripe of
+ * counts, so concurrent writers rarely touch the same cache line. Reads and merges add up every stripe and bucket,
+ * which costs the same however many values were recorded.
+ */
+public class QuantileSketch {
+    private static final int EXACT_BUCKETS = 128;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Exact buckets, then 64 buckets for each power of two from 2^7 to 2^62.
+    static final int BUCKETS = EXACT_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    public QuantileSketch() {
+        final int stripeCount = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+        stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * @param value negative values are counted as 0.
+     */
+    public void record(final long value) {
+        stripes[(int) Thread.currentThread().threadId() & stripeMask].getAndIncrement(bucketOf(Math.max(0, value)));
+    }
+
+    /**
+     * Adds every value recorded by {@code other} to this sketch.
+     */
+    public void merge(final QuantileSketch other) {
+        final long[] counts = other.counts();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (counts[bucket] != 0) {
+                stripes[0].getAndAdd(bucket, counts[bucket]);
+            }
+        }
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile.
+     * @return the estimated value at the quantile, or 0 if nothing was recorded.
+     */
+    public long quantile(final double quantile) {
+        return quantiles(quantile)[0];
+    }
+
+    /**
+     * Estimates several quantiles from one read of the counts, so they are consistent with each other.
+     *
+     * @param quantiles in ascending order, each between 0 and 1.
+     */
+    public long[] quantiles(final double... quantiles) {
+        final long[] counts = counts();
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+
+        final long[] values = new long[quantiles.length];
+        if (total == 0) {
+            return values;
+        }
+        int bucket = 0;
+        long seen = counts[0];
+        for (int i = 0; i < quantiles.length; i++) {
+            Preconditions.checkArgument(quantiles[i] >= 0 && quantiles[i] <= 1,
+                    String.format("Quantile must be between 0 and 1 [value=%s]", quantiles[i]));
+            final long rank = Math.max(1, (long) Math.ceil(quantiles[i] * total));
+            while (seen < rank) {
+                seen += counts[++bucket];
+            }
+            values[i] = midpointOf(bucket);
+        }
+        return values;
+    }
+
+    public long count() {
+        long total = 0;
+        for (final long count : counts()) {
+            total += count;
+        }
+        return total;
+    }
+
+    static int bucketOf(final long value) {
+        if (value < EXACT_BUCKETS) {
+            return (int) value;
+        }
+        // Keep the top 7 significant bits, whose leading bit is always set.
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return EXACT_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long midpointOf(final int bucket) {
+        if (bucket < EXACT_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 1;
+        final long significand = SUB_BUCKETS + (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        return (significand << shift) + ((1L << shift) - 1) / 2;
+    }
+
+    private long[] counts() {
+        final long[] counts = new long[BUCKETS];
+        for (final AtomicLongArray stripe : stripes) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] += stripe.get(bucket);
+            }
+        }
+        return counts;
+    }
+}
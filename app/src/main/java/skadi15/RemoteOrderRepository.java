@@ -0,0 +1,262 @@
+package skadi15;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * The shard of another node of a sharded store, reached through that node's {@value AppServlet#SHARD_PATH} endpoint.
+ * Orders travel as {@link WireFormat#RECORD} records both ways, apart from pages, which are JSON because they carry a
+ * cursor.
+ *
+ * <p>Failures to reach the node, and answers other than success or 404 Not Found for a single order, are thrown as
+ * {@link UncheckedIOException}. A listing reads the node's response as it is iterated; an iteration abandoned part way
+ * leaves the response open until the node times the connection out. Every request carries the {@link NodeSecret}.
+ */
+public class RemoteOrderRepository implements OrderRepository {
+    private final HttpClient client;
+    private final URI shardUri;
+    private final Duration timeout;
+    private final NodeSecret secret;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectReader orderReader = objectMapper.readerFor(OrderSummary.class);
+
+    /**
+     * @param shardUri the node's {@value AppServlet#SHARD_PATH} endpoint.
+     * @param timeout  how long to wait for the node to start answering.
+     * @param secret   sent with every request, so the node serves it.
+     */
+    RemoteOrderRepository(final HttpClient client, final URI shardUri, final Duration timeout,
+            final NodeSecret secret) {
+        this.client = client;
+        this.shardUri = shardUri;
+        this.timeout = timeout;
+        this.secret = secret;
+    }
+
+    @Override
+    public void recordOrder(final OrderSummary order) {
+        recordOrders(List.of(order));
+    }
+
+    @Override
+    public void recordOrders(final Collection<OrderSummary> orders) {
+        checkSuccess(send(request("")
+                .header("Content-Type", WireFormat.RECORD.getContentType())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(OrderRecords.toBytes(orders)))
+                .build(), HttpResponse.BodyHandlers.discarding()));
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        return readOrder(send(request(parameter(AppServlet.ORDER_ID_PARAMETER, orderId)).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray()));
+    }
+
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        return readOrder(send(request(parameter(AppServlet.ORDER_ID_PARAMETER, orderId)).DELETE().build(),
+                HttpResponse.BodyHandlers.ofByteArray()));
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<OrderSummary> iterator() {
+                final HttpResponse<InputStream> response = send(request("").GET().build(),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() / 100 != 2) {
+                    close(response.body());
+                    checkSuccess(response);
+                }
+                return new RecordIterator(response.body());
+            }
+
+            @Override
+            public int size() {
+                return RemoteOrderRepository.this.size();
+            }
+        };
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        final StringBuilder parameters = new StringBuilder(parameter(AppServlet.LIMIT_PARAMETER, query.getLimit()));
+        if (query.getCursor() != null) {
+            parameters.append('&').append(parameter(AppServlet.CURSOR_PARAMETER, query.getCursor()));
+        }
+        if (query.getNumApples() != null) {
+            parameters.append('&').append(parameter(AppServlet.APPLES_PARAMETER, query.getNumApples()));
+        }
+        if (query.getNumOranges() != null) {
+            parameters.append('&').append(parameter(AppServlet.ORANGES_PARAMETER, query.getNumOranges()));
+        }
+        if (query.getMinTotalCostCents() != null) {
+            parameters.append('&').append(parameter(AppServlet.MIN_COST_PARAMETER, Money.toString(query.getMinTotalCostCents())));
+        }
+        if (query.getMaxTotalCostCents() != null) {
+            parameters.append('&').append(parameter(AppServlet.MAX_COST_PARAMETER, Money.toString(query.getMaxTotalCostCents())));
+        }
+
+        final HttpResponse<byte[]> response = send(request(parameters.toString()).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        checkSuccess(response);
+        try {
+            final JsonNode page = objectMapper.readTree(response.body());
+            final List<OrderSummary> orders = new ArrayList<>(page.path("orders").size());
+            for (final JsonNode order : page.path("orders")) {
+                orders.add(orderReader.readValue(order));
+            }
+            return new OrderPage(orders, page.hasNonNull("nextCursor") ? page.get("nextCursor").asText() : null);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        final HttpResponse<String> response = send(request(AppServlet.COUNT_PARAMETER).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        checkSuccess(response);
+        return Integer.parseInt(response.body().trim());
+    }
+
+    /**
+     * @return nothing, since the orders are held by another node.
+     */
+    @Override
+    public long estimatedBytesPerOrder() {
+        return 0;
+    }
+
+    private HttpRequest.Builder request(final String query) {
+        return secret.sign(HttpRequest.newBuilder(query.isEmpty() ? shardUri : URI.create(shardUri + "?" + query))
+                .timeout(timeout));
+    }
+
+    private static String parameter(final String name, final Object value) {
+        return name + "=" + URLEncoder.encode(value.toString(), StandardCharsets.UTF_8);
+    }
+
+    private <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> handler) {
+        try {
+            return client.send(request, handler);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for shard " + shardUri));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkSuccess(final HttpResponse<?> response) {
+        if (response.statusCode() / 100 != 2) {
+            throw new UncheckedIOException(new IOException(String.format("Shard request failed [uri=%s, status=%d]",
+                    response.request().uri(), response.statusCode())));
+        }
+    }
+
+    /**
+     * @return the order in a single-record response, or {@code null} for 404 Not Found.
+     */
+    private OrderSummary readOrder(final HttpResponse<byte[]> response) {
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        checkSuccess(response);
+        return checkRecord(ByteBuffer.wrap(response.body()), response.body().length);
+    }
+
+    private OrderSummary checkRecord(final ByteBuffer record, final int length) {
+        if (length != OrderRecords.RECORD_BYTES || !OrderRecords.isValid(record, 0)) {
+            throw new UncheckedIOException(new IOException("Shard sent a corrupt order record [uri=" + shardUri + "]"));
+        }
+        return OrderRecords.read(record, 0);
+    }
+
+    private static void close(final InputStream input) {
+        try {
+            input.close();
+        } catch (final IOException e) {
+            // Nothing more to read from it either way.
+        }
+    }
+
+    /**
+     * Reads records off a listing response, closing it once the last one is read.
+     */
+    private class RecordIterator implements Iterator<OrderSummary> {
+        private final InputStream input;
+        private final byte[] bytes = new byte[OrderRecords.RECORD_BYTES];
+        private final ByteBuffer record = ByteBuffer.wrap(bytes);
+        private OrderSummary next;
+        private boolean done;
+
+        RecordIterator(final InputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public OrderSummary next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final OrderSummary order = next;
+            next = null;
+            return order;
+        }
+
+        private OrderSummary readNext() {
+            final int read;
+            try {
+                read = input.readNBytes(bytes, 0, bytes.length);
+            } catch (final IOException e) {
+                done = true;
+                close(input);
+                throw new UncheckedIOException(e);
+            }
+            if (read == 0) {
+                done = true;
+                close(input);
+                return null;
+            }
+            try {
+                return checkRecord(record, read);
+            } catch (final UncheckedIOException e) {
+                // Cut off part way through a record, or corrupt; nothing after it can be trusted either.
+                done = true;
+                close(input);
+                throw e;
+            }
+        }
+    }
+}
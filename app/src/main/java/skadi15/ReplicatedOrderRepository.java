@@ -0,0 +1,108 @@
+package skadi15;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link OrderRepository} that stores every order in a delegate and then has an {@link OrderReplicator} ship it to a
+ * standby. With {@link AckMode#SYNC} an order is only recorded once the standby has stored it too, so an order whose
+ * POST was answered survives losing this node. Removals only affect the delegate, as with {@link OrderJournal}, so the
+ * standby applies its own retention policy.
+ */
+public class ReplicatedOrderRepository implements OrderRepository, Closeable {
+    public enum AckMode {
+        /** Recording returns as soon as the order is stored here. */
+        ASYNC,
+        /** Recording waits for the standby to acknowledge the order. */
+        SYNC
+    }
+
+    private final OrderRepository delegate;
+    private final OrderReplicator replicator;
+    private final AckMode ackMode;
+    private final Duration syncTimeout;
+
+    /**
+     * @param syncTimeout how long recording waits for the standby in {@link AckMode#SYNC}, after which it fails with
+     *                    the order stored here and still queued for the standby.
+     */
+    public ReplicatedOrderRepository(final OrderRepository delegate, final OrderReplicator replicator,
+            final AckMode ackMode, final Duration syncTimeout) {
+        this.delegate = delegate;
+        this.replicator = replicator;
+        this.ackMode = ackMode;
+        this.syncTimeout = syncTimeout;
+    }
+
+    @Override
+    public void recordOrder(final OrderSummary order) {
+        delegate.recordOrder(order);
+        commit(replicator.append(List.of(order)));
+    }
+
+    @Override
+    public OrderSummary putOrder(final OrderSummary order) {
+        final OrderSummary previous = delegate.putOrder(order);
+        commit(replicator.append(List.of(order)));
+        return previous;
+    }
+
+    @Override
+    public void recordOrders(final Collection<OrderSummary> orders) {
+        delegate.recordOrders(orders);
+        commit(replicator.append(orders));
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        return delegate.getOrder(orderId);
+    }
+
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        return delegate.removeOrder(orderId);
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return delegate.getOrders();
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        return delegate.findOrders(query);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long estimatedBytesPerOrder() {
+        return delegate.estimatedBytesPerOrder();
+    }
+
+    @Override
+    public boolean removalsMoveOrders() {
+        return delegate.removalsMoveOrders();
+    }
+
+    public ReplicationMetrics getMetrics() {
+        return replicator.getMetrics();
+    }
+
+    @Override
+    public void close() {
+        replicator.close();
+    }
+
+    private void commit(final long sequence) {
+        if (ackMode == AckMode.SYNC) {
+            replicator.awaitAcknowledged(sequence, syncTimeout);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package skadi15;
+
+import lombok.Value;
+
+@Value
+public class ReplicationMetrics {
+    /** Orders recorded that the standby has not acknowledged yet. */
+    private final long lag;
+    private final boolean connected;
+    private final long batches;
+    private final long resyncs;
+    private final long failures;
+}
@@ -0,0 +1,151 @@
+package skadi15;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Latency of each phase of an order POST, recorded into a {@link QuantileSketch} per phase and emitted as an
+ * {@link OrderRequestEvent} for JFR.
+ *
+ * <p>Timing a request reads the clock once per phase, which costs a few hundred nanoseconds on virtualised clocks
+ * against a request of a few microseconds. So outside of JFR recordings only one request in every sample interval is
+ * timed, which keeps the overhead under 1% while the percentiles stay representative. While a recording has the event
+ * enabled, every request is timed and gets its own event. Requests that are not timed get a timer that does nothing,
+ * leaving a null check per phase.
+ */
+public class RequestTimings {
+    public enum Phase {
+        /** Reading and checking the request parameters. */
+        PARSE,
+        /** Pricing the order and generating its ID. */
+        PRICE,
+        /** Storing the order and updating statistics. */
+        STORE,
+        /** Serializing the order and writing the response. */
+        SERIALIZE
+    }
+
+    private static final Timer DISABLED = new Timer(null, null);
+
+    // Null when disabled.
+    private final QuantileSketch[] latencies;
+    private final int sampleMask;
+
+    /**
+     * @param sampleInterval time one in this many requests, rounded up to a power of two.
+     */
+    public RequestTimings(final boolean enabled, final int sampleInterval) {
+        Preconditions.checkArgument(sampleInterval >= 1 && sampleInterval <= 1 << 30,
+                String.format("Sample interval must be between 1 and 2^30 [value=%d]", sampleInterval));
+
+        sampleMask = (int) (1L << Integer.SIZE - Integer.numberOfLeadingZeros(sampleInterval - 1)) - 1;
+        if (enabled) {
+            latencies = new QuantileSketch[Phase.values().length];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new QuantileSketch();
+            }
+        } else {
+            latencies = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return latencies != null;
+    }
+
+    /**
+     * Starts timing a request, with its first phase beginning now, if it is sampled or JFR is recording its event.
+     */
+    public Timer start() {
+        if (latencies == null) {
+            return DISABLED;
+        }
+        final OrderRequestEvent event = new OrderRequestEvent();
+        if (event.isEnabled() || (ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+            return new Timer(latencies, event);
+        }
+        return DISABLED;
+    }
+
+    /**
+     * A timer that records nothing, for orders placed outside a request.
+     */
+    public static Timer disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Estimated latency in nanoseconds of every phase at the given quantiles, or an empty map when disabled.
+     *
+     * @param quantiles in ascending order, each between 0 and 1.
+     */
+    public Map<Phase, long[]> quantiles(final double... quantiles) {
+        final Map<Phase, long[]> values = new EnumMap<>(Phase.class);
+        if (latencies != null) {
+            for (final Phase phase : Phase.values()) {
+                values.put(phase, latencies[phase.ordinal()].quantiles(quantiles));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * How many requests had the phase timed, which is about one in every sample interval.
+     */
+    public long count(final Phase phase) {
+        return latencies != null ? latencies[phase.ordinal()].count() : 0;
+    }
+
+    /**
+     * Times the phases of one request. Not thread-safe, but may be handed between threads along with the request.
+     */
+    public static final class Timer {
+        private final QuantileSketch[] latencies;
+        private final OrderRequestEvent event;
+        private long lastNanos;
+
+        private Timer(final QuantileSketch[] latencies, final OrderRequestEvent event) {
+            this.latencies = latencies;
+            this.event = event;
+            if (event != null) {
+                event.begin();
+                lastNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Ends the phase, which began when the previous phase ended or the timer was started or resumed.
+         */
+        public void lap(final Phase phase) {
+            if (latencies == null) {
+                return;
+            }
+            final long now = System.nanoTime();
+            final long elapsed = now - lastNanos;
+            lastNanos = now;
+            latencies[phase.ordinal()].record(elapsed);
+            event.set(phase, elapsed);
+        }
+
+        /**
+         * Starts the next phase now, leaving out time spent since the last lap, such as waiting for an executor.
+         */
+        public void resume() {
+            if (latencies != null) {
+                lastNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Emits the request's JFR event if a recording has it enabled.
+         */
+        public void finish() {
+            if (event != null) {
+                event.commit();
+            }
+        }
+    }
+}
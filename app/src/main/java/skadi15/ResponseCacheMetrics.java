@@ -0,0 +1,18 @@
+package skadi15;
+
+import lombok.Value;
+
+@Value
+public class ResponseCacheMetrics {
+    private final int size;
+    /** Estimated heap used by cached responses and their bookkeeping. */
+    private final long memoryBytes;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    public double getHitRate() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
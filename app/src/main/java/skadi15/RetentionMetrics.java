@@ -0,0 +1,16 @@
+package skadi15;
+
+import lombok.Value;
+
+@Value
+public class RetentionMetrics {
+    private final int size;
+    private final long evictions;
+    private final long hits;
+    private final long misses;
+
+    public double getHitRate() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,24 @@
+package skadi15;
+
+import java.time.Duration;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Limits on how many orders a {@link BoundedOrderRepository} keeps. A limit of 0 (or a {@code null} age) is unlimited.
+ */
+@Value
+@Builder
+public class RetentionPolicy {
+    /** Most orders kept; the least recently used are evicted beyond it. */
+    private final long maxCount;
+    /** Orders are evicted this long after they were recorded. */
+    private final Duration maxAge;
+    /** Memory budget, turned into an order count with {@link OrderRepository#estimatedBytesPerOrder()}. */
+    private final long maxMemoryBytes;
+
+    public boolean isUnlimited() {
+        return maxCount <= 0 && maxAge == null && maxMemoryBytes <= 0;
+    }
+}
@@ -0,0 +1,62 @@
+package skadi15;
+
+import java.util.function.Function;
+
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletConfig;
+
+/**
+ * Typed access to string settings. Servlets and filters read their own init parameters first and then fall back to the
+ * webapp's context parameters, so a setting can be given once for the whole webapp.
+ */
+final class Settings {
+    private final Function<String, String> lookup;
+
+    Settings(final Function<String, String> lookup) {
+        this.lookup = lookup;
+    }
+
+    static Settings of(final ServletConfig config) {
+        return new Settings(name -> {
+            final String value = config.getInitParameter(name);
+            return value != null ? value : config.getServletContext().getInitParameter(name);
+        });
+    }
+
+    static Settings of(final FilterConfig config) {
+        return new Settings(name -> {
+            final String value = config.getInitParameter(name);
+            return value != null ? value : config.getServletContext().getInitParameter(name);
+        });
+    }
+
+    String getString(final String name) {
+        return lookup.apply(name);
+    }
+
+    String getString(final String name, final String defaultValue) {
+        final String value = lookup.apply(name);
+        return value != null ? value : defaultValue;
+    }
+
+    int getInt(final String name, final int defaultValue) {
+        return Math.toIntExact(getLong(name, defaultValue));
+    }
+
+    long getLong(final String name, final long defaultValue) {
+        final String value = lookup.apply(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Setting %s does not contain a valid integer [value=%s]", name, value));
+        }
+    }
+
+    boolean getBoolean(final String name, final boolean defaultValue) {
+        final String value = lookup.apply(name);
+        return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+}
@@ -0,0 +1,88 @@
+package skadi15;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+/**
+ * Consistent hashing of order IDs onto the nodes of a sharded store. Each node owns many points on a ring of 64-bit
+ * hashes, and an order belongs to the node owning the first point at or after the hash of its ID. Adding or removing a
+ * node only moves the orders between that node's points and their predecessors, about one node's share of the orders,
+ * and the many points per node keep the shares even.
+ *
+ * <p>Points are derived from the node names alone, so every node given the same names builds the same ring.
+ */
+final class ShardRing {
+    static final int DEFAULT_POINTS_PER_NODE = 160;
+
+    private final List<String> nodes;
+    // Sorted point hashes, and the index of the node owning each.
+    private final long[] points;
+    private final int[] owners;
+
+    ShardRing(final List<String> nodes) {
+        this(nodes, DEFAULT_POINTS_PER_NODE);
+    }
+
+    ShardRing(final List<String> nodes, final int pointsPerNode) {
+        Preconditions.checkArgument(!nodes.isEmpty(), "Shard ring must have at least one node");
+        Preconditions.checkArgument(new HashSet<>(nodes).size() == nodes.size(),
+                String.format("Shard ring nodes must be distinct [nodes=%s]", nodes));
+        Preconditions.checkArgument(pointsPerNode > 0,
+                String.format("Points per node must be positive [value=%d]", pointsPerNode));
+
+        this.nodes = List.copyOf(nodes);
+        final long[][] entries = new long[nodes.size() * pointsPerNode][];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int i = 0; i < pointsPerNode; i++) {
+                final long point = Hashing.murmur3_128()
+                        .hashString(nodes.get(node) + "#" + i, StandardCharsets.UTF_8)
+                        .asLong();
+                entries[node * pointsPerNode + i] = new long[] {point, node};
+            }
+        }
+        // Ties between nodes are vanishingly rare, but break them by node index so every ring agrees.
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[entries.length];
+        owners = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the index in {@link #getNodes()} of the node owning the order.
+     */
+    int owner(final UUID orderId) {
+        final int index = Arrays.binarySearch(points, hash(orderId));
+        final int point = index >= 0 ? index : -index - 1;
+        return owners[point == points.length ? 0 : point];
+    }
+
+    /**
+     * Mixes both halves of the ID with MurmurHash3's 64-bit finalizer, so time-ordered IDs, which share their high
+     * bits, still spread over the whole ring.
+     */
+    static long hash(final UUID orderId) {
+        return mix(mix(orderId.getMostSignificantBits()) ^ orderId.getLeastSignificantBits());
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,182 @@
+package skadi15;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+
+/**
+ * {@link OrderRepository} spread over the nodes of a {@link ShardRing}, with one shard per node: the local store for
+ * this node and a {@link RemoteOrderRepository} for each other node. Single orders are routed to the shard owning
+ * their ID, and batches are split by owner and sent to the owners in parallel.
+ *
+ * <p>Listings fan out to every shard at once and then read the shards' streams one after another, so the shards' first
+ * bytes are already on their way while earlier shards are read, and no shard's orders are held in memory. Pages walk
+ * the shards in ring order, each page carrying the shard it stopped in and that shard's own cursor.
+ */
+public class ShardedOrderRepository implements OrderRepository {
+    // Separates the shard index from the shard's own cursor, which is URL-safe Base64 or a remote shard's cursor.
+    private static final char CURSOR_SEPARATOR = '.';
+
+    private final ShardRing ring;
+    private final List<OrderRepository> shards;
+    private final Executor executor;
+
+    /**
+     * @param shards   one per node of the ring, in the same order.
+     * @param executor runs the requests of a fan-out, which may block on the network.
+     */
+    public ShardedOrderRepository(final ShardRing ring, final List<OrderRepository> shards, final Executor executor) {
+        Preconditions.checkArgument(ring.getNodes().size() == shards.size(),
+                String.format("Need one shard per ring node [nodes=%d, shards=%d]", ring.getNodes().size(), shards.size()));
+
+        this.ring = ring;
+        this.shards = List.copyOf(shards);
+        this.executor = executor;
+    }
+
+    @Override
+    public void recordOrder(final OrderSummary order) {
+        shardOf(order.getOrderId()).recordOrder(order);
+    }
+
+    @Override
+    public OrderSummary putOrder(final OrderSummary order) {
+        return shardOf(order.getOrderId()).putOrder(order);
+    }
+
+    @Override
+    public void recordOrders(final Collection<OrderSummary> orders) {
+        final Map<Integer, List<OrderSummary>> byOwner = new LinkedHashMap<>();
+        for (final OrderSummary order : orders) {
+            byOwner.computeIfAbsent(ring.owner(order.getOrderId()), owner -> new ArrayList<>()).add(order);
+        }
+        if (byOwner.size() == 1) {
+            byOwner.forEach((owner, batch) -> shards.get(owner).recordOrders(batch));
+            return;
+        }
+        final List<CompletableFuture<Void>> writes = new ArrayList<>(byOwner.size());
+        byOwner.forEach((owner, batch) ->
+                writes.add(CompletableFuture.runAsync(() -> shards.get(owner).recordOrders(batch), executor)));
+        join(CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)));
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        return shardOf(orderId).getOrder(orderId);
+    }
+
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        return shardOf(orderId).removeOrder(orderId);
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<OrderSummary> iterator() {
+                final List<CompletableFuture<Iterator<OrderSummary>>> started = fanOut(shard -> shard.getOrders().iterator());
+                return Iterators.concat(Iterators.transform(started.iterator(), ShardedOrderRepository::join));
+            }
+
+            @Override
+            public int size() {
+                return ShardedOrderRepository.this.size();
+            }
+        };
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        int shard = 0;
+        String shardCursor = null;
+        if (query.getCursor() != null) {
+            final int separator = query.getCursor().indexOf(CURSOR_SEPARATOR);
+            try {
+                shard = separator > 0 ? Integer.parseInt(query.getCursor(), 0, separator, 10) : -1;
+            } catch (final NumberFormatException e) {
+                shard = -1;
+            }
+            Preconditions.checkArgument(shard >= 0 && shard < shards.size(),
+                    String.format("Cursor is not valid [value=%s]", query.getCursor()));
+            shardCursor = separator + 1 < query.getCursor().length() ? query.getCursor().substring(separator + 1) : null;
+        }
+
+        final List<OrderSummary> orders = new ArrayList<>(query.getLimit());
+        for (; shard < shards.size(); shard++, shardCursor = null) {
+            final OrderPage page = shards.get(shard).findOrders(query.toBuilder()
+                    .cursor(shardCursor)
+                    .limit(query.getLimit() - orders.size())
+                    .build());
+            orders.addAll(page.getOrders());
+            if (page.getNextCursor() != null) {
+                return new OrderPage(orders, shard + "" + CURSOR_SEPARATOR + page.getNextCursor());
+            }
+            if (orders.size() == query.getLimit() && shard + 1 < shards.size()) {
+                // The next page starts at the beginning of the next shard.
+                return new OrderPage(orders, (shard + 1) + "" + CURSOR_SEPARATOR);
+            }
+        }
+        return new OrderPage(orders, null);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final CompletableFuture<Integer> shardSize : fanOut(OrderRepository::size)) {
+            size += join(shardSize);
+        }
+        return size;
+    }
+
+    /**
+     * @return the cost per order of the costliest shard, which is this node's, since remote shards take no memory here.
+     */
+    @Override
+    public long estimatedBytesPerOrder() {
+        return shards.stream().mapToLong(OrderRepository::estimatedBytesPerOrder).max().orElse(0);
+    }
+
+    @Override
+    public boolean removalsMoveOrders() {
+        return shards.stream().anyMatch(OrderRepository::removalsMoveOrders);
+    }
+
+    private OrderRepository shardOf(final UUID orderId) {
+        return shards.get(ring.owner(orderId));
+    }
+
+    private <T> List<CompletableFuture<T>> fanOut(final Function<OrderRepository, T> request) {
+        final List<CompletableFuture<T>> results = new ArrayList<>(shards.size());
+        for (final OrderRepository shard : shards) {
+            results.add(CompletableFuture.supplyAsync(() -> request.apply(shard), executor));
+        }
+        return results;
+    }
+
+    /**
+     * Waits for a shard, rethrowing its failure as thrown rather than wrapped.
+     */
+    private static <T> T join(final CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package skadi15;
+
+import lombok.Value;
+
+@Value
+public class SnapshotMetrics {
+    private final long snapshots;
+    private final long failures;
+    /** Snapshots discarded because orders were moved while they were written. */
+    private final long discards;
+    /** Orders in the last snapshot taken. */
+    private final long lastOrders;
+    /** How long the last snapshot took to write. */
+    private final long lastNanos;
+}
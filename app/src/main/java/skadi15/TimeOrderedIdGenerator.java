@@ -0,0 +1,71 @@
+package skadi15;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.math.IntMath;
+
+/**
+ * Generates UUIDv7-style IDs that sort by creation time, so stores and journals receive ever-increasing keys instead of
+ * random ones.
+ *
+ * <pre>
+ * most significant bits:  48 unix millis | 4 version (7) | 12 zero
+ * least significant bits:  2 variant (10) | 14 node ID | 16 stripe | 16 zero | 16 sequence
+ * </pre>
+ *
+ * Each thread draws from one of a fixed set of stripes, picked by thread ID. A stripe is a single atomic long holding
+ * the last millisecond and 16-bit sequence it issued, advanced with one compare-and-set to the later of the next
+ * sequence and the start of the current millisecond, so generating an ID needs no lock and no {@link SecureRandom}.
+ * A stripe that issues more than 65536 IDs in a millisecond carries on into the next one. State lives in the stripes
+ * rather than in the threads, so short-lived threads such as a virtual thread per request share the same sequences,
+ * and the node ID and stripe alone keep IDs unique. IDs from one thread are strictly increasing; IDs from different
+ * stripes of a node are ordered by millisecond.
+ */
+public class TimeOrderedIdGenerator implements OrderIdGenerator {
+    public static final int MAX_NODE_ID = (1 << 14) - 1;
+    // Stripes are a cache line apart, so threads on different stripes do not contend.
+    private static final int STRIPE_SPACING = 8;
+
+    private final long nodeBits;
+    private final LongSupplier millisClock;
+    private final int stripeMask;
+    // Per stripe, the millisecond last issued shifted left 16 bits, plus the sequence within it.
+    private final AtomicLongArray stripes;
+
+    /**
+     * Uses a random node ID, which keeps nodes apart with high probability when they are not configured.
+     */
+    public TimeOrderedIdGenerator() {
+        this(new SecureRandom().nextInt(MAX_NODE_ID + 1));
+    }
+
+    public TimeOrderedIdGenerator(final int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    TimeOrderedIdGenerator(final int nodeId, final LongSupplier millisClock) {
+        Preconditions.checkArgument(nodeId >= 0 && nodeId <= MAX_NODE_ID,
+                String.format("Node ID must be between 0 and %d [value=%d]", MAX_NODE_ID, nodeId));
+        this.nodeBits = (long) nodeId << 48;
+        this.millisClock = millisClock;
+        final int stripeCount = Math.min(1 << 16, IntMath.ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors() * 4));
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new AtomicLongArray(stripeCount * STRIPE_SPACING);
+    }
+
+    @Override
+    public UUID nextId() {
+        final int stripe = (int) Thread.currentThread().threadId() & stripeMask;
+        // A clock that went backwards keeps counting from the last millisecond issued, so IDs stay monotonic.
+        final long state = stripes.accumulateAndGet(stripe * STRIPE_SPACING, millisClock.getAsLong() << 16,
+                (last, now) -> Math.max(last + 1, now));
+
+        final long msb = state >>> 16 << 16 | 0x7000L;
+        final long lsb = 0x8000000000000000L | nodeBits | (long) stripe << 32 | state & 0xFFFFL;
+        return new UUID(msb, lsb);
+    }
+}
@@ -0,0 +1,67 @@
+package skadi15;
+
+/**
+ * Formats {@code /order} can read and write, chosen from the {@code Accept} and {@code Content-Type} headers. JSON is
+ * the default whenever a client does not clearly prefer another format.
+ *
+ * <p>{@link #RECORD} is a fixed-layout binary format for high-volume clients, with nothing to parse or format. Orders
+ * are written in the {@link OrderRecords} layout, {@value OrderRecords#RECORD_BYTES} bytes each. A batch item that could
+ * not be priced is written as a record of zeros, which is never a valid record since its checksum is never 0. Batch
+ * requests in this format are 8-byte items, each the number of apples and then oranges as big-endian ints.
+ */
+enum WireFormat {
+    JSON("application/json"),
+    RECORD("application/x-order-record");
+
+    private final String contentType;
+
+    WireFormat(final String contentType) {
+        this.contentType = contentType;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the format of a request body, or {@code null} if it is not one of these formats.
+     */
+    static WireFormat ofContentType(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        final String mediaType = HttpHeaders.value(contentType);
+        for (final WireFormat format : values()) {
+            if (format.contentType.equals(mediaType)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the response format for an {@code Accept} header. {@link #RECORD} is picked only if the client gives it a
+     * higher quality than JSON and at least the quality of any wildcard; everything else, including a missing or
+     * unsatisfiable header, gets JSON.
+     */
+    static WireFormat negotiate(final String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        double recordQuality = 0;
+        double jsonQuality = 0;
+        double wildcardQuality = 0;
+        for (final String range : accept.split(",")) {
+            final String mediaType = HttpHeaders.value(range);
+            final double quality = HttpHeaders.quality(range);
+            if (RECORD.contentType.equals(mediaType)) {
+                recordQuality = Math.max(recordQuality, quality);
+            } else if (JSON.contentType.equals(mediaType)) {
+                jsonQuality = Math.max(jsonQuality, quality);
+            } else if ("*/*".equals(mediaType) || "application/*".equals(mediaType)) {
+                wildcardQuality = Math.max(wildcardQuality, quality);
+            }
+        }
+        return recordQuality > 0 && recordQuality > jsonQuality && recordQuality >= wildcardQuality ? RECORD : JSON;
+    }
+}
@@ -0,0 +1,184 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
+
+@ExtendWith(MockitoExtension.class)
+class AdmissionFilterTest {
+    @Mock
+    private FilterConfig filterConfigMock;
+    @Mock
+    private ServletContext servletContextMock;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger handled = new AtomicInteger();
+    private final FilterChain chain = (req, resp) -> handled.incrementAndGet();
+
+    @Test
+    @DisplayName("Clients over their rate get 429 with the time until their next token")
+    public void rateLimit() throws IOException, ServletException {
+        final AdmissionFilter filter = init(Map.of("rateLimit.requestsPerSecond", "2", "rateLimit.burst", "3"));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, filter(filter, "10.0.0.1"));
+        }
+        final HttpServletResponse rejected = mock(HttpServletResponse.class);
+        filter.doFilter(request("10.0.0.1"), rejected, chain);
+        verify(rejected).setStatus(429);
+        verify(rejected).setHeader("Retry-After", "1");
+
+        // Other clients have their own buckets.
+        assertEquals(0, filter(filter, "10.0.0.2"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, filter(filter, "10.0.0.1"));
+        assertEquals(429, filter(filter, "10.0.0.1"));
+
+        assertEquals(5, handled.get());
+        assertEquals(2, filter.getMetrics().getRateLimited());
+        assertEquals(2, filter.getMetrics().getClients());
+    }
+
+    @Test
+    @DisplayName("Clients beyond the limit share a bucket until idle buckets are dropped")
+    public void boundedClients() throws IOException, ServletException {
+        final AdmissionFilter filter = init(Map.of(
+                "rateLimit.requestsPerSecond", "1",
+                "rateLimit.maxClients", "2",
+                "rateLimit.clientHeader", "X-Client-Id"));
+
+        assertEquals(0, filter(filter, "a"));
+        assertEquals(0, filter(filter, "b"));
+        assertEquals(0, filter(filter, "c"));
+        assertEquals(429, filter(filter, "d"));
+        assertEquals(2, filter.getMetrics().getClients());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(0, filter(filter, "d"));
+        assertEquals(1, filter.getMetrics().getClients());
+    }
+
+    @Test
+    @DisplayName("Requests beyond the concurrency limit get 503 until earlier ones finish, async ones included")
+    public void loadShedding() throws IOException, ServletException {
+        final AdmissionFilter filter = init(Map.of("loadShedding.maxConcurrent", "1"));
+        final AsyncContext asyncContextMock = mock(AsyncContext.class);
+        final TestHttpServletRequest asyncRequest = request("10.0.0.1");
+        asyncRequest.setAsyncContext(asyncContextMock);
+        final List<Integer> nestedStatuses = new ArrayList<>();
+
+        // A request arriving while the first is being handled is shed.
+        filter.doFilter(asyncRequest, mock(HttpServletResponse.class), (req, resp) -> {
+            nestedStatuses.add(filter(filter, "10.0.0.2"));
+            req.startAsync();
+        });
+        assertEquals(List.of(503), nestedStatuses);
+        assertEquals(1, filter.getMetrics().getInFlight());
+        assertEquals(503, filter(filter, "10.0.0.2"));
+
+        final ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContextMock).addListener(listener.capture());
+        listener.getValue().onComplete(new AsyncEvent(asyncContextMock));
+        assertEquals(0, filter(filter, "10.0.0.2"));
+        assertEquals(0, filter.getMetrics().getInFlight());
+        assertEquals(2, filter.getMetrics().getShed());
+    }
+
+    @Test
+    @DisplayName("Only requests carrying the node secret bypass the limits, whatever their path")
+    public void peersAdmitted() throws IOException, ServletException {
+        final AdmissionFilter filter = init(Map.of("rateLimit.requestsPerSecond", "1", "node.secret", "s3cret"));
+
+        assertEquals(0, filter(filter, "10.0.0.1"));
+        final TestHttpServletRequest shardRequest = request("10.0.0.1");
+        shardRequest.setServletPath(AppServlet.SHARD_PATH);
+        final HttpServletResponse rejected = mock(HttpServletResponse.class);
+        filter.doFilter(shardRequest, rejected, chain);
+        verify(rejected).setStatus(429);
+
+        final TestHttpServletRequest peerRequest = request("10.0.0.1");
+        peerRequest.setHeader(NodeSecret.HEADER, "s3cret");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, filter(filter, peerRequest));
+        }
+        peerRequest.setHeader(NodeSecret.HEADER, "s3crex");
+        assertEquals(429, filter(filter, peerRequest));
+        assertEquals(11, handled.get());
+    }
+
+    @Test
+    @DisplayName("Requests pass through when no limits are set")
+    public void unlimited() throws IOException, ServletException {
+        final AdmissionFilter filter = init(Map.of());
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+
+        for (int i = 0; i < 100; i++) {
+            filter.doFilter(request("10.0.0.1"), response, chain);
+        }
+
+        assertEquals(100, handled.get());
+        verify(response, never()).setStatus(any(Integer.class));
+        assertEquals(new AdmissionMetrics(0, 0, 0, 0), filter.getMetrics());
+    }
+
+    private AdmissionFilter init(final Map<String, String> settings) {
+        doAnswer(invocation -> settings.get(invocation.getArgument(0))).when(filterConfigMock).getInitParameter(any());
+        when(filterConfigMock.getServletContext()).thenReturn(servletContextMock);
+        final AdmissionFilter filter = new AdmissionFilter(clock::get);
+        filter.init(filterConfigMock);
+        verify(servletContextMock).setAttribute(AdmissionFilter.METRICS_ATTRIBUTE, filter);
+        return filter;
+    }
+
+    /**
+     * @return the status the filter rejected the request with, or 0 if it was handled.
+     */
+    private int filter(final AdmissionFilter filter, final String client) throws IOException, ServletException {
+        return filter(filter, request(client));
+    }
+
+    private int filter(final AdmissionFilter filter, final TestHttpServletRequest request)
+            throws IOException, ServletException {
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        filter.doFilter(request, response, chain);
+        final ArgumentCaptor<Integer> status = ArgumentCaptor.forClass(Integer.class);
+        verify(response, atMost(1)).setStatus(status.capture());
+        return status.getAllValues().isEmpty() ? 0 : status.getValue();
+    }
+
+    private static TestHttpServletRequest request(final String client) {
+        final TestHttpServletRequest request = new TestHttpServletRequest(Map.of());
+        request.setRemoteAddr(client);
+        request.setHeader("X-Client-Id", client);
+        return request;
+    }
+}
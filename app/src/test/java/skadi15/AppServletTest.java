@@ -1,9 +1,14 @@
 package skadi15;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -11,25 +16,37 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -39,14 +56,19 @@ class AppServletTest {
     private static final String APPLES_PARAMETER = "apples";
     private static final String ORANGES_PARAMETER = "oranges";
     private static final String ORDER_ID_PARAMETER = "order_id";
+    private static final String STREAM_PARAMETER = "stream";
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
     @Mock
     private HttpServletResponse responseMock;
     @Mock
     private ServletOutputStream outputStreamMock;
-    @Captor
-    private ArgumentCaptor<String> outputCaptor;
+    @Mock
+    private ServletConfig servletConfigMock;
+    @Mock
+    private ServletContext servletContextMock;
+    @Mock
+    private AsyncContext asyncContextMock;
 
     private AppServlet appServlet;
 
@@ -55,168 +77,681 @@ class AppServletTest {
         appServlet = new AppServlet();
     }
 
+    @AfterEach
+    public void teardown() {
+        appServlet.destroy();
+    }
+
     @Test
     @DisplayName("Order with both fruits and no deals")
     public void orderWithBothFruits() throws IOException {
-        when(responseMock.getOutputStream()).thenReturn(outputStreamMock);
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
 
         final OrderSummary expectedResult = OrderSummary.builder()
                 .numApples(1)
                 .numOranges(2)
-                .totalCost(1.45f)
+                .totalCostCents(145)
                 .build();
 
         appServlet.doPost(createPostRequest(expectedResult), responseMock);
 
         verify(responseMock).getOutputStream();
 
-        verify(outputStreamMock).print(outputCaptor.capture());
-        final OrderSummary actualOrder = parseOrderSummary(outputCaptor.getValue());
+        assertEquals(1, output.getWrites());
+        final OrderSummary actualOrder = parseOrderSummary(output.getContent());
         assertTrue(expectedResult.isEquivalentTo(actualOrder));
 
-        verifyNoMoreInteractions(responseMock, outputStreamMock);
+        verifyNoMoreInteractions(responseMock);
+    }
+
+    @Test
+    @DisplayName("Retried order with an idempotency key returns the original order")
+    public void idempotentRetry() throws IOException {
+        final List<OrderSummary> responses = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final TestServletOutputStream output = new TestServletOutputStream();
+            when(responseMock.getOutputStream()).thenReturn(output);
+            final TestHttpServletRequest request = (TestHttpServletRequest) createPostRequest("1", "2");
+            request.setHeader("Idempotency-Key", "retry-1");
+            appServlet.doPost(request, responseMock);
+            responses.add(parseOrderSummary(output.getContent()));
+        }
+
+        assertEquals(responses.get(0), responses.get(1));
+        verify(responseMock).setHeader("Idempotent-Replayed", "true");
+        assertEquals(List.of(responses.get(0)), new ArrayList<>(appServlet.getOrders()));
+
+        final TestHttpServletRequest conflicting = (TestHttpServletRequest) createPostRequest("1", "3");
+        conflicting.setHeader("Idempotency-Key", "retry-1");
+        assertThrows(IllegalArgumentException.class, () -> appServlet.doPost(conflicting, responseMock));
+        assertEquals(1, appServlet.getOrders().size());
     }
 
     @Test
     @DisplayName("Order with both fruits and apple deal")
     public void orderWithAppleDeal() throws IOException {
-        when(responseMock.getOutputStream()).thenReturn(outputStreamMock);
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
 
         final OrderSummary expectedResult = OrderSummary.builder()
                 .numApples(5)
                 .numOranges(2)
-                .totalCost(1.95f)
+                .totalCostCents(195)
                 .build();
 
         appServlet.doPost(createPostRequest(expectedResult), responseMock);
 
         verify(responseMock).getOutputStream();
 
-        verify(outputStreamMock).print(outputCaptor.capture());
-        final OrderSummary actualOrder = parseOrderSummary(outputCaptor.getValue());
+        assertEquals(1, output.getWrites());
+        final OrderSummary actualOrder = parseOrderSummary(output.getContent());
         assertTrue(expectedResult.isEquivalentTo(actualOrder));
 
-        verifyNoMoreInteractions(responseMock, outputStreamMock);
+        verifyNoMoreInteractions(responseMock);
     }
 
     @Test
     @DisplayName("Order with both fruits and orange deal")
     public void orderWithOrangeDeal() throws IOException {
-        when(responseMock.getOutputStream()).thenReturn(outputStreamMock);
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
 
         final OrderSummary expectedResult = OrderSummary.builder()
                 .numApples(1)
                 .numOranges(7)
-                .totalCost(3.25f)
+                .totalCostCents(325)
                 .build();
 
         appServlet.doPost(createPostRequest(expectedResult), responseMock);
 
         verify(responseMock).getOutputStream();
 
-        verify(outputStreamMock).print(outputCaptor.capture());
-        final OrderSummary actualOrder = parseOrderSummary(outputCaptor.getValue());
+        assertEquals(1, output.getWrites());
+        final OrderSummary actualOrder = parseOrderSummary(output.getContent());
         assertTrue(expectedResult.isEquivalentTo(actualOrder));
 
-        verifyNoMoreInteractions(responseMock, outputStreamMock);
+        verifyNoMoreInteractions(responseMock);
     }
 
     @Test
     @DisplayName("Order with both fruits and both deals")
     public void orderWithBothDeals() throws IOException {
-        when(responseMock.getOutputStream()).thenReturn(outputStreamMock);
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
 
         final OrderSummary expectedResult = OrderSummary.builder()
                 .numApples(4)
                 .numOranges(6)
-                .totalCost(2.9f)
+                .totalCostCents(290)
                 .build();
 
         appServlet.doPost(createPostRequest(expectedResult), responseMock);
 
         verify(responseMock).getOutputStream();
 
-        verify(outputStreamMock).print(outputCaptor.capture());
-        final OrderSummary actualOrder = parseOrderSummary(outputCaptor.getValue());
+        assertEquals(1, output.getWrites());
+        final OrderSummary actualOrder = parseOrderSummary(output.getContent());
         assertTrue(expectedResult.isEquivalentTo(actualOrder));
 
-        verifyNoMoreInteractions(responseMock, outputStreamMock);
+        verifyNoMoreInteractions(responseMock);
     }
 
     @Test
     @DisplayName("Order with no items")
     public void orderWithNoItems() throws IOException {
-        when(responseMock.getOutputStream()).thenReturn(outputStreamMock);
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
 
         final OrderSummary expectedResult = OrderSummary.builder()
                 .numApples(0)
                 .numOranges(0)
-                .totalCost(0f)
+                .totalCostCents(0)
                 .build();
 
         appServlet.doPost(createPostRequest(expectedResult), responseMock);
 
         verify(responseMock).getOutputStream();
 
-        verify(outputStreamMock).print(outputCaptor.capture());
-        final OrderSummary actualOrder = parseOrderSummary(outputCaptor.getValue());
+        assertEquals(1, output.getWrites());
+        final OrderSummary actualOrder = parseOrderSummary(output.getContent());
         assertTrue(expectedResult.isEquivalentTo(actualOrder));
 
-        verifyNoMoreInteractions(responseMock, outputStreamMock);
+        verifyNoMoreInteractions(responseMock);
+    }
+
+    @Test
+    @DisplayName("Large orders are priced exactly and written as decimals")
+    public void largeOrderExactCost() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        final OrderSummary expectedResult = OrderSummary.builder()
+                .numApples(2_000_000_001)
+                .numOranges(2_000_000_000)
+                .totalCostCents(25_000_000_025L + 80_000_000_040L)
+                .build();
+
+        appServlet.doPost(createPostRequest(expectedResult), responseMock);
+
+        assertTrue(output.getContent().contains("\"totalCost\":1050000000.65"), output.getContent());
+        assertTrue(expectedResult.isEquivalentTo(parseOrderSummary(output.getContent())));
     }
 
     @Test
     @DisplayName("Order storage and retrieval")
     public void orderStorageAndRetrieval() throws IOException {
-        when(responseMock.getOutputStream()).thenReturn(outputStreamMock);
-
         // Check stored orders before processing any.
+        final TestServletOutputStream emptyOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(emptyOutput);
         appServlet.doGet(createGetAllRequest(), responseMock);
 
         verify(responseMock).getOutputStream();
-
-        verify(outputStreamMock).print("");
-
-        clearInvocations(responseMock, outputStreamMock);
+        assertEquals("", emptyOutput.getContent());
 
         // Store some orders.
-        IntStream.range(0, 10).boxed()
-                .map(i -> createPostRequest(i.toString(), i.toString()))
-                .forEach(request -> appServlet.doPost(request, responseMock));
-        
-        verify(outputStreamMock, times(10)).print(outputCaptor.capture());
-        final List<OrderSummary> orderSummaries = outputCaptor.getAllValues().stream()
-                .map(this::parseOrderSummary)
-                .toList();
+        final List<OrderSummary> orderSummaries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final TestServletOutputStream output = new TestServletOutputStream();
+            when(responseMock.getOutputStream()).thenReturn(output);
+            appServlet.doPost(createPostRequest(Integer.toString(i), Integer.toString(i)), responseMock);
+            orderSummaries.add(parseOrderSummary(output.getContent()));
+        }
         IntStream.range(0, 10).boxed().forEach(i -> 
             orderSummaries.stream()
                     .anyMatch(order -> order.getNumApples() == i && order.getNumOranges() == i)
         );
 
-        clearInvocations(responseMock, outputStreamMock);
-
         // Check all stored orders.
+        final TestServletOutputStream allOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(allOutput);
         appServlet.doGet(createGetAllRequest(), responseMock);
 
-        verify(outputStreamMock).print(outputCaptor.capture());
         final List<OrderSummary> storedOrderSummaries = OBJECT_MAPPER.readValue(
-            "[" + outputCaptor.getValue() + "]",
+            "[" + allOutput.getContent() + "]",
             new TypeReference<List<OrderSummary>>() {}
         );
         
-        orderSummaries.stream()
-                .allMatch(order -> storedOrderSummaries.stream().anyMatch(order::equals));
-        
-        clearInvocations(responseMock, outputStreamMock);
+        assertEquals(10, storedOrderSummaries.size());
+        assertTrue(orderSummaries.stream()
+                .allMatch(order -> storedOrderSummaries.stream().anyMatch(order::equals)));
         
         // Check a specific stored order.
+        final TestServletOutputStream orderOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(orderOutput);
         appServlet.doGet(createGetRequest(orderSummaries.get(0).getOrderId()), responseMock);
 
-        verify(outputStreamMock).print(outputCaptor.capture());
-        final OrderSummary retrievedOrder = parseOrderSummary(outputCaptor.getValue());
+        final OrderSummary retrievedOrder = parseOrderSummary(orderOutput.getContent());
         assertEquals(orderSummaries.get(0), retrievedOrder);
     }
 
+    @Test
+    @DisplayName("Streamed retrieval of all orders")
+    public void streamedOrderRetrieval() throws IOException {
+        final TestServletOutputStream emptyOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(emptyOutput);
+
+        // Check stored orders before processing any.
+        appServlet.doGet(createStreamRequest(), responseMock);
+
+        assertEquals("[]", emptyOutput.getContent());
+
+        // Store some orders.
+        final List<OrderSummary> orderSummaries = IntStream.range(0, 10).boxed()
+                .map(i -> OrderSummary.builder()
+                        .orderId(UUID.randomUUID())
+                        .numApples(i)
+                        .numOranges(i)
+                        .totalCostCents(i)
+                        .build())
+                .toList();
+        orderSummaries.forEach(appServlet::recordOrder);
+
+        // Check all stored orders come back as a JSON array.
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        appServlet.doGet(createStreamRequest(), responseMock);
+
+        verify(responseMock, times(2)).setContentType("application/json");
+        final List<OrderSummary> storedOrderSummaries = OBJECT_MAPPER.readValue(
+            output.getContent(),
+            new TypeReference<List<OrderSummary>>() {}
+        );
+        assertEquals(orderSummaries.size(), storedOrderSummaries.size());
+        assertTrue(storedOrderSummaries.containsAll(orderSummaries));
+    }
+
+    @Test
+    @DisplayName("Paged retrieval of filtered orders")
+    public void pagedOrderRetrieval() throws IOException {
+        IntStream.range(0, 10).boxed()
+                .map(i -> OrderSummary.builder()
+                        .orderId(UUID.randomUUID())
+                        .numApples(i % 2)
+                        .numOranges(i)
+                        .totalCostCents(i)
+                        .build())
+                .forEach(appServlet::recordOrder);
+
+        final TestServletOutputStream firstPage = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(firstPage);
+
+        appServlet.doGet(createQueryRequest(Map.of(APPLES_PARAMETER, "1", "limit", "3")), responseMock);
+
+        final JsonNode firstNode = OBJECT_MAPPER.readTree(firstPage.getContent());
+        final List<Long> firstCosts = parseTotalCosts(firstNode);
+        assertEquals(3, firstCosts.size());
+
+        final TestServletOutputStream secondPage = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(secondPage);
+
+        appServlet.doGet(createQueryRequest(Map.of(
+            APPLES_PARAMETER, "1",
+            "limit", "3",
+            "cursor", firstNode.get("nextCursor").asText()
+        )), responseMock);
+
+        final JsonNode secondNode = OBJECT_MAPPER.readTree(secondPage.getContent());
+        final List<Long> allCosts = new ArrayList<>(firstCosts);
+        allCosts.addAll(parseTotalCosts(secondNode));
+        allCosts.sort(null);
+        assertEquals(List.of(1L, 3L, 5L, 7L, 9L), allCosts);
+        assertTrue(secondNode.path("nextCursor").isMissingNode());
+    }
+
+    @Test
+    @DisplayName("Invalid page limit")
+    public void invalidPageLimit() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> appServlet.doGet(createQueryRequest(Map.of("limit", "0")), responseMock)
+        );
+
+        verifyNoInteractions(responseMock, outputStreamMock);
+    }
+
+    @Test
+    @DisplayName("Batch of orders as a JSON array")
+    public void batchJsonArray() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        appServlet.doPost(createBatchRequest(
+            "application/json",
+            "[{\"apples\": 1, \"oranges\": 2}, {\"apples\": -1, \"oranges\": 2}, {\"apples\": 4}, {\"apples\": 4, \"oranges\": 6}]"
+        ), responseMock);
+
+        final JsonNode results = OBJECT_MAPPER.readTree(output.getContent());
+        assertEquals(4, results.size());
+        assertBatchOrder(results.get(0), 1, 2, 145);
+        assertEquals(1, results.get(1).get("index").asInt());
+        assertTrue(results.get(1).has("error"));
+        assertEquals(2, results.get(2).get("index").asInt());
+        assertTrue(results.get(2).has("error"));
+        assertBatchOrder(results.get(3), 4, 6, 290);
+
+        // Only the valid items are stored.
+        assertEquals(2, appServlet.getOrders().size());
+    }
+
+    @Test
+    @DisplayName("Batch of orders as NDJSON")
+    public void batchNdjson() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("{\"apples\": ").append(i).append(", \"oranges\": ").append(i).append("}\n");
+        }
+        appServlet.doPost(createBatchRequest("application/x-ndjson", body.toString()), responseMock);
+
+        final List<OrderSummary> results = OBJECT_MAPPER.readValue(
+            output.getContent(),
+            new TypeReference<List<OrderSummary>>() {}
+        );
+        assertEquals(1000, results.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, results.get(i).getNumApples());
+            assertEquals(results.get(i), appServlet.getOrder(results.get(i).getOrderId()));
+        }
+    }
+
+    @Test
+    @DisplayName("Orders are written as binary records when the client accepts them")
+    public void binaryOrder() throws IOException {
+        final TestServletOutputStream postOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(postOutput);
+        final TestHttpServletRequest postRequest = (TestHttpServletRequest) createPostRequest("1", "2");
+        postRequest.setHeader("Accept", "application/x-order-record, application/json;q=0.5");
+        appServlet.doPost(postRequest, responseMock);
+
+        verify(responseMock).setContentType("application/x-order-record");
+        final List<OrderSummary> posted = parseRecords(postOutput.toByteArray());
+        assertEquals(1, posted.size());
+        assertTrue(OrderSummary.builder().numApples(1).numOranges(2).totalCostCents(145).build().isEquivalentTo(posted.get(0)));
+
+        final TestServletOutputStream getOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(getOutput);
+        final TestHttpServletRequest getRequest = (TestHttpServletRequest) createGetRequest(posted.get(0).getOrderId());
+        getRequest.setHeader("Accept", "application/x-order-record");
+        appServlet.doGet(getRequest, responseMock);
+
+        assertArrayEquals(postOutput.toByteArray(), getOutput.toByteArray());
+
+        final TestHttpServletRequest missingRequest = (TestHttpServletRequest) createGetRequest(UUID.randomUUID());
+        missingRequest.setHeader("Accept", "application/x-order-record");
+        appServlet.doGet(missingRequest, responseMock);
+
+        verify(responseMock).setStatus(404);
+    }
+
+    @Test
+    @DisplayName("Batch of binary items answered with binary records")
+    public void batchBinary() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        final ByteBuffer body = ByteBuffer.allocate(27);
+        body.putInt(1).putInt(2).putInt(-1).putInt(2).putInt(4).putInt(6).put(new byte[3]);
+        final TestHttpServletRequest request = (TestHttpServletRequest) createBatchRequest("application/x-order-record", "");
+        request.setBody(body.array());
+        request.setHeader("Accept", "application/x-order-record");
+        appServlet.doPost(request, responseMock);
+
+        verify(responseMock).setContentType("application/x-order-record");
+        final ByteBuffer records = ByteBuffer.wrap(output.toByteArray());
+        assertEquals(4 * OrderRecords.RECORD_BYTES, records.capacity());
+        assertTrue(OrderSummary.builder().numApples(1).numOranges(2).totalCostCents(145).build()
+                .isEquivalentTo(OrderRecords.read(records, 0)));
+        // Items that failed, including the truncated last one, are records of zeros.
+        assertArrayEquals(new byte[OrderRecords.RECORD_BYTES], Arrays.copyOfRange(records.array(), 40, 80));
+        assertTrue(OrderSummary.builder().numApples(4).numOranges(6).totalCostCents(290).build()
+                .isEquivalentTo(OrderRecords.read(records, 80)));
+        assertArrayEquals(new byte[OrderRecords.RECORD_BYTES], Arrays.copyOfRange(records.array(), 120, 160));
+        assertEquals(2, appServlet.getOrders().size());
+    }
+
+    @Test
+    @DisplayName("Batch of binary items answered with JSON by default")
+    public void batchBinaryToJson() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        final TestHttpServletRequest request = (TestHttpServletRequest) createBatchRequest("application/x-order-record", "");
+        request.setBody(ByteBuffer.allocate(16).putInt(1).putInt(2).putInt(3).putInt(-4).array());
+        appServlet.doPost(request, responseMock);
+
+        verify(responseMock).setContentType("application/json");
+        final JsonNode results = OBJECT_MAPPER.readTree(output.getContent());
+        assertEquals(2, results.size());
+        assertBatchOrder(results.get(0), 1, 2, 145);
+        assertEquals("Field oranges must not be negative [value=-4]", results.get(1).get("error").asText());
+    }
+
+    @Test
+    @DisplayName("All orders listed as binary records")
+    public void binaryListing() throws IOException {
+        final List<OrderSummary> orderSummaries = IntStream.range(0, 1000).boxed()
+                .map(i -> OrderSummary.builder()
+                        .orderId(UUID.randomUUID())
+                        .numApples(i)
+                        .numOranges(i)
+                        .totalCostCents(i)
+                        .build())
+                .toList();
+        appServlet.recordOrders(orderSummaries);
+
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+        final TestHttpServletRequest request = (TestHttpServletRequest) createGetAllRequest();
+        request.setHeader("Accept", "application/x-order-record");
+        appServlet.doGet(request, responseMock);
+
+        assertEquals(new HashSet<>(orderSummaries), new HashSet<>(parseRecords(output.toByteArray())));
+    }
+
+    @Test
+    @DisplayName("Batch with malformed JSON keeps the items before the error")
+    public void batchMalformedJson() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        appServlet.doPost(createBatchRequest(
+            "application/json",
+            "[{\"apples\": 1, \"oranges\": 2}, {\"apples\": "
+        ), responseMock);
+
+        final JsonNode results = OBJECT_MAPPER.readTree(output.getContent());
+        assertEquals(2, results.size());
+        assertBatchOrder(results.get(0), 1, 2, 145);
+        assertEquals(1, results.get(1).get("index").asInt());
+        assertEquals(1, appServlet.getOrders().size());
+    }
+
+    @Test
+    @DisplayName("Batch that is not a JSON array")
+    public void batchNotArray() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> appServlet.doPost(createBatchRequest("application/json", "{\"apples\": 1}"), responseMock)
+        );
+
+        verifyNoInteractions(responseMock, outputStreamMock);
+    }
+
+    @Test
+    @DisplayName("Store metrics report the number of stored orders")
+    public void storeMetrics() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+        appServlet.processOrder(1, 1);
+        appServlet.processOrder(2, 2);
+
+        final TestHttpServletRequest request = new TestHttpServletRequest(Map.of());
+        request.setServletPath("/order/store");
+        appServlet.doGet(request, responseMock);
+
+        assertEquals(2, OBJECT_MAPPER.readTree(output.getContent()).get("size").asInt());
+    }
+
+    @Test
+    @DisplayName("Shard endpoints are not found unless the store is sharded")
+    public void shardEndpointsNotFoundUnsharded() throws IOException, ServletException {
+        appServlet.processOrder(1, 1);
+        final UUID orderId = appServlet.getOrders().iterator().next().getOrderId();
+
+        final TestHttpServletRequest request = new TestHttpServletRequest(
+                Map.of(ORDER_ID_PARAMETER, new String[]{orderId.toString()}));
+        request.setServletPath(AppServlet.SHARD_PATH);
+        appServlet.doGet(request, responseMock);
+        appServlet.doDelete(request, responseMock);
+        appServlet.doPost(request, responseMock);
+
+        verify(responseMock, times(3)).setStatus(HttpServletResponse.SC_NOT_FOUND);
+        verifyNoMoreInteractions(responseMock);
+        assertEquals(1, appServlet.getOrders().size());
+    }
+
+    @Test
+    @DisplayName("Order stats report totals and cost percentiles")
+    public void orderStats() throws IOException {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+        appServlet.processOrder(1, 2);
+        appServlet.processOrder(4, 6);
+        appServlet.recordOrders(List.of(
+            OrderSummary.builder().orderId(UUID.randomUUID()).numApples(0).numOranges(0).totalCostCents(0).build()
+        ));
+
+        final TestHttpServletRequest request = new TestHttpServletRequest(Map.of());
+        request.setServletPath("/order/stats");
+        appServlet.doGet(request, responseMock);
+
+        verify(responseMock).setContentType("application/json");
+        final JsonNode stats = OBJECT_MAPPER.readTree(output.getContent());
+        assertEquals(3, stats.get("count").asLong());
+        assertEquals("4.35", stats.get("revenue").asText());
+        assertEquals(5, stats.get("numApples").asLong());
+        assertEquals(8, stats.get("numOranges").asLong());
+        assertEquals(1.45, stats.get("costPercentiles").get("p50").asDouble(), 0.015);
+        assertEquals(2.9, stats.get("costPercentiles").get("p999").asDouble(), 0.03);
+    }
+
+    @Test
+    @DisplayName("Get order rates and Prometheus metrics")
+    public void orderRatesAndMetrics() throws IOException {
+        appServlet.processOrder(1, 2);
+
+        final TestServletOutputStream ratesOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(ratesOutput);
+        final TestHttpServletRequest ratesRequest = new TestHttpServletRequest(Map.of());
+        ratesRequest.setServletPath("/order/rates");
+        appServlet.doGet(ratesRequest, responseMock);
+
+        verify(responseMock).setContentType("application/json");
+        final JsonNode rates = OBJECT_MAPPER.readTree(ratesOutput.getContent());
+        for (final String window : List.of("1m", "5m", "15m")) {
+            assertTrue(rates.get(window).has("ordersPerSecond"));
+            assertTrue(rates.get(window).has("revenuePerMinute"));
+        }
+
+        final TestServletOutputStream metricsOutput = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(metricsOutput);
+        final TestHttpServletRequest metricsRequest = new TestHttpServletRequest(Map.of());
+        metricsRequest.setServletPath("/metrics");
+        appServlet.doGet(metricsRequest, responseMock);
+
+        verify(responseMock).setContentType("text/plain; version=0.0.4; charset=utf-8");
+        final String metrics = metricsOutput.getContent();
+        assertTrue(metrics.contains("# TYPE orders_total counter\norders_total 1\n"), metrics);
+        assertTrue(metrics.contains("order_revenue_total 1.45\n"), metrics);
+        assertTrue(metrics.contains("order_rate_per_second{window=\"15m\"} "), metrics);
+        assertTrue(metrics.contains("order_store_size 1\n"), metrics);
+    }
+
+    @Test
+    @DisplayName("Order POST phase latencies are scraped when timing is enabled")
+    public void phaseTimings() throws ServletException, IOException {
+        when(servletConfigMock.getInitParameter(any())).thenAnswer(
+            invocation -> Map.of("timing.enabled", "true", "timing.sampleInterval", "1").get(invocation.getArgument(0))
+        );
+        when(servletConfigMock.getServletContext()).thenReturn(servletContextMock);
+        appServlet.init(servletConfigMock);
+        when(responseMock.getOutputStream()).thenReturn(outputStreamMock);
+        appServlet.doPost(createPostRequest("1", "2"), responseMock);
+
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+        final TestHttpServletRequest request = new TestHttpServletRequest(Map.of());
+        request.setServletPath("/metrics");
+        appServlet.doGet(request, responseMock);
+
+        final String metrics = output.getContent();
+        for (final String phase : List.of("parse", "price", "store", "serialize")) {
+            assertTrue(metrics.contains("order_request_phase_seconds{phase=\"" + phase + "\",quantile=\"0.999\"} "), metrics);
+            assertTrue(metrics.contains("order_request_phase_seconds_count{phase=\"" + phase + "\"} 1\n"), metrics);
+        }
+    }
+
+    @Test
+    @DisplayName("Polling a stored order with its entity tag is answered with 304")
+    public void conditionalGetOrder() throws IOException {
+        final OrderSummary order = OrderSummary.builder()
+                .orderId(UUID.randomUUID())
+                .numApples(2)
+                .numOranges(3)
+                .totalCostCents(195)
+                .build();
+        appServlet.recordOrder(order);
+        TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+
+        appServlet.doGet(createGetRequest(order.getOrderId()), responseMock);
+
+        final ArgumentCaptor<String> entityTag = ArgumentCaptor.forClass(String.class);
+        verify(responseMock).setHeader(eq("ETag"), entityTag.capture());
+        verify(responseMock).setHeader("Cache-Control", "max-age=31536000, immutable");
+        assertEquals(order, parseOrderSummary(output.getContent()));
+
+        // The tag survives being weakened by compression, and differs between formats.
+        clearInvocations(responseMock);
+        final TestHttpServletRequest request = (TestHttpServletRequest) createGetRequest(order.getOrderId());
+        request.setHeader("If-None-Match", "\"other\", W/" + entityTag.getValue());
+        appServlet.doGet(request, responseMock);
+        verify(responseMock).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(responseMock, never()).getOutputStream();
+
+        clearInvocations(responseMock);
+        output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+        request.setHeader("Accept", "application/x-order-record");
+        appServlet.doGet(request, responseMock);
+        verify(responseMock, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(List.of(order), parseRecords(output.toByteArray()));
+    }
+
+    @Test
+    @DisplayName("Listing entity tags change when an order is stored")
+    public void conditionalGetListing() throws IOException {
+        appServlet.recordOrder(OrderSummary.builder().orderId(UUID.randomUUID()).numApples(1).build());
+        when(responseMock.getOutputStream()).thenReturn(new TestServletOutputStream());
+
+        appServlet.doGet(createGetAllRequest(), responseMock);
+        final ArgumentCaptor<String> entityTag = ArgumentCaptor.forClass(String.class);
+        verify(responseMock).setHeader(eq("ETag"), entityTag.capture());
+        verify(responseMock).setHeader("Cache-Control", "no-cache");
+
+        clearInvocations(responseMock);
+        final TestHttpServletRequest request = (TestHttpServletRequest) createGetAllRequest();
+        request.setHeader("If-None-Match", entityTag.getValue());
+        appServlet.doGet(request, responseMock);
+        verify(responseMock).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(responseMock, never()).getOutputStream();
+
+        appServlet.recordOrder(OrderSummary.builder().orderId(UUID.randomUUID()).numApples(2).build());
+        clearInvocations(responseMock);
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+        appServlet.doGet(request, responseMock);
+        verify(responseMock, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(2, OBJECT_MAPPER.readTree("[" + output.getContent() + "]").size());
+    }
+
+    @Test
+    @DisplayName("Cached order responses are dropped when the store evicts the order")
+    public void responseCacheEviction() throws ServletException, IOException {
+        when(servletConfigMock.getInitParameter(any())).thenAnswer(
+            invocation -> Map.of("responseCache.maxEntries", "10", "retention.maxCount", "1").get(invocation.getArgument(0))
+        );
+        when(servletConfigMock.getServletContext()).thenReturn(servletContextMock);
+        appServlet.init(servletConfigMock);
+        final OrderSummary order = OrderSummary.builder().orderId(UUID.randomUUID()).numApples(1).totalCostCents(60).build();
+        appServlet.recordOrder(order);
+
+        for (int i = 0; i < 2; i++) {
+            final TestServletOutputStream output = new TestServletOutputStream();
+            when(responseMock.getOutputStream()).thenReturn(output);
+            appServlet.doGet(createGetRequest(order.getOrderId()), responseMock);
+            assertEquals(order, parseOrderSummary(output.getContent()));
+        }
+
+        appServlet.recordOrder(OrderSummary.builder().orderId(UUID.randomUUID()).build());
+        final TestServletOutputStream output = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(output);
+        appServlet.doGet(createGetRequest(order.getOrderId()), responseMock);
+        assertEquals("No order found for ID " + order.getOrderId(), output.getContent());
+
+        final TestServletOutputStream metrics = new TestServletOutputStream();
+        when(responseMock.getOutputStream()).thenReturn(metrics);
+        final TestHttpServletRequest request = new TestHttpServletRequest(Map.of());
+        request.setServletPath("/metrics");
+        appServlet.doGet(request, responseMock);
+        assertTrue(metrics.getContent().contains("order_response_cache_hits_total 1\n"), metrics.getContent());
+        assertTrue(metrics.getContent().contains("order_response_cache_size 0\n"), metrics.getContent());
+    }
+
     @Test
     @DisplayName("Get an order that is not stored")
     public void getNotStoredOrder() throws IOException {
@@ -299,6 +834,84 @@ class AppServletTest {
         verifyNoInteractions(responseMock, outputStreamMock);
     }
 
+    @Test
+    @DisplayName("Async order POST writes the order without blocking")
+    public void asyncOrder() throws Exception {
+        final TestServletOutputStream output = new TestServletOutputStream();
+        final CountDownLatch completed = startAsync(output);
+
+        final TestHttpServletRequest request = (TestHttpServletRequest) createPostRequest("1", "2");
+        request.setAsyncContext(asyncContextMock);
+        appServlet.doPost(request, responseMock);
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        final OrderSummary order = parseOrderSummary(output.getContent());
+        assertTrue(OrderSummary.builder().numApples(1).numOranges(2).totalCostCents(145).build().isEquivalentTo(order));
+        assertEquals(order, appServlet.getOrder(order.getOrderId()));
+    }
+
+    @Test
+    @DisplayName("Async streaming writes a chunk at a time as a slow client drains")
+    public void asyncStreamToSlowClient() throws Exception {
+        final List<OrderSummary> orderSummaries = IntStream.range(0, 1000).boxed()
+                .map(i -> OrderSummary.builder()
+                        .orderId(UUID.randomUUID())
+                        .numApples(i)
+                        .numOranges(i)
+                        .totalCostCents(i)
+                        .build())
+                .toList();
+        orderSummaries.forEach(appServlet::recordOrder);
+
+        final TestServletOutputStream output = new TestServletOutputStream();
+        output.setSlow(true);
+        final CountDownLatch completed = startAsync(output);
+
+        final TestHttpServletRequest request = (TestHttpServletRequest) createStreamRequest();
+        request.setAsyncContext(asyncContextMock);
+        appServlet.doGet(request, responseMock);
+
+        // Nothing more is written until the client drains the last chunk.
+        while (!completed.await(5, TimeUnit.MILLISECONDS)) {
+            if (!output.isReady()) {
+                final int writes = output.getWrites();
+                Thread.sleep(5);
+                assertEquals(writes, output.getWrites());
+                output.drain();
+            }
+        }
+
+        assertTrue(output.getWrites() > 10);
+        final List<OrderSummary> storedOrderSummaries = OBJECT_MAPPER.readValue(
+            output.getContent(),
+            new TypeReference<List<OrderSummary>>() {}
+        );
+        assertEquals(orderSummaries.size(), storedOrderSummaries.size());
+        assertTrue(storedOrderSummaries.containsAll(orderSummaries));
+    }
+
+    /**
+     * Initializes the servlet in async mode with responses written to {@code output}.
+     *
+     * @return a latch released when the async request completes.
+     */
+    private CountDownLatch startAsync(final TestServletOutputStream output) throws Exception {
+        when(servletConfigMock.getInitParameter(any())).thenAnswer(
+            invocation -> "async.enabled".equals(invocation.getArgument(0)) ? "true" : null
+        );
+        when(servletConfigMock.getServletContext()).thenReturn(servletContextMock);
+        appServlet.init(servletConfigMock);
+
+        final CountDownLatch completed = new CountDownLatch(1);
+        when(asyncContextMock.getResponse()).thenReturn(responseMock);
+        when(responseMock.getOutputStream()).thenReturn(output);
+        doAnswer(invocation -> {
+            completed.countDown();
+            return null;
+        }).when(asyncContextMock).complete();
+        return completed;
+    }
+
     private HttpServletRequest createPostRequest(final OrderSummary expectedOrderSummary) {
         return createPostRequest(
             Integer.toString(expectedOrderSummary.getNumApples()),
@@ -317,10 +930,58 @@ class AppServletTest {
         return new TestHttpServletRequest(parameters);
     }
 
+    private HttpServletRequest createBatchRequest(final String contentType, final String body) {
+        final TestHttpServletRequest request = new TestHttpServletRequest(Map.of());
+        request.setServletPath("/order/batch");
+        request.setContentType(contentType);
+        request.setBody(body.getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    private void assertBatchOrder(final JsonNode result, final int numApples, final int numOranges,
+            final long totalCostCents) {
+        final OrderSummary order = OBJECT_MAPPER.convertValue(result, OrderSummary.class);
+        final OrderSummary expected = OrderSummary.builder()
+                .numApples(numApples)
+                .numOranges(numOranges)
+                .totalCostCents(totalCostCents)
+                .build();
+        assertTrue(expected.isEquivalentTo(order));
+    }
+
+    private static List<OrderSummary> parseRecords(final byte[] bytes) {
+        assertEquals(0, bytes.length % OrderRecords.RECORD_BYTES);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final List<OrderSummary> orders = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += OrderRecords.RECORD_BYTES) {
+            assertTrue(OrderRecords.isValid(buffer, offset));
+            orders.add(OrderRecords.read(buffer, offset));
+        }
+        return orders;
+    }
+
     private HttpServletRequest createGetAllRequest() {
         return createGetRequest(null);
     }
 
+    private HttpServletRequest createStreamRequest() {
+        return new TestHttpServletRequest(Map.of(STREAM_PARAMETER, new String[] {"true"}));
+    }
+
+    private HttpServletRequest createQueryRequest(final Map<String, String> query) {
+        final Map<String, String[]> parameters = new HashMap<>();
+        query.forEach((name, value) -> parameters.put(name, new String[] {value}));
+        return new TestHttpServletRequest(parameters);
+    }
+
+    private List<Long> parseTotalCosts(final JsonNode page) throws IOException {
+        final List<OrderSummary> orders = OBJECT_MAPPER.convertValue(
+            page.get("orders"),
+            new TypeReference<List<OrderSummary>>() {}
+        );
+        return orders.stream().map(OrderSummary::getTotalCostCents).toList();
+    }
+
     private HttpServletRequest createGetRequest(final UUID orderId) {
         final Map<String, String[]> parameters = new HashMap<>();
         if (orderId != null) {
@@ -0,0 +1,160 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class BoundedOrderRepositoryTest {
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong millisClock = new AtomicLong(Duration.ofDays(20_000).toMillis());
+    private final List<OrderSummary> evicted = new ArrayList<>();
+
+    @Test
+    @DisplayName("Least recently used orders are evicted beyond the count limit")
+    public void maxCountEvictsLeastRecentlyUsed() {
+        final BoundedOrderRepository repository = create(new InMemoryOrderRepository(),
+                RetentionPolicy.builder().maxCount(3).build());
+        final List<OrderSummary> orders = createOrders(4);
+
+        repository.recordOrders(orders.subList(0, 3));
+        // Reading the oldest order makes the second one the least recently used.
+        assertNotNull(repository.getOrder(orders.get(0).getOrderId()));
+        repository.recordOrder(orders.get(3));
+
+        assertEquals(3, repository.size());
+        assertEquals(List.of(orders.get(1)), evicted);
+        assertNull(repository.getOrder(orders.get(1).getOrderId()));
+        assertNotNull(repository.getOrder(orders.get(0).getOrderId()));
+    }
+
+    @Test
+    @DisplayName("Orders older than the age limit are evicted")
+    public void maxAgeEvictsExpired() {
+        final BoundedOrderRepository repository = create(new ColumnarOrderRepository(),
+                RetentionPolicy.builder().maxAge(Duration.ofSeconds(10)).build());
+        final List<OrderSummary> orders = createOrders(3);
+
+        repository.recordOrder(orders.get(0));
+        clock.addAndGet(Duration.ofSeconds(6).toNanos());
+        repository.recordOrder(orders.get(1));
+        clock.addAndGet(Duration.ofSeconds(6).toNanos());
+
+        // Expired orders are gone on lookup even before the next write.
+        assertNull(repository.getOrder(orders.get(0).getOrderId()));
+        assertEquals(List.of(orders.get(0)), evicted);
+
+        clock.addAndGet(Duration.ofSeconds(6).toNanos());
+        repository.recordOrder(orders.get(2));
+
+        assertEquals(List.of(orders.get(0), orders.get(1)), evicted);
+        assertEquals(1, repository.size());
+    }
+
+    @Test
+    @DisplayName("The memory limit is turned into an order count")
+    public void maxMemoryLimitsCount() {
+        final InMemoryOrderRepository delegate = new InMemoryOrderRepository();
+        final BoundedOrderRepository repository = create(delegate, RetentionPolicy.builder()
+                .maxMemoryBytes(100 * (delegate.estimatedBytesPerOrder() + BoundedOrderRepository.TRACKING_BYTES_PER_ORDER))
+                .build());
+
+        repository.recordOrders(createOrders(250));
+
+        assertEquals(100, repository.size());
+        assertEquals(150, evicted.size());
+    }
+
+    @Test
+    @DisplayName("Orders already in the delegate are bounded when the policy is applied")
+    public void existingOrdersBounded() {
+        final InMemoryOrderRepository delegate = new InMemoryOrderRepository();
+        delegate.recordOrders(createOrders(10));
+
+        final BoundedOrderRepository repository = create(delegate, RetentionPolicy.builder().maxCount(4).build());
+
+        assertEquals(4, repository.size());
+        assertEquals(6, evicted.size());
+    }
+
+    @Test
+    @DisplayName("Orders already in the delegate are aged from the time in their ID")
+    public void existingOrdersAgedFromId() {
+        final long now = millisClock.get();
+        final OrderSummary expired = createOrder(new TimeOrderedIdGenerator(1, () -> now - 20_000).nextId());
+        final OrderSummary recent = createOrder(new TimeOrderedIdGenerator(1, () -> now - 5_000).nextId());
+        final OrderSummary random = createOrder(UUID.randomUUID());
+        final InMemoryOrderRepository delegate = new InMemoryOrderRepository();
+        delegate.recordOrders(List.of(random, recent, expired));
+
+        final BoundedOrderRepository repository = create(delegate,
+                RetentionPolicy.builder().maxAge(Duration.ofSeconds(10)).build());
+
+        assertEquals(List.of(expired), evicted);
+        clock.addAndGet(Duration.ofSeconds(6).toNanos());
+        assertNull(repository.getOrder(recent.getOrderId()));
+        // An ID without a time counts as recorded when the policy was applied.
+        assertNotNull(repository.getOrder(random.getOrderId()));
+        assertEquals(List.of(expired, recent), evicted);
+    }
+
+    @Test
+    @DisplayName("Metrics report size, evictions and hit rate")
+    public void metrics() {
+        final BoundedOrderRepository repository = create(new InMemoryOrderRepository(),
+                RetentionPolicy.builder().maxCount(2).build());
+        final List<OrderSummary> orders = createOrders(3);
+        repository.recordOrders(orders);
+
+        repository.getOrder(orders.get(0).getOrderId());
+        repository.getOrder(orders.get(1).getOrderId());
+        repository.getOrder(orders.get(2).getOrderId());
+        repository.getOrder(UUID.randomUUID());
+
+        final RetentionMetrics metrics = repository.getMetrics();
+        assertEquals(2, metrics.getSize());
+        assertEquals(1, metrics.getEvictions());
+        assertEquals(2, metrics.getHits());
+        assertEquals(2, metrics.getMisses());
+        assertEquals(0.5, metrics.getHitRate());
+    }
+
+    @Test
+    @DisplayName("A policy without limits is rejected")
+    public void unlimitedPolicy() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> create(new InMemoryOrderRepository(), RetentionPolicy.builder().build())
+        );
+    }
+
+    private BoundedOrderRepository create(final OrderRepository delegate, final RetentionPolicy policy) {
+        return new BoundedOrderRepository(delegate, policy, evicted::add, clock::get, millisClock::get);
+    }
+
+    private static OrderSummary createOrder(final UUID orderId) {
+        return OrderSummary.builder().orderId(orderId).numApples(1).numOranges(1).totalCostCents(1).build();
+    }
+
+    private static List<OrderSummary> createOrders(final int count) {
+        final List<OrderSummary> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            orders.add(OrderSummary.builder()
+                    .orderId(UUID.randomUUID())
+                    .numApples(i)
+                    .numOranges(i)
+                    .totalCostCents(i)
+                    .build());
+        }
+        return orders;
+    }
+}
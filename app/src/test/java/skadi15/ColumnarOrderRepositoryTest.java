@@ -0,0 +1,227 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ColumnarOrderRepositoryTest {
+    private ColumnarOrderRepository repository;
+
+    @BeforeEach
+    public void setup() {
+        repository = new ColumnarOrderRepository();
+    }
+
+    @Test
+    @DisplayName("Stored orders are materialized with the same values")
+    public void storeAndRetrieve() {
+        final List<OrderSummary> orders = createOrders(10_000);
+        repository.recordOrders(orders.subList(0, 5_000));
+        orders.subList(5_000, 10_000).forEach(repository::recordOrder);
+
+        assertEquals(10_000, repository.size());
+        orders.forEach(order -> assertEquals(order, repository.getOrder(order.getOrderId())));
+        assertNull(repository.getOrder(UUID.randomUUID()));
+        assertEquals(new HashSet<>(orders), new HashSet<>(repository.getOrders()));
+    }
+
+    @Test
+    @DisplayName("Recording an existing ID replaces the stored order")
+    public void replaceOrder() {
+        final OrderSummary order = createOrders(1).get(0);
+        final OrderSummary replacement = OrderSummary.builder()
+                .orderId(order.getOrderId())
+                .numApples(42)
+                .numOranges(43)
+                .totalCostCents(4400)
+                .build();
+
+        repository.recordOrder(order);
+        repository.recordOrder(replacement);
+
+        assertEquals(1, repository.size());
+        assertEquals(replacement, repository.getOrder(order.getOrderId()));
+    }
+
+    @Test
+    @DisplayName("Putting an order returns the order it replaced")
+    public void putOrder() {
+        final OrderSummary order = createOrders(1).get(0);
+        final OrderSummary replacement = OrderSummary.builder()
+                .orderId(order.getOrderId())
+                .numApples(42)
+                .numOranges(43)
+                .totalCostCents(4400)
+                .build();
+
+        assertNull(repository.putOrder(order));
+        assertEquals(order, repository.putOrder(replacement));
+
+        assertEquals(1, repository.size());
+        assertEquals(replacement, repository.getOrder(order.getOrderId()));
+    }
+
+    @Test
+    @DisplayName("Costs too large for an int of cents are kept exactly")
+    public void largeCosts() {
+        final List<OrderSummary> orders = new ArrayList<>();
+        for (final long cents : new long[] {Integer.MAX_VALUE + 1L, Integer.MIN_VALUE, Long.MAX_VALUE, 7}) {
+            orders.add(OrderSummary.builder().orderId(UUID.randomUUID()).totalCostCents(cents).build());
+        }
+        repository.recordOrders(orders);
+
+        // Removing the first order moves the last one into its row.
+        assertEquals(orders.get(0), repository.removeOrder(orders.get(0).getOrderId()));
+        assertEquals(orders.get(2), repository.removeOrder(orders.get(2).getOrderId()));
+
+        orders.subList(1, 4).forEach(order -> {
+            final OrderSummary expected = order == orders.get(2) ? null : order;
+            assertEquals(expected, repository.getOrder(order.getOrderId()));
+        });
+    }
+
+    @Test
+    @DisplayName("Removed orders are gone and every other order is still found")
+    public void removeOrders() {
+        final List<OrderSummary> orders = createOrders(20_000);
+        repository.recordOrders(orders);
+
+        for (int i = 0; i < orders.size(); i += 3) {
+            assertEquals(orders.get(i), repository.removeOrder(orders.get(i).getOrderId()));
+        }
+
+        assertNull(repository.removeOrder(orders.get(0).getOrderId()));
+        assertEquals(orders.size() - (orders.size() + 2) / 3, repository.size());
+        for (int i = 0; i < orders.size(); i++) {
+            final OrderSummary expected = i % 3 == 0 ? null : orders.get(i);
+            assertEquals(expected, repository.getOrder(orders.get(i).getOrderId()));
+        }
+    }
+
+    @Test
+    @DisplayName("Iterations and queries racing removals end early instead of failing")
+    public void iterationDuringRemovals() throws Exception {
+        final List<OrderSummary> orders = createOrders(200_000);
+        repository.recordOrders(orders);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Removing from the front moves the last row every time, so the rows shrink under the iterations.
+            final Future<?> remover = executor.submit(
+                    () -> orders.forEach(order -> repository.removeOrder(order.getOrderId())));
+            while (!remover.isDone()) {
+                int listed = 0;
+                for (final OrderSummary order : repository.getOrders()) {
+                    listed++;
+                }
+                assertTrue(listed <= orders.size());
+                repository.findOrders(OrderQuery.builder().numApples(1).build());
+            }
+            remover.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, repository.size());
+        assertTrue(repository.getOrders().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Paging through filtered orders visits every match exactly once")
+    public void pagedQueries() {
+        repository.recordOrders(createOrders(1000));
+        final OrderQuery.OrderQueryBuilder builder = OrderQuery.builder().numApples(3).limit(7);
+        final OrderQuery query = builder.build();
+
+        final Set<OrderSummary> seen = new HashSet<>();
+        String cursor = null;
+        do {
+            final OrderPage page = repository.findOrders(builder.cursor(cursor).build());
+            page.getOrders().forEach(order -> {
+                assertTrue(query.matches(order));
+                assertTrue(seen.add(order));
+            });
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(repository.getOrders().stream().filter(query::matches).count(), seen.size());
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> repository.findOrders(OrderQuery.builder().cursor("not a cursor").build())
+        );
+    }
+
+    @Test
+    @DisplayName("Memory per stored order stays under 40 bytes")
+    public void memoryPerOrder() {
+        for (final int count : new int[] {100_000, 800_000, 1_000_000}) {
+            repository = new ColumnarOrderRepository();
+            for (int i = 0; i < count; i++) {
+                repository.recordOrder(OrderSummary.builder()
+                        .orderId(UUID.randomUUID())
+                        .numApples(i)
+                        .numOranges(i)
+                        .totalCostCents(i)
+                        .build());
+            }
+
+            final double bytesPerOrder = (double) repository.memoryBytes() / count;
+            assertTrue(bytesPerOrder < 40, String.format("%.1f bytes per order at %d orders", bytesPerOrder, count));
+        }
+    }
+
+    @Test
+    @DisplayName("Readers racing writers always see stored orders")
+    public void concurrentReadsAndWrites() throws Exception {
+        final List<OrderSummary> orders = createOrders(200_000);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> writer = executor.submit(() -> {
+                orders.forEach(repository::recordOrder);
+                writing.set(false);
+            });
+            final Future<?> reader = executor.submit(() -> {
+                int i = 0;
+                while (writing.get()) {
+                    final OrderSummary expected = orders.get(i++ % orders.size());
+                    final OrderSummary actual = repository.getOrder(expected.getOrderId());
+                    assertTrue(actual == null || actual.equals(expected));
+                }
+            });
+            writer.get();
+            reader.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        orders.forEach(order -> assertEquals(order, repository.getOrder(order.getOrderId())));
+    }
+
+    private static List<OrderSummary> createOrders(final int count) {
+        final List<OrderSummary> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            orders.add(OrderSummary.builder()
+                    .orderId(UUID.randomUUID())
+                    .numApples(i % 10)
+                    .numOranges(i % 7)
+                    .totalCostCents(i * 85L)
+                    .build());
+        }
+        return orders;
+    }
+}
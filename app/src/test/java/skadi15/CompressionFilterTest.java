@@ -0,0 +1,143 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
+
+@ExtendWith(MockitoExtension.class)
+class CompressionFilterTest {
+    @Mock
+    private FilterConfig filterConfigMock;
+    @Mock
+    private ServletContext servletContextMock;
+    @Mock
+    private HttpServletResponse responseMock;
+
+    private final TestHttpServletRequest request = new TestHttpServletRequest(Map.of());
+    private final TestServletOutputStream output = new TestServletOutputStream();
+
+    @Test
+    @DisplayName("Responses above the threshold are gzipped as they are written")
+    public void gzip() throws IOException, ServletException {
+        final CompressionFilter filter = init(Map.of("compression.minBytes", "256"));
+        when(responseMock.getOutputStream()).thenReturn(output);
+        when(responseMock.getCharacterEncoding()).thenReturn("UTF-8");
+        request.setHeader("Accept-Encoding", "gzip, deflate");
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            expected.append("{\"numApples\":").append(i).append("}\n");
+        }
+
+        filter.doFilter(request, responseMock, (req, resp) -> {
+            final PrintWriter writer = resp.getWriter();
+            expected.chars().forEach(writer::write);
+            resp.setContentLength(expected.length());
+        });
+
+        assertEquals(expected.toString(), new String(decompress(new GZIPInputStream(input())), StandardCharsets.UTF_8));
+        verify(responseMock).addHeader("Vary", "Accept-Encoding");
+        verify(responseMock).setHeader("Content-Encoding", "gzip");
+        verify(responseMock, never()).setContentLength(anyInt());
+
+        final CompressionMetrics metrics = filter.getMetrics();
+        assertEquals(1, metrics.getCompressedResponses());
+        assertEquals(expected.length(), metrics.getBytesIn());
+        assertEquals(output.toByteArray().length, metrics.getBytesOut());
+        assertEquals(expected.length() - output.toByteArray().length, metrics.getBytesSaved());
+    }
+
+    @Test
+    @DisplayName("Deflate is used when the client prefers it")
+    public void deflate() throws IOException, ServletException {
+        final CompressionFilter filter = init(Map.of());
+        when(responseMock.getOutputStream()).thenReturn(output);
+        request.setHeader("Accept-Encoding", "gzip;q=0.5, deflate");
+        final byte[] body = new byte[10_000];
+
+        filter.doFilter(request, responseMock, (req, resp) -> resp.getOutputStream().write(body));
+
+        assertArrayEquals(body, decompress(new InflaterInputStream(input())));
+        verify(responseMock).setHeader("Content-Encoding", "deflate");
+    }
+
+    @Test
+    @DisplayName("Responses within the threshold are sent as they are with their length")
+    public void belowThreshold() throws IOException, ServletException {
+        final CompressionFilter filter = init(Map.of());
+        when(responseMock.getOutputStream()).thenReturn(output);
+        request.setHeader("Accept-Encoding", "gzip");
+        final byte[] body = new byte[1024];
+
+        filter.doFilter(request, responseMock, (req, resp) -> {
+            resp.getOutputStream().write(body, 0, 1000);
+            resp.getOutputStream().flush();
+            resp.getOutputStream().write(body, 1000, 24);
+        });
+
+        assertArrayEquals(body, output.toByteArray());
+        verify(responseMock).setContentLength(1024);
+        verify(responseMock, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertEquals(new CompressionMetrics(0, 1, 0, 0, 0), filter.getMetrics());
+    }
+
+    @Test
+    @DisplayName("Responses pass through untouched without an accepted encoding or when disabled")
+    public void passThrough() throws IOException, ServletException {
+        CompressionFilter filter = init(Map.of());
+        request.setHeader("Accept-Encoding", "br, identity");
+        filter.doFilter(request, responseMock, (req, resp) -> assertSame(responseMock, resp));
+        verify(responseMock).addHeader("Vary", "Accept-Encoding");
+
+        filter = init(Map.of("compression.enabled", "false"));
+        request.setHeader("Accept-Encoding", "gzip");
+        filter.doFilter(request, responseMock, (req, resp) -> assertSame(responseMock, resp));
+        assertEquals(new CompressionMetrics(0, 0, 0, 0, 0), filter.getMetrics());
+    }
+
+    private CompressionFilter init(final Map<String, String> settings) {
+        doAnswer(invocation -> settings.get(invocation.getArgument(0))).when(filterConfigMock).getInitParameter(any());
+        when(filterConfigMock.getServletContext()).thenReturn(servletContextMock);
+        final CompressionFilter filter = new CompressionFilter();
+        filter.init(filterConfigMock);
+        verify(servletContextMock).setAttribute(CompressionFilter.METRICS_ATTRIBUTE, filter);
+        return filter;
+    }
+
+    private ByteArrayInputStream input() {
+        return new ByteArrayInputStream(output.toByteArray());
+    }
+
+    private static byte[] decompress(final InputStream input) throws IOException {
+        try (input) {
+            return input.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ContentEncodingTest {
+    @Test
+    @DisplayName("The accepted encoding with the highest quality is picked")
+    public void negotiate() {
+        assertNull(ContentEncoding.negotiate(null));
+        assertNull(ContentEncoding.negotiate("identity"));
+        assertNull(ContentEncoding.negotiate("gzip;q=0, deflate;q=0"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("GZIP"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, gzip"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, *"));
+        // zstd-jni is not on the test classpath.
+        assertFalse(ContentEncoding.ZSTD.isAvailable());
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("zstd, gzip;q=0.1"));
+    }
+}
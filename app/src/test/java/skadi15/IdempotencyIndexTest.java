@@ -0,0 +1,114 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class IdempotencyIndexTest {
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger processed = new AtomicInteger();
+
+    @Test
+    @DisplayName("A repeated key returns the original order without processing it again")
+    public void replay() {
+        final IdempotencyIndex index = new IdempotencyIndex(10, TimeUnit.MINUTES.toNanos(1), clock::get);
+
+        final IdempotencyIndex.Submission first = index.submit("key", 1, 2, this::process);
+        final IdempotencyIndex.Submission retry = index.submit("key", 1, 2, this::process);
+
+        assertFalse(first.isReplayed());
+        assertTrue(retry.isReplayed());
+        assertSame(first.getOrder(), retry.getOrder());
+        assertEquals(1, processed.get());
+        assertEquals(1, index.getReplays());
+        assertThrows(IllegalArgumentException.class, () -> index.submit("key", 1, 3, this::process));
+        assertThrows(IllegalArgumentException.class, () -> index.submit("", 1, 2, this::process));
+    }
+
+    @Test
+    @DisplayName("Keys are forgotten after their time to live and beyond the key limit")
+    public void bounded() {
+        final IdempotencyIndex index = new IdempotencyIndex(2, TimeUnit.MINUTES.toNanos(1), clock::get);
+        final OrderSummary expiring = index.submit("expiring", 1, 2, this::process).getOrder();
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(2));
+
+        assertNotEquals(expiring, index.submit("expiring", 1, 2, this::process).getOrder());
+
+        index.submit("second", 1, 2, this::process);
+        index.submit("third", 1, 2, this::process);
+        assertEquals(2, index.size());
+        assertFalse(index.submit("expiring", 1, 2, this::process).isReplayed());
+        assertEquals(3, index.getEvictions());
+        assertEquals(5, processed.get());
+    }
+
+    @Test
+    @DisplayName("A failed submission lets the next retry process the order")
+    public void failure() {
+        final IdempotencyIndex index = new IdempotencyIndex(10, TimeUnit.MINUTES.toNanos(1), clock::get);
+
+        assertThrows(IllegalStateException.class, () -> index.submit("key", 1, 2, () -> {
+            throw new IllegalStateException("store unavailable");
+        }));
+
+        assertFalse(index.submit("key", 1, 2, this::process).isReplayed());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    @DisplayName("Concurrent submissions of one key create one order")
+    public void concurrentSubmissions() throws Exception {
+        final IdempotencyIndex index = new IdempotencyIndex(10, TimeUnit.MINUTES.toNanos(1));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<IdempotencyIndex.Submission> original = executor.submit(() -> index.submit("key", 1, 2, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return process();
+            }));
+            started.await();
+            final List<Future<IdempotencyIndex.Submission>> retries = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                retries.add(executor.submit(() -> index.submit("key", 1, 2, this::process)));
+            }
+            release.countDown();
+
+            final OrderSummary order = original.get().getOrder();
+            for (final Future<IdempotencyIndex.Submission> retry : retries) {
+                assertSame(order, retry.get().getOrder());
+                assertTrue(retry.get().isReplayed());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, processed.get());
+    }
+
+    private OrderSummary process() {
+        processed.incrementAndGet();
+        return OrderSummary.builder().orderId(UUID.randomUUID()).numApples(1).numOranges(2).totalCostCents(110).build();
+    }
+}
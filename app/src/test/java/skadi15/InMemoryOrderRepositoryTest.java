@@ -0,0 +1,199 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class InMemoryOrderRepositoryTest {
+    private static final int ORDERS_PER_THREAD = 100_000;
+
+    private InMemoryOrderRepository repository;
+
+    @BeforeEach
+    public void setup() {
+        repository = new InMemoryOrderRepository();
+    }
+
+    @Test
+    @DisplayName("Stored orders can be retrieved by ID")
+    public void storeAndRetrieve() {
+        final OrderSummary order = createOrder(1);
+
+        repository.recordOrder(order);
+
+        assertSame(order, repository.getOrder(order.getOrderId()));
+        assertNull(repository.getOrder(UUID.randomUUID()));
+        assertEquals(1, repository.size());
+    }
+
+    @Test
+    @DisplayName("Paging through filtered orders visits every match exactly once")
+    public void pagedQueries() {
+        for (int i = 0; i < 1000; i++) {
+            repository.recordOrder(createOrder(i % 10, i % 7, i % 100));
+        }
+
+        final List<OrderQuery.OrderQueryBuilder> queries = List.of(
+                OrderQuery.builder(),
+                OrderQuery.builder().numApples(3),
+                OrderQuery.builder().numOranges(4).maxTotalCostCents(50L),
+                OrderQuery.builder().minTotalCostCents(10L).maxTotalCostCents(20L),
+                OrderQuery.builder().numApples(3).numOranges(4));
+        for (final OrderQuery.OrderQueryBuilder builder : queries) {
+            final OrderQuery query = builder.limit(7).build();
+            final long expected = repository.getOrders().stream().filter(query::matches).count();
+
+            final Set<OrderSummary> seen = new HashSet<>();
+            String cursor = null;
+            do {
+                final OrderPage page = repository.findOrders(builder.cursor(cursor).build());
+                assertTrue(page.getOrders().size() <= 7);
+                page.getOrders().forEach(order -> {
+                    assertTrue(query.matches(order));
+                    assertTrue(seen.add(order));
+                });
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+
+            assertEquals(expected, seen.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Cost range pages come back in cost order")
+    public void costRangeOrdering() {
+        for (int i = 0; i < 100; i++) {
+            repository.recordOrder(createOrder(i, i, 100 - i));
+        }
+
+        final OrderPage page = repository.findOrders(OrderQuery.builder().minTotalCostCents(10L).maxTotalCostCents(19L).build());
+
+        assertEquals(10, page.getOrders().size());
+        assertNull(page.getNextCursor());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(10 + i, page.getOrders().get(i).getTotalCostCents());
+        }
+    }
+
+    @Test
+    @DisplayName("Malformed cursors are rejected")
+    public void malformedCursor() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> repository.findOrders(OrderQuery.builder().cursor("not a cursor").build())
+        );
+    }
+
+    @Test
+    @DisplayName("Concurrent writers lose no orders at any thread count up to the core count")
+    public void concurrentWritesAreNotLost() throws Exception {
+        // Throughput at these thread counts is measured by OrderRepositoryBenchmark.
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+        for (final int threads : threadCounts) {
+            repository = new InMemoryOrderRepository();
+            final List<List<OrderSummary>> written = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final List<OrderSummary> batch = new ArrayList<>(ORDERS_PER_THREAD);
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    batch.add(createOrder(i));
+                }
+                written.add(batch);
+            }
+
+            runConcurrently(threads, t -> written.get(t).forEach(repository::recordOrder));
+
+            assertEquals(threads * ORDERS_PER_THREAD, repository.size());
+            written.forEach(batch -> batch.forEach(order -> assertSame(order, repository.getOrder(order.getOrderId()))));
+        }
+    }
+
+    @Test
+    @DisplayName("Iterating all orders while writers are active never fails")
+    public void iterationDuringConcurrentWrites() throws Exception {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> writer = executor.submit(() -> {
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    repository.recordOrder(createOrder(i));
+                }
+                writing.set(false);
+            });
+            final Future<?> reader = executor.submit(() -> {
+                while (writing.get()) {
+                    repository.getOrders().forEach(OrderSummary::getOrderId);
+                }
+            });
+
+            writer.get();
+            reader.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(ORDERS_PER_THREAD, repository.getOrders().size());
+    }
+
+    private void runConcurrently(final int threads, final ThreadTask task) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static OrderSummary createOrder(final int i) {
+        return createOrder(i, i, i);
+    }
+
+    private static OrderSummary createOrder(final int numApples, final int numOranges, final long totalCostCents) {
+        return OrderSummary.builder()
+                .orderId(UUID.randomUUID())
+                .numApples(numApples)
+                .numOranges(numOranges)
+                .totalCostCents(totalCostCents)
+                .build();
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
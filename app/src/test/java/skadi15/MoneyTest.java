@@ -0,0 +1,63 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class MoneyTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    @DisplayName("Amounts are formatted as the shortest decimal with at least one fraction digit")
+    public void format() {
+        assertEquals("0.0", Money.toString(0));
+        assertEquals("0.05", Money.toString(5));
+        assertEquals("1.0", Money.toString(100));
+        assertEquals("1.45", Money.toString(145));
+        assertEquals("2.9", Money.toString(290));
+        assertEquals("-2.9", Money.toString(-290));
+        assertEquals("92233720368547758.07", Money.toString(Long.MAX_VALUE));
+        assertEquals("-92233720368547758.08", Money.toString(Long.MIN_VALUE));
+    }
+
+    @Test
+    @DisplayName("Decimal amounts are parsed exactly")
+    public void parse() {
+        assertEquals(0, Money.parse("0"));
+        assertEquals(145, Money.parse("1.45"));
+        assertEquals(290, Money.parse("2.9"));
+        assertEquals(100, Money.parse("1e0"));
+        assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+
+        assertThrows(IllegalArgumentException.class, () -> Money.parse("1.455"));
+        assertThrows(IllegalArgumentException.class, () -> Money.parse("92233720368547758.08"));
+        assertThrows(IllegalArgumentException.class, () -> Money.parse("one"));
+    }
+
+    @Test
+    @DisplayName("Order costs keep their decimal JSON format")
+    public void json() throws Exception {
+        final OrderSummary order = OrderSummary.builder()
+                .orderId(new UUID(0, 1))
+                .numApples(1)
+                .numOranges(2)
+                .totalCostCents(145)
+                .build();
+
+        final String json = OBJECT_MAPPER.writeValueAsString(order);
+
+        assertEquals("{\"orderId\":\"00000000-0000-0000-0000-000000000001\",\"numApples\":1,\"numOranges\":2,\"totalCost\":1.45}", json);
+        assertEquals(order, OBJECT_MAPPER.readValue(json, OrderSummary.class));
+        assertThrows(
+            JsonMappingException.class,
+            () -> OBJECT_MAPPER.readValue(json.replace("1.45", "1.455"), OrderSummary.class)
+        );
+    }
+}
@@ -0,0 +1,287 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OrderJournalTest {
+    // Header plus 10 records per segment, so a few dozen orders roll over several segments.
+    private static final int SEGMENT_BYTES = OrderRecords.RECORD_BYTES * 11;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("Orders appended across several segments are replayed in order after reopening")
+    public void appendAndReplay() throws IOException {
+        final List<OrderSummary> orders = createOrders(35);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_BYTES, 0)) {
+            orders.forEach(journal::append);
+        }
+
+        final List<OrderSummary> replayed = new ArrayList<>();
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_BYTES, 0)) {
+            assertEquals(35, journal.replay(replayed::add));
+        }
+
+        assertEquals(orders, replayed);
+    }
+
+    @Test
+    @DisplayName("Concurrent appenders lose no orders")
+    public void concurrentAppends() throws Exception {
+        final List<OrderSummary> orders = createOrders(10_000);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_BYTES * 10, 10)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final List<OrderSummary> slice = orders.subList(t * 2500, (t + 1) * 2500);
+                futures.add(executor.submit(() -> slice.forEach(journal::append)));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Set<OrderSummary> replayed = new HashSet<>();
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_BYTES, 0)) {
+            journal.replay(replayed::add);
+        }
+
+        assertEquals(new HashSet<>(orders), replayed);
+    }
+
+    @Test
+    @DisplayName("Partly written records are skipped on replay")
+    public void tornRecordSkipped() throws IOException {
+        final List<OrderSummary> orders = createOrders(3);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_BYTES, 0)) {
+            orders.forEach(journal::append);
+        }
+
+        // Corrupt the second record as if the crash happened while it was being written.
+        final Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.sorted().findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}), OrderRecords.RECORD_BYTES * 2 + 16);
+        }
+
+        final List<OrderSummary> replayed = new ArrayList<>();
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_BYTES, 0)) {
+            journal.replay(replayed::add);
+        }
+
+        assertEquals(List.of(orders.get(0), orders.get(2)), replayed);
+    }
+
+    @Test
+    @DisplayName("A journaled store is rebuilt after a restart")
+    public void journaledRepositoryRecovers() throws IOException {
+        final List<OrderSummary> orders = createOrders(25);
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            repository.recordOrders(orders.subList(0, 20));
+            orders.subList(20, 25).forEach(repository::recordOrder);
+        }
+
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            assertEquals(25, repository.size());
+            orders.forEach(order -> assertEquals(order, repository.getOrder(order.getOrderId())));
+        }
+    }
+
+    @Test
+    @DisplayName("Removed and evicted orders stay removed after a restart and are not spilled again")
+    public void removalsJournaled() throws IOException {
+        final List<OrderSummary> orders = createOrders(6);
+        final List<OrderSummary> spilled = new ArrayList<>();
+        final RetentionPolicy policy = RetentionPolicy.builder().maxCount(4).build();
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            final BoundedOrderRepository bounded = new BoundedOrderRepository(repository, policy, spilled::add);
+            bounded.recordOrders(orders);
+            bounded.removeOrder(orders.get(5).getOrderId());
+        }
+        assertEquals(orders.subList(0, 2), spilled);
+
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            new BoundedOrderRepository(repository, policy, spilled::add);
+            assertEquals(new HashSet<>(orders.subList(2, 5)), new HashSet<>(repository.getOrders()));
+        }
+        assertEquals(orders.subList(0, 2), spilled);
+    }
+
+    @Test
+    @DisplayName("A restart restores the snapshot and replays only the orders journaled after it")
+    public void snapshotThenTail() throws IOException {
+        final List<OrderSummary> orders = createOrders(40);
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            repository.recordOrders(orders.subList(0, 35));
+            assertTrue(repository.snapshot());
+            orders.subList(35, 40).forEach(repository::recordOrder);
+            assertEquals(35, repository.getMetrics().getLastOrders());
+        }
+
+        // Only the snapshot and the segments from the one it was taken at are left.
+        final Path snapshot = OrderSnapshot.latest(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".journal"))
+                    .forEach(file -> assertTrue(file.compareTo(directory.resolve(String.format("orders-%020d.journal",
+                            OrderSnapshot.journalSegment(snapshot)))) >= 0, file + " was not deleted"));
+        }
+
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            assertEquals(35, repository.getSnapshotOrders());
+            assertEquals(5, repository.getJournalOrders());
+            assertEquals(new HashSet<>(orders), new HashSet<>(repository.getOrders()));
+        }
+    }
+
+    @Test
+    @DisplayName("Orders recorded while snapshots are taken are all recovered")
+    public void snapshotsDuringWrites() throws Exception {
+        final List<OrderSummary> orders = createOrders(20_000);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        int snapshots = 0;
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES * 100, 10))) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final List<OrderSummary> slice = orders.subList(t * 5000, (t + 1) * 5000);
+                futures.add(executor.submit(() -> slice.forEach(repository::recordOrder)));
+            }
+            executor.submit(() -> {
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+                return writing.getAndSet(false);
+            });
+            while (writing.get()) {
+                assertTrue(repository.snapshot());
+                snapshots++;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            assertTrue(snapshots > 0);
+            assertEquals(20_000, repository.size());
+            assertEquals(new HashSet<>(orders), new HashSet<>(repository.getOrders()));
+        }
+    }
+
+    @Test
+    @DisplayName("Snapshots of stores that move orders are discarded on removals, and incomplete ones fail the restart")
+    public void snapshotRejections() throws IOException {
+        final List<OrderSummary> orders = createOrders(10);
+        final AtomicReference<JournaledOrderRepository> journaled = new AtomicReference<>();
+        final AtomicBoolean removeDuringSnapshot = new AtomicBoolean(true);
+        final ColumnarOrderRepository store = new ColumnarOrderRepository() {
+            @Override
+            public Collection<OrderSummary> getOrders() {
+                if (removeDuringSnapshot.getAndSet(false)) {
+                    journaled.get().removeOrder(orders.get(0).getOrderId());
+                }
+                return super.getOrders();
+            }
+        };
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                store, new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            journaled.set(repository);
+            repository.recordOrders(orders);
+            assertFalse(repository.snapshot());
+            assertNull(OrderSnapshot.latest(directory));
+            assertEquals(1, repository.getMetrics().getDiscards());
+            assertTrue(repository.snapshot());
+            assertEquals(9, repository.getMetrics().getLastOrders());
+            // The second attempt copied from the roll of the first rather than rolling again.
+            assertEquals(1, OrderSnapshot.journalSegment(OrderSnapshot.latest(directory)));
+        }
+
+        final Path snapshot = OrderSnapshot.latest(directory);
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - OrderRecords.RECORD_BYTES);
+        }
+        assertThrows(IOException.class, () -> new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0)));
+    }
+
+    @Test
+    @DisplayName("Snapshots of a store that keeps orders in place are kept when orders are removed meanwhile")
+    public void snapshotsKeptDuringRemovals() throws IOException {
+        final List<OrderSummary> orders = createOrders(10);
+        final AtomicReference<JournaledOrderRepository> journaled = new AtomicReference<>();
+        final InMemoryOrderRepository store = new InMemoryOrderRepository() {
+            @Override
+            public Collection<OrderSummary> getOrders() {
+                // The order is removed after the copy has seen it, so only the journal removes it again.
+                final Collection<OrderSummary> stored = new ArrayList<>(super.getOrders());
+                journaled.get().removeOrder(orders.get(0).getOrderId());
+                return stored;
+            }
+        };
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                store, new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            journaled.set(repository);
+            repository.recordOrders(orders);
+            assertTrue(repository.snapshot());
+            assertEquals(0, repository.getMetrics().getDiscards());
+            assertEquals(10, repository.getMetrics().getLastOrders());
+        }
+
+        try (JournaledOrderRepository repository = new JournaledOrderRepository(
+                new InMemoryOrderRepository(), new OrderJournal(directory, SEGMENT_BYTES, 0))) {
+            assertEquals(10, repository.getSnapshotOrders());
+            assertEquals(new HashSet<>(orders.subList(1, 10)), new HashSet<>(repository.getOrders()));
+        }
+    }
+
+    private static List<OrderSummary> createOrders(final int count) {
+        final List<OrderSummary> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            orders.add(OrderSummary.builder()
+                    .orderId(UUID.randomUUID())
+                    .numApples(i)
+                    .numOranges(i * 2)
+                    .totalCostCents(i * 85L)
+                    .build());
+        }
+        return orders;
+    }
+}
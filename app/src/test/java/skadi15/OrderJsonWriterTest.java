@@ -0,0 +1,78 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class OrderJsonWriterTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    @DisplayName("Hand-written JSON has the same bytes as Jackson")
+    public void matchesJackson() throws IOException {
+        final OrderJsonWriter handWritten = new OrderJsonWriter(OBJECT_MAPPER.writer(), true);
+        final OrderJsonWriter jackson = new OrderJsonWriter(OBJECT_MAPPER.writer(), false);
+
+        for (final OrderSummary order : createOrders()) {
+            final byte[] expected = OBJECT_MAPPER.writeValueAsBytes(order);
+            assertArrayEquals(expected, write(handWritten, order), new String(expected));
+            assertArrayEquals(expected, write(jackson, order), new String(expected));
+        }
+    }
+
+    @Test
+    @DisplayName("The longest order fits the buffer")
+    public void maxBytes() {
+        final OrderSummary order = OrderSummary.builder()
+                .orderId(UUID.randomUUID())
+                .numApples(Integer.MIN_VALUE)
+                .numOranges(Integer.MIN_VALUE)
+                .totalCostCents(Long.MIN_VALUE)
+                .build();
+
+        final byte[] bytes = new byte[OrderJsonWriter.MAX_BYTES];
+        assertEquals(OrderJsonWriter.MAX_BYTES, OrderJsonWriter.format(order, bytes, new char[Money.MAX_CHARS]));
+    }
+
+    private static byte[] write(final OrderJsonWriter writer, final OrderSummary order) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.write(order, output);
+        return output.toByteArray();
+    }
+
+    private static List<OrderSummary> createOrders() {
+        final List<OrderSummary> orders = new ArrayList<>();
+        orders.add(OrderSummary.builder().build());
+        orders.add(OrderSummary.builder()
+                .orderId(new UUID(0, 0))
+                .numApples(Integer.MAX_VALUE)
+                .numOranges(Integer.MIN_VALUE)
+                .totalCostCents(Long.MAX_VALUE)
+                .build());
+        orders.add(OrderSummary.builder()
+                .orderId(new UUID(-1, -1))
+                .numApples(-7)
+                .numOranges(10)
+                .totalCostCents(Long.MIN_VALUE)
+                .build());
+        for (int i = 0; i < 1000; i++) {
+            orders.add(OrderSummary.builder()
+                    .orderId(UUID.randomUUID())
+                    .numApples(i * 7919 % 100_003)
+                    .numOranges(i)
+                    .totalCostCents(i * 104_729L - 50_000)
+                    .build());
+        }
+        return orders;
+    }
+}
@@ -0,0 +1,111 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class OrderRatesTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private final OrderRates rates = new OrderRates(clock::get);
+
+    @Test
+    @DisplayName("Each window counts only the orders recorded within it")
+    public void trailingWindows() {
+        rates.record(order(100));
+        advanceSeconds(4 * 60);
+        rates.recordAll(List.of(order(200), order(300)));
+        advanceSeconds(50);
+        rates.record(order(400));
+        advanceSeconds(1);
+
+        final Map<String, OrderRate> snapshot = rates.snapshot();
+        assertEquals(new OrderRate(3, 3.0 / 60, 9.0), snapshot.get("1m"));
+        assertEquals(new OrderRate(4, 4.0 / 300, 10.0 / 5), snapshot.get("5m"));
+        assertEquals(new OrderRate(4, 4.0 / 900, 10.0 / 15), snapshot.get("15m"));
+    }
+
+    @Test
+    @DisplayName("Orders in the current second are not counted until it ends")
+    public void currentSecondExcluded() {
+        rates.record(order(100));
+        assertEquals(0, rates.snapshot().get("1m").getOrders());
+
+        advanceSeconds(1);
+        assertEquals(1, rates.snapshot().get("1m").getOrders());
+    }
+
+    @Test
+    @DisplayName("Buckets are reused once their orders leave the longest window")
+    public void bucketsReused() {
+        rates.record(order(100));
+        advanceSeconds(15 * 60);
+        rates.record(order(200));
+        advanceSeconds(1);
+
+        final OrderRate rate = rates.snapshot().get("15m");
+        assertEquals(1, rate.getOrders());
+        assertEquals(2.0 / 15, rate.getRevenuePerMinute());
+
+        advanceSeconds(30 * 60);
+        assertEquals(0, rates.snapshot().get("15m").getOrders());
+    }
+
+    @Test
+    @DisplayName("Revenue stays exact beyond 2^44 cents in one second")
+    public void largeRevenueExact() {
+        // Each order alone is past 2^44 cents, and the total is still well within a long.
+        final long cents = 1L << 50;
+        for (int i = 0; i < 200; i++) {
+            rates.record(order(cents));
+        }
+        advanceSeconds(1);
+
+        assertEquals(Money.toDouble(200 * cents) / 15, rates.snapshot().get("15m").getRevenuePerMinute());
+    }
+
+    @Test
+    @DisplayName("Concurrent recording loses no orders")
+    public void concurrentRecording() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50_000; i++) {
+                        rates.record(order(1));
+                        // Cross into a new second partway through so writers race on resetting a bucket.
+                        if (i == 25_000) {
+                            clock.compareAndSet(1_000_000_000L, 1_000_001_000L);
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        advanceSeconds(1);
+        assertEquals(200_000, rates.snapshot().get("1m").getOrders());
+    }
+
+    private void advanceSeconds(final long seconds) {
+        clock.addAndGet(seconds * 1000);
+    }
+
+    private static OrderSummary order(final long cents) {
+        return OrderSummary.builder().orderId(UUID.randomUUID()).totalCostCents(cents).build();
+    }
+}
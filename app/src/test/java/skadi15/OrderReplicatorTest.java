@@ -0,0 +1,250 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Replicates from a primary to a standby, both embedded on one machine.
+ */
+class OrderReplicatorTest {
+    private static final String NODE_SECRET = "replication-test-secret";
+
+    private final List<Server> servers = new ArrayList<>();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @AfterEach
+    public void stopNodes() throws Exception {
+        for (final Server server : servers) {
+            server.stop();
+        }
+        client.close();
+    }
+
+    @Test
+    @DisplayName("Every order acknowledged in sync mode is on the standby when the primary is lost")
+    public void syncFailover() throws Exception {
+        final InMemoryOrderRepository standbyStore = new InMemoryOrderRepository();
+        final Server standby = startNode(0, Map.of(), standbyStore);
+        final Server primary = startNode(0, Map.of(
+                "replication.standby", url(standby),
+                "replication.ackMode", "sync",
+                "replication.batchSize", "8"), new InMemoryOrderRepository());
+
+        final List<OrderSummary> acknowledged = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<List<OrderSummary>>> clients = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                clients.add(executor.submit(() -> placeOrders(primary, 25)));
+            }
+            for (final Future<List<OrderSummary>> placed : clients) {
+                acknowledged.addAll(placed.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Nothing more is shipped once the primary is gone, so the standby must already hold every answered order.
+        primary.stop();
+
+        assertEquals(100, acknowledged.size());
+        assertEquals(new HashSet<>(acknowledged), new HashSet<>(standbyStore.getOrders()));
+        for (final OrderSummary order : acknowledged) {
+            assertEquals(order, objectMapper.readValue(get(standby, "/order?order_id=" + order.getOrderId()), OrderSummary.class));
+        }
+    }
+
+    @Test
+    @DisplayName("A standby that was unreachable catches up from the backlog without a full copy")
+    public void catchUpAfterReconnect() throws Exception {
+        final InMemoryOrderRepository standbyStore = new InMemoryOrderRepository();
+        final Server standby = startNode(0, Map.of(), standbyStore);
+        final Server primary = startNode(0, Map.of("replication.standby", url(standby)), new InMemoryOrderRepository());
+
+        final List<OrderSummary> orders = new ArrayList<>(placeOrders(primary, 20));
+        awaitSize(standbyStore, 20);
+
+        // The same servlet comes back, so the standby's epoch and orders are unchanged.
+        standby.stop();
+        orders.addAll(placeOrders(primary, 20));
+        standby.start();
+
+        awaitSize(standbyStore, 40);
+        assertEquals(new HashSet<>(orders), new HashSet<>(standbyStore.getOrders()));
+        assertEquals(1, metric(primary, "order_replication_resyncs_total"));
+        assertTrue(metric(primary, "order_replication_failures_total") > 0);
+    }
+
+    @Test
+    @DisplayName("A standby that restarted empty is sent a full copy")
+    public void resyncAfterStandbyRestart() throws Exception {
+        final Server standby = startNode(0, Map.of(), new InMemoryOrderRepository());
+        final int standbyPort = port(standby);
+        final Server primary = startNode(0, Map.of("replication.standby", url(standby)), new InMemoryOrderRepository());
+        final List<OrderSummary> orders = new ArrayList<>(placeOrders(primary, 20));
+
+        standby.stop();
+        final InMemoryOrderRepository restartedStore = new InMemoryOrderRepository();
+        startNode(standbyPort, Map.of(), restartedStore);
+        orders.addAll(placeOrders(primary, 5));
+
+        awaitSize(restartedStore, 25);
+        assertEquals(new HashSet<>(orders), new HashSet<>(restartedStore.getOrders()));
+        assertEquals(2, metric(primary, "order_replication_resyncs_total"));
+        // The standby stores a batch before it answers, so the primary may not have seen the acknowledgement yet.
+        awaitMetric(primary, "order_replication_lag", 0);
+    }
+
+    @Test
+    @DisplayName("Overlapping batches of the same orders add each to the standby's statistics once")
+    public void overlappingBatchesCountedOnce() throws Exception {
+        final InMemoryOrderRepository standbyStore = new InMemoryOrderRepository();
+        final Server standby = startNode(0, Map.of(), standbyStore);
+        final List<OrderSummary> orders = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            orders.add(OrderSummary.builder().orderId(UUID.randomUUID()).numApples(1).totalCostCents(60).build());
+        }
+        final byte[] batch = OrderRecords.toBytes(orders);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Integer>> posts = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                posts.add(executor.submit(() -> postReplica(standby, batch, NODE_SECRET)));
+            }
+            for (final Future<Integer> status : posts) {
+                assertEquals(200, status.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(new HashSet<>(orders), new HashSet<>(standbyStore.getOrders()));
+        assertEquals(orders.size(), metric(standby, "order_apples_total"));
+    }
+
+    @Test
+    @DisplayName("The replica endpoint stores orders only from nodes sharing its secret")
+    public void replicaEndpointAuthenticated() throws Exception {
+        final InMemoryOrderRepository standbyStore = new InMemoryOrderRepository();
+        final Server standby = startNode(0, Map.of(), standbyStore);
+        final InMemoryOrderRepository unconfiguredStore = new InMemoryOrderRepository();
+        final Server unconfigured = startNode(0, Map.of("node.secret", ""), unconfiguredStore);
+        final byte[] batch = OrderRecords.toBytes(List.of(
+                OrderSummary.builder().orderId(UUID.randomUUID()).numApples(1).totalCostCents(60).build()));
+
+        assertEquals(403, postReplica(standby, batch, null));
+        assertEquals(403, postReplica(standby, batch, "not-the-secret"));
+        assertEquals(404, postReplica(unconfigured, batch, NODE_SECRET));
+        assertEquals(0, standbyStore.size());
+        assertEquals(0, unconfiguredStore.size());
+    }
+
+    private Server startNode(final int port, final Map<String, String> settings, final OrderRepository store)
+            throws Exception {
+        final Server server = new Server();
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        connector.setPort(port);
+        server.addConnector(connector);
+
+        final ServletHolder holder = new ServletHolder(new AppServlet(store));
+        holder.setInitParameter("node.secret", NODE_SECRET);
+        settings.forEach(holder::setInitParameter);
+        final ServletContextHandler context = new ServletContextHandler();
+        for (final String path : List.of(AppServlet.ORDER_PATH, AppServlet.REPLICA_PATH, AppServlet.METRICS_PATH)) {
+            context.addServlet(holder, path);
+        }
+        server.setHandler(context);
+        server.start();
+        // Keep the port across a restart of this server.
+        connector.setPort(connector.getLocalPort());
+        servers.add(server);
+        return server;
+    }
+
+    private List<OrderSummary> placeOrders(final Server node, final int count) throws Exception {
+        final List<OrderSummary> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                            URI.create(url(node) + "/order?apples=" + i + "&oranges=1"))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            orders.add(objectMapper.readValue(response.body(), OrderSummary.class));
+        }
+        return orders;
+    }
+
+    private static void awaitSize(final OrderRepository store, final int size) throws InterruptedException {
+        final long deadline = System.nanoTime() + 10_000_000_000L;
+        while (store.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(size, store.size());
+    }
+
+    private int postReplica(final Server node, final byte[] records, final String secret) throws Exception {
+        final HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url(node) + AppServlet.REPLICA_PATH))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(records));
+        if (secret != null) {
+            request.header(NodeSecret.HEADER, secret);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private void awaitMetric(final Server node, final String name, final double value) throws Exception {
+        final long deadline = System.nanoTime() + 10_000_000_000L;
+        while (metric(node, name) != value && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(value, metric(node, name));
+    }
+
+    private double metric(final Server node, final String name) throws Exception {
+        for (final String line : get(node, AppServlet.METRICS_PATH).split("\n")) {
+            if (line.startsWith(name + " ")) {
+                return Double.parseDouble(line.substring(name.length() + 1));
+            }
+        }
+        throw new AssertionError("No metric " + name);
+    }
+
+    private String get(final Server node, final String pathAndQuery) throws Exception {
+        final HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create(url(node) + pathAndQuery)).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        return response.body();
+    }
+
+    private static int port(final Server server) {
+        return ((ServerConnector) server.getConnectors()[0]).getPort();
+    }
+
+    private static String url(final Server server) {
+        return "http://localhost:" + port(server);
+    }
+}
@@ -0,0 +1,95 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class OrderResponseCacheTest {
+    private static final CachedResponse RESPONSE = new CachedResponse(new byte[100], "\"tag\"");
+
+    @Test
+    @DisplayName("Cached responses are hits and counted in the metrics")
+    public void hitsAndMisses() {
+        final OrderResponseCache cache = new OrderResponseCache(10);
+        final UUID orderId = UUID.randomUUID();
+
+        assertNull(cache.get(orderId));
+        cache.put(orderId, RESPONSE, cache.stamp(orderId));
+        assertSame(RESPONSE, cache.get(orderId));
+        assertSame(RESPONSE, cache.get(orderId));
+
+        final ResponseCacheMetrics metrics = cache.getMetrics();
+        assertEquals(1, metrics.getSize());
+        assertEquals(2, metrics.getHits());
+        assertEquals(1, metrics.getMisses());
+        assertEquals(OrderResponseCache.OVERHEAD_BYTES_PER_ENTRY + 100 + 5, metrics.getMemoryBytes());
+        assertEquals(2.0 / 3, metrics.getHitRate());
+    }
+
+    @Test
+    @DisplayName("Frequently requested orders survive a scan of one-off lookups")
+    public void scanResistance() {
+        final OrderResponseCache cache = new OrderResponseCache(100);
+        final List<UUID> hot = createIds(50);
+        final List<UUID> scan = createIds(10_000);
+        for (int i = 0; i < scan.size(); i++) {
+            // The hot orders keep being requested while the scan goes on.
+            if (i % 1000 < 5) {
+                hot.forEach(orderId -> lookUp(cache, orderId));
+            }
+            lookUp(cache, scan.get(i));
+        }
+
+        hot.forEach(orderId -> assertNotNull(cache.get(orderId)));
+        final ResponseCacheMetrics metrics = cache.getMetrics();
+        assertEquals(100, metrics.getSize());
+        assertEquals(10_050 - metrics.getSize(), metrics.getEvictions());
+    }
+
+    @Test
+    @DisplayName("Invalidated orders are dropped, and responses encoded before an invalidation are not admitted")
+    public void invalidate() {
+        final OrderResponseCache cache = new OrderResponseCache(10);
+        final UUID orderId = UUID.randomUUID();
+        cache.put(orderId, RESPONSE, cache.stamp(orderId));
+
+        final long stamp = cache.stamp(orderId);
+        cache.invalidate(orderId);
+        assertNull(cache.get(orderId));
+        cache.put(orderId, RESPONSE, stamp);
+        assertNull(cache.get(orderId));
+
+        final ResponseCacheMetrics metrics = cache.getMetrics();
+        assertEquals(0, metrics.getSize());
+        assertEquals(0, metrics.getMemoryBytes());
+    }
+
+    @Test
+    @DisplayName("A cache without room is rejected")
+    public void noEntries() {
+        assertThrows(IllegalArgumentException.class, () -> new OrderResponseCache(0));
+    }
+
+    private static void lookUp(final OrderResponseCache cache, final UUID orderId) {
+        if (cache.get(orderId) == null) {
+            cache.put(orderId, RESPONSE, cache.stamp(orderId));
+        }
+    }
+
+    private static List<UUID> createIds(final int count) {
+        final List<UUID> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        return ids;
+    }
+}
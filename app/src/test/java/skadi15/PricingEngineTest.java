@@ -0,0 +1,113 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PricingEngineTest {
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("Built-in rules give apples BOGO and oranges 3 for 2")
+    public void defaultRules() {
+        final CompiledPricing pricing = PricingEngine.defaults().current();
+
+        for (int apples = 0; apples < 20; apples++) {
+            for (int oranges = 0; oranges < 20; oranges++) {
+                final long expected = Math.ceilDiv(apples, 2) * 25L + (oranges / 3 * 2 + oranges % 3) * 60L;
+                assertEquals(expected, pricing.priceOrder(apples, oranges));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Products without a promotion are priced per unit")
+    public void unitPricing() {
+        final CompiledPricing pricing = compile(
+                PricingRules.Product.builder().name("apples").unitPriceCents(50).build(),
+                product("oranges", 100, 4, 3),
+                PricingRules.Product.builder().name("pears").unitPriceCents(200).build());
+
+        assertEquals(350, pricing.priceOrder(3, 2));
+        assertEquals(300, pricing.priceOrder(0, 4));
+        assertEquals(600, pricing.price(pricing.indexOf("pears"), 3));
+    }
+
+    @Test
+    @DisplayName("Promotions are exact up to the largest quantity")
+    public void largeQuantities() {
+        for (int buy = 1; buy <= 12; buy++) {
+            final CompiledPricing pricing = compile(product("apples", 1, buy, buy - 1), product("oranges", 1, 1, 1));
+            for (final int quantity : new int[] {buy - 1, buy, buy + 1, 999_999_937, Integer.MAX_VALUE - 1, Integer.MAX_VALUE}) {
+                assertEquals(quantity / buy * (buy - 1) + quantity % buy, pricing.price(0, quantity));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid rules are rejected")
+    public void invalidRules() {
+        final PricingRules.Product apples = product("apples", 1, 1, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> compile(apples));
+        assertThrows(IllegalArgumentException.class, () -> compile(apples, product("oranges", -1, 1, 1)));
+        assertThrows(IllegalArgumentException.class, () -> compile(apples, product("oranges", 1, 2, 3)));
+        assertThrows(IllegalArgumentException.class, () -> compile(apples, apples, product("oranges", 1, 1, 1)));
+    }
+
+    @Test
+    @DisplayName("Changed config files are reloaded and broken ones keep the previous rules")
+    public void reload() throws Exception {
+        final Path config = directory.resolve("pricing.json");
+        writeRules(config, "1", 0);
+        final List<Exception> errors = new ArrayList<>();
+
+        try (PricingEngine engine = new PricingEngine(config, 0, errors::add)) {
+            assertEquals(300, engine.current().priceOrder(1, 2));
+            final CompiledPricing loaded = engine.current();
+            assertFalse(engine.reload());
+            assertSame(loaded, engine.current());
+
+            writeRules(config, "2.00", 1);
+            assertTrue(engine.reload());
+            assertEquals(600, engine.current().priceOrder(1, 2));
+
+            Files.writeString(config, "{\"products\": [");
+            Files.setLastModifiedTime(config, FileTime.fromMillis(2_000));
+            assertThrows(Exception.class, engine::reload);
+            assertEquals(600, engine.current().priceOrder(1, 2));
+        }
+    }
+
+    private static PricingRules.Product product(final String name, final long unitPriceCents, final int buy, final int pay) {
+        return PricingRules.Product.builder().name(name).unitPriceCents(unitPriceCents).buy(buy).pay(pay).build();
+    }
+
+    private static CompiledPricing compile(final PricingRules.Product... products) {
+        return CompiledPricing.compile(PricingRules.builder().products(List.of(products)).build());
+    }
+
+    private static void writeRules(final Path config, final String unitPrice, final long modifiedSeconds) throws Exception {
+        Files.writeString(config, String.format("""
+                {"products": [
+                    {"name": "apples", "unitPrice": %1$s},
+                    {"name": "oranges", "unitPrice": %1$s}
+                ]}
+                """, unitPrice));
+        // File times can be too coarse to tell quick successive writes apart.
+        Files.setLastModifiedTime(config, FileTime.fromMillis(modifiedSeconds * 1_000));
+    }
+}
@@ -0,0 +1,66 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class QuantileSketchTest {
+    @Test
+    @DisplayName("Quantiles are within 1% of the exact values")
+    public void accuracy() {
+        final Random random = new Random(42);
+        final long[] values = new long[100_000];
+        final QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform over many orders of magnitude.
+            values[i] = (long) Math.exp(random.nextDouble() * 30);
+            sketch.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (final double quantile : new double[] {0, 0.1, 0.5, 0.9, 0.99, 0.999, 1}) {
+            final long exact = values[Math.max(0, (int) Math.ceil(quantile * values.length) - 1)];
+            final long estimate = sketch.quantile(quantile);
+            assertTrue(Math.abs(estimate - exact) <= exact / 100,
+                    String.format("q=%s exact=%d estimate=%d", quantile, exact, estimate));
+        }
+        assertEquals(values.length, sketch.count());
+    }
+
+    @Test
+    @DisplayName("Every value falls in a bucket whose midpoint is within 1%")
+    public void buckets() {
+        int previous = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            final int bucket = QuantileSketch.bucketOf(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(Math.abs(QuantileSketch.midpointOf(bucket) - value) <= value / 100);
+            previous = bucket;
+        }
+        assertEquals(QuantileSketch.BUCKETS - 1, QuantileSketch.bucketOf(Long.MAX_VALUE));
+        assertTrue(QuantileSketch.midpointOf(QuantileSketch.BUCKETS - 1) > 0);
+    }
+
+    @Test
+    @DisplayName("Merged sketches answer for all their values")
+    public void merge() {
+        final QuantileSketch low = new QuantileSketch();
+        final QuantileSketch high = new QuantileSketch();
+        for (int i = 1; i <= 100; i++) {
+            low.record(i);
+            high.record(i + 100);
+        }
+
+        low.merge(high);
+
+        assertEquals(200, low.count());
+        assertEquals(100, low.quantile(0.5));
+        assertEquals(200, low.quantile(1));
+        assertEquals(0, new QuantileSketch().quantile(0.5));
+    }
+}
@@ -0,0 +1,108 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class RequestTimingsTest {
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("Each lap is recorded against its phase")
+    public void lapsRecorded() throws InterruptedException {
+        final RequestTimings timings = new RequestTimings(true, 1);
+        final RequestTimings.Timer timer = timings.start();
+        timer.lap(RequestTimings.Phase.PARSE);
+        Thread.sleep(20);
+        timer.lap(RequestTimings.Phase.PRICE);
+        timer.finish();
+
+        assertTrue(timings.isEnabled());
+        assertEquals(1, timings.count(RequestTimings.Phase.PARSE));
+        assertEquals(1, timings.count(RequestTimings.Phase.PRICE));
+        assertEquals(0, timings.count(RequestTimings.Phase.STORE));
+        final Map<RequestTimings.Phase, long[]> quantiles = timings.quantiles(0.5);
+        assertTrue(quantiles.get(RequestTimings.Phase.PARSE)[0] < Duration.ofMillis(20).toNanos());
+        assertTrue(quantiles.get(RequestTimings.Phase.PRICE)[0] >= Duration.ofMillis(19).toNanos());
+    }
+
+    @Test
+    @DisplayName("Time before resuming is left out of the next phase")
+    public void resumeSkipsWaiting() throws InterruptedException {
+        final RequestTimings timings = new RequestTimings(true, 1);
+        final RequestTimings.Timer timer = timings.start();
+        Thread.sleep(20);
+        timer.resume();
+        timer.lap(RequestTimings.Phase.STORE);
+
+        assertTrue(timings.quantiles(0.5).get(RequestTimings.Phase.STORE)[0] < Duration.ofMillis(20).toNanos());
+    }
+
+    @Test
+    @DisplayName("Disabled timings record nothing")
+    public void disabled() {
+        final RequestTimings timings = new RequestTimings(false, 1);
+        final RequestTimings.Timer timer = timings.start();
+        timer.lap(RequestTimings.Phase.PARSE);
+        timer.finish();
+
+        assertFalse(timings.isEnabled());
+        assertEquals(0, timings.count(RequestTimings.Phase.PARSE));
+        assertTrue(timings.quantiles(0.5).isEmpty());
+    }
+
+    @Test
+    @DisplayName("About one request per sample interval is timed")
+    public void sampled() {
+        final RequestTimings timings = new RequestTimings(true, 50);
+        for (int i = 0; i < 64_000; i++) {
+            timings.start().lap(RequestTimings.Phase.PARSE);
+        }
+
+        // The interval is rounded up to 64.
+        final long timed = timings.count(RequestTimings.Phase.PARSE);
+        assertTrue(timed > 800 && timed < 1200, Long.toString(timed));
+    }
+
+    @Test
+    @DisplayName("Every request is timed and emits a JFR event while the event is recorded")
+    public void jfrEvent() throws Exception {
+        // Sampling alone would almost never time the request.
+        final RequestTimings timings = new RequestTimings(true, 1 << 30);
+        final Path file = directory.resolve("timings.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("skadi15.OrderRequest");
+            recording.start();
+            final RequestTimings.Timer timer = timings.start();
+            for (final RequestTimings.Phase phase : RequestTimings.Phase.values()) {
+                timer.lap(phase);
+            }
+            timer.finish();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals("skadi15.OrderRequest"))
+                .toList();
+        assertEquals(1, events.size());
+        for (final String field : List.of("parseNanos", "priceNanos", "storeNanos", "serializeNanos")) {
+            assertTrue(events.get(0).hasField(field), field);
+            assertFalse(events.get(0).getDuration(field).isNegative(), field);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ShardRingTest {
+    private static final List<String> NODES = List.of("http://node-a:8080", "http://node-b:8080", "http://node-c:8080");
+
+    @Test
+    @DisplayName("Orders spread evenly over the nodes")
+    public void evenSpread() {
+        final ShardRing ring = new ShardRing(NODES);
+        final TimeOrderedIdGenerator ids = new TimeOrderedIdGenerator();
+        final int[] owned = new int[NODES.size()];
+        for (int i = 0; i < 90_000; i++) {
+            owned[ring.owner(ids.nextId())]++;
+        }
+
+        for (int node = 0; node < NODES.size(); node++) {
+            final double share = owned[node] / 90_000.0;
+            assertTrue(Math.abs(share - 1.0 / NODES.size()) < 0.05,
+                    String.format("Node %d owns %.1f%% of orders", node, share * 100));
+        }
+    }
+
+    @Test
+    @DisplayName("Adding a node only moves orders onto that node")
+    public void addingNodeMovesOnlyItsShare() {
+        final ShardRing before = new ShardRing(NODES);
+        final List<String> grown = List.of(NODES.get(0), NODES.get(1), NODES.get(2), "http://node-d:8080");
+        final ShardRing after = new ShardRing(grown);
+
+        int moved = 0;
+        for (int i = 0; i < 40_000; i++) {
+            final UUID orderId = UUID.randomUUID();
+            final int owner = after.owner(orderId);
+            if (owner != before.owner(orderId)) {
+                assertEquals(3, owner);
+                moved++;
+            }
+        }
+        assertTrue(Math.abs(moved / 40_000.0 - 0.25) < 0.05, String.format("%d of 40000 orders moved", moved));
+    }
+
+    @Test
+    @DisplayName("A ring needs distinct nodes")
+    public void invalidNodes() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(List.of("http://a", "http://a")));
+    }
+}
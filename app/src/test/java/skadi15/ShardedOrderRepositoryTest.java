@@ -0,0 +1,240 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs a sharded store over three embedded nodes on one machine.
+ */
+class ShardedOrderRepositoryTest {
+    private static final int NODE_COUNT = 3;
+    private static final String NODE_SECRET = "shard-test-secret";
+
+    private final List<Server> servers = new ArrayList<>();
+    private final List<String> nodes = new ArrayList<>();
+    private final List<OrderRepository> stores = new ArrayList<>();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    public void startNodes() throws Exception {
+        // Every node must know every node's URL before any of them starts, so bind the ports first.
+        final List<ServerConnector> connectors = new ArrayList<>();
+        for (int i = 0; i < NODE_COUNT; i++) {
+            final Server server = new Server();
+            final ServerConnector connector = new ServerConnector(server);
+            connector.setHost("localhost");
+            connector.setPort(0);
+            connector.open();
+            server.addConnector(connector);
+            servers.add(server);
+            connectors.add(connector);
+            nodes.add("http://localhost:" + connector.getLocalPort());
+        }
+
+        for (int i = 0; i < NODE_COUNT; i++) {
+            final OrderRepository store = new InMemoryOrderRepository();
+            stores.add(store);
+            final ServletHolder holder = new ServletHolder(new AppServlet(store));
+            holder.setInitParameter("shard.nodes", String.join(",", nodes));
+            holder.setInitParameter("shard.self", nodes.get(i));
+            holder.setInitParameter("node.secret", NODE_SECRET);
+            final ServletContextHandler context = new ServletContextHandler();
+            for (final String path : List.of(AppServlet.ORDER_PATH, AppServlet.BATCH_PATH, AppServlet.SHARD_PATH)) {
+                context.addServlet(holder, path);
+            }
+            servers.get(i).setHandler(context);
+            servers.get(i).start();
+        }
+    }
+
+    @AfterEach
+    public void stopNodes() throws Exception {
+        for (final Server server : servers) {
+            server.stop();
+        }
+        client.close();
+    }
+
+    @Test
+    @DisplayName("Orders are stored on the node owning their ID and found from every node")
+    public void ordersRoutedToOwner() throws Exception {
+        final List<OrderSummary> orders = placeOrders();
+
+        final ShardRing ring = new ShardRing(nodes);
+        int stored = 0;
+        for (int node = 0; node < NODE_COUNT; node++) {
+            for (final OrderSummary order : stores.get(node).getOrders()) {
+                assertEquals(node, ring.owner(order.getOrderId()));
+            }
+            assertTrue(stores.get(node).size() > 0, "Node " + node + " holds no orders");
+            stored += stores.get(node).size();
+        }
+        assertEquals(orders.size(), stored);
+
+        for (final OrderSummary order : orders) {
+            for (final String node : nodes) {
+                assertEquals(order, objectMapper.readValue(
+                        get(node, "/order?order_id=" + order.getOrderId()), OrderSummary.class));
+            }
+        }
+        assertEquals("No order found for ID " + new UUID(0, 0), get(nodes.get(1), "/order?order_id=" + new UUID(0, 0)));
+    }
+
+    @Test
+    @DisplayName("Listings fan out to every node and include every order")
+    public void listingFansOut() throws Exception {
+        final List<OrderSummary> orders = placeOrders();
+
+        for (final String node : nodes) {
+            final List<OrderSummary> listed = objectMapper.readValue(get(node, "/order?stream=true"),
+                    new TypeReference<List<OrderSummary>>() {});
+            assertEquals(orders.size(), listed.size());
+            assertEquals(new HashSet<>(orders), new HashSet<>(listed));
+        }
+    }
+
+    @Test
+    @DisplayName("Paging through every node's shard visits every match exactly once, from any node")
+    public void pagesWalkEveryShard() throws Exception {
+        final List<OrderSummary> orders = placeOrders();
+
+        final Set<OrderSummary> seen = new HashSet<>();
+        String cursor = null;
+        int page = 0;
+        do {
+            // Each page is asked of a different node, which must all understand the cursor.
+            final String node = nodes.get(page++ % NODE_COUNT);
+            final JsonNode result = objectMapper.readTree(get(node, "/order?apples=1&limit=4"
+                    + (cursor != null ? "&cursor=" + cursor : "")));
+            for (final JsonNode order : result.get("orders")) {
+                final OrderSummary found = objectMapper.treeToValue(order, OrderSummary.class);
+                assertEquals(1, found.getNumApples());
+                assertTrue(seen.add(found));
+            }
+            cursor = result.hasNonNull("nextCursor") ? result.get("nextCursor").asText() : null;
+        } while (cursor != null);
+
+        assertEquals(orders.stream().filter(order -> order.getNumApples() == 1).count(), seen.size());
+    }
+
+    @Test
+    @DisplayName("Shard endpoints refuse requests without the node secret")
+    public void shardEndpointsAuthenticated() throws Exception {
+        final List<OrderSummary> orders = placeOrders();
+        final OrderSummary stored = stores.get(0).getOrders().iterator().next();
+        final OrderSummary forged = OrderSummary.builder().orderId(UUID.randomUUID()).totalCostCents(1).build();
+        final URI shard = URI.create(nodes.get(0) + AppServlet.SHARD_PATH);
+        final URI storedShard = URI.create(shard + "?order_id=" + stored.getOrderId());
+
+        for (final String secret : List.of("", "not-the-secret")) {
+            final List<HttpRequest.Builder> requests = List.of(
+                    HttpRequest.newBuilder(storedShard).GET(),
+                    HttpRequest.newBuilder(storedShard).DELETE(),
+                    HttpRequest.newBuilder(shard).POST(HttpRequest.BodyPublishers.ofByteArray(
+                            OrderRecords.toBytes(List.of(forged)))));
+            for (final HttpRequest.Builder request : requests) {
+                if (!secret.isEmpty()) {
+                    request.header(NodeSecret.HEADER, secret);
+                }
+                assertEquals(403, client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode());
+            }
+        }
+
+        assertEquals(stored, stores.get(0).getOrder(stored.getOrderId()));
+        assertNull(stores.get(0).getOrder(forged.getOrderId()));
+        assertEquals(orders.size(), stores.stream().mapToInt(OrderRepository::size).sum());
+        assertEquals(200, client.send(HttpRequest.newBuilder(storedShard)
+                .header(NodeSecret.HEADER, NODE_SECRET)
+                .build(), HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    @Test
+    @DisplayName("Batches are split by owner and pages reject cursors from elsewhere")
+    public void batchesSplitByOwner() {
+        final List<OrderRepository> shards = List.of(
+                new InMemoryOrderRepository(), new InMemoryOrderRepository(), new InMemoryOrderRepository());
+        final ShardRing ring = new ShardRing(List.of("a", "b", "c"));
+        final ShardedOrderRepository repository = new ShardedOrderRepository(ring, shards, Runnable::run);
+        final List<OrderSummary> orders = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            orders.add(OrderSummary.builder().orderId(UUID.randomUUID()).numApples(i).numOranges(i).totalCostCents(i).build());
+        }
+
+        repository.recordOrders(orders);
+
+        assertEquals(300, repository.size());
+        assertEquals(new HashSet<>(orders), new HashSet<>(repository.getOrders()));
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (final OrderSummary order : shards.get(shard).getOrders()) {
+                assertEquals(shard, ring.owner(order.getOrderId()));
+            }
+        }
+        assertEquals(orders.get(7), repository.removeOrder(orders.get(7).getOrderId()));
+        assertNull(repository.getOrder(orders.get(7).getOrderId()));
+        for (final String cursor : List.of("not a cursor", "3.", "-1.", ".abc")) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> repository.findOrders(OrderQuery.builder().cursor(cursor).build()));
+        }
+    }
+
+    /**
+     * Places orders through every node, singly and in a batch.
+     *
+     * @return the placed orders.
+     */
+    private List<OrderSummary> placeOrders() throws Exception {
+        final List<OrderSummary> orders = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            final HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                            URI.create(nodes.get(i % NODE_COUNT) + "/order?apples=" + i % 3 + "&oranges=" + i))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            orders.add(objectMapper.readValue(response.body(), OrderSummary.class));
+        }
+
+        final StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 30; i++) {
+            batch.append(i > 0 ? "," : "").append("{\"apples\": ").append(i % 3).append(", \"oranges\": 1}");
+        }
+        final HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(nodes.get(0) + "/order/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch.append("]").toString()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        orders.addAll(objectMapper.readValue(response.body(), new TypeReference<List<OrderSummary>>() {}));
+        return orders;
+    }
+
+    private String get(final String node, final String pathAndQuery) throws Exception {
+        final HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(node + pathAndQuery)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        return response.body();
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 import jakarta.servlet.AsyncContext;
 import jakarta.servlet.DispatcherType;
@@ -26,10 +27,23 @@ import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpUpgradeHandler;
 import jakarta.servlet.http.Part;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 @RequiredArgsConstructor
 public class TestHttpServletRequest implements HttpServletRequest{
     final Map<String, String[]> parameters;
+    @Setter
+    String servletPath = "/order";
+    @Setter
+    String contentType;
+    @Setter
+    byte[] body = new byte[0];
+    @Setter
+    AsyncContext asyncContext;
+    private boolean asyncStarted;
+    @Setter
+    String remoteAddr = "127.0.0.1";
+    final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
     @Override
     public Object getAttribute(String name) {
@@ -69,14 +83,12 @@ public class TestHttpServletRequest implements HttpServletRequest{
 
     @Override
     public String getContentType() {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'getContentType'");
+        return contentType;
     }
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'getInputStream'");
+        return new TestServletInputStream(body);
     }
 
     @Override
@@ -132,8 +144,7 @@ public class TestHttpServletRequest implements HttpServletRequest{
 
     @Override
     public String getRemoteAddr() {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'getRemoteAddr'");
+        return remoteAddr;
     }
 
     @Override
@@ -210,8 +221,11 @@ public class TestHttpServletRequest implements HttpServletRequest{
 
     @Override
     public AsyncContext startAsync() throws IllegalStateException {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'startAsync'");
+        if (asyncContext == null) {
+            throw new IllegalStateException("Async is not supported");
+        }
+        asyncStarted = true;
+        return asyncContext;
     }
 
     @Override
@@ -223,20 +237,20 @@ public class TestHttpServletRequest implements HttpServletRequest{
 
     @Override
     public boolean isAsyncStarted() {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'isAsyncStarted'");
+        return asyncStarted;
     }
 
     @Override
     public boolean isAsyncSupported() {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'isAsyncSupported'");
+        return asyncContext != null;
     }
 
     @Override
     public AsyncContext getAsyncContext() {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'getAsyncContext'");
+        if (!asyncStarted) {
+            throw new IllegalStateException("Async has not been started");
+        }
+        return asyncContext;
     }
 
     @Override
@@ -265,8 +279,11 @@ public class TestHttpServletRequest implements HttpServletRequest{
 
     @Override
     public String getHeader(String name) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'getHeader'");
+        return headers.get(name);
+    }
+
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
     }
 
     @Override
@@ -355,8 +372,7 @@ public class TestHttpServletRequest implements HttpServletRequest{
 
     @Override
     public String getServletPath() {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'getServletPath'");
+        return servletPath;
     }
 
     @Override
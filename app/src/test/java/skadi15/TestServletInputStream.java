@@ -0,0 +1,40 @@
+package skadi15;
+
+import java.io.ByteArrayInputStream;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+public class TestServletInputStream extends ServletInputStream {
+    private final ByteArrayInputStream body;
+
+    public TestServletInputStream(final byte[] body) {
+        this.body = new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public int read() {
+        return body.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        return body.read(b, off, len);
+    }
+
+    @Override
+    public boolean isFinished() {
+        return body.available() == 0;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+        // TODO Auto-generated method stub
+        throw new UnsupportedOperationException("Unimplemented method 'setReadListener'");
+    }
+}
@@ -0,0 +1,70 @@
+package skadi15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.base.Preconditions;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import lombok.Getter;
+import lombok.Setter;
+
+public class TestServletOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    // Makes non-blocking output behave like a slow client: every write leaves the stream not ready until drain().
+    @Setter
+    private volatile boolean slow;
+    private volatile boolean ready = true;
+    private volatile WriteListener writeListener;
+    @Getter
+    private volatile int writes;
+
+    @Override
+    public void write(int b) {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        Preconditions.checkState(ready, "Written while not ready");
+        buffer.write(b, off, len);
+        writes++;
+        ready = !slow;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
+        try {
+            writeListener.onWritePossible();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Accepts the last write and tells the write listener it can write again.
+     */
+    public void drain() throws IOException {
+        if (!ready) {
+            ready = true;
+            writeListener.onWritePossible();
+        }
+    }
+
+    public byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+    public String getContent() {
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,101 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TimeOrderedIdGeneratorTest {
+    @Test
+    @DisplayName("IDs carry the version, variant, timestamp and node ID")
+    public void layout() {
+        final long now = System.currentTimeMillis();
+        final UUID id = new TimeOrderedIdGenerator(1234).nextId();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        assertTrue(Math.abs((id.getMostSignificantBits() >>> 16) - now) < 1000);
+        assertEquals(1234, (id.getLeastSignificantBits() >>> 48) & TimeOrderedIdGenerator.MAX_NODE_ID);
+    }
+
+    @Test
+    @DisplayName("IDs from one thread strictly increase, even when the clock stalls or goes backwards")
+    public void monotonicPerThread() {
+        final AtomicLong clock = new AtomicLong(1_000_000);
+        final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1, clock::get);
+
+        UUID previous = generator.nextId();
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 100 == 0) {
+                clock.addAndGet(i % 300 == 0 ? -5 : 1);
+            }
+            final UUID next = generator.nextId();
+            assertTrue(compareUnsigned(previous, next) < 0, previous + " then " + next);
+            previous = next;
+        }
+    }
+
+    @Test
+    @DisplayName("IDs from concurrent threads and separate nodes are unique")
+    public void uniqueAcrossThreadsAndNodes() throws Exception {
+        final Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        final List<TimeOrderedIdGenerator> nodes = List.of(new TimeOrderedIdGenerator(1), new TimeOrderedIdGenerator(2));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final TimeOrderedIdGenerator generator = nodes.get(t % 2);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50_000; i++) {
+                        ids.add(generator.nextId());
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(8 * 50_000, ids.size());
+    }
+
+    @Test
+    @DisplayName("IDs from tens of thousands of short-lived threads are unique within one millisecond")
+    public void uniqueAcrossShortLivedThreads() throws Exception {
+        final Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1, () -> 1_000_000);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 70_000; i++) {
+                executor.submit(() -> ids.add(generator.nextId()));
+            }
+        }
+
+        assertEquals(70_000, ids.size());
+    }
+
+    @Test
+    @DisplayName("Out of range node IDs are rejected")
+    public void invalidNodeId() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedIdGenerator(-1));
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedIdGenerator(TimeOrderedIdGenerator.MAX_NODE_ID + 1));
+    }
+
+    private static int compareUnsigned(final UUID a, final UUID b) {
+        final int msb = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return msb != 0 ? msb : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+}
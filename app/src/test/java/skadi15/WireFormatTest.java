@@ -0,0 +1,34 @@
+package skadi15;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class WireFormatTest {
+    @Test
+    @DisplayName("Records are picked only when preferred over JSON")
+    public void negotiate() {
+        assertEquals(WireFormat.JSON, WireFormat.negotiate(null));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("text/html, */*;q=0.8"));
+        assertEquals(WireFormat.RECORD, WireFormat.negotiate("application/x-order-record"));
+        assertEquals(WireFormat.RECORD, WireFormat.negotiate("Application/X-Order-Record; charset=binary"));
+        assertEquals(WireFormat.RECORD, WireFormat.negotiate("application/x-order-record, */*"));
+        assertEquals(WireFormat.RECORD, WireFormat.negotiate("application/json;q=0.5, application/x-order-record"));
+        // Ties and wildcards ranked above records go to JSON.
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/x-order-record, application/json"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/x-order-record;q=0.5, */*"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/x-order-record;q=0"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/x-order-record;q=high"));
+    }
+
+    @Test
+    @DisplayName("Request bodies are matched by media type")
+    public void ofContentType() {
+        assertEquals(WireFormat.JSON, WireFormat.ofContentType("application/json; charset=utf-8"));
+        assertEquals(WireFormat.RECORD, WireFormat.ofContentType("application/x-order-record"));
+        assertNull(WireFormat.ofContentType("application/x-ndjson"));
+        assertNull(WireFormat.ofContentType(null));
+    }
+}
@@ -0,0 +1,113 @@
+import groovy.json.JsonSlurper
+
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    // Use Maven Central for resolving dependencies.
+    mavenCentral()
+}
+
+dependencies {
+    jmh(project(":app"))
+
+    // The app only has these at compile time because the servlet container provides them at runtime.
+    jmh("jakarta.servlet:jakarta.servlet-api:6.1.0")
+    jmh("com.fasterxml.jackson.core:jackson-databind:2.17.2")
+}
+
+val loadTest by sourceSets.creating
+
+dependencies {
+    "loadTestImplementation"(project(":app"))
+    "loadTestImplementation"("org.eclipse.jetty.ee10:jetty-ee10-servlet:12.0.14")
+    "loadTestImplementation"("com.fasterxml.jackson.core:jackson-databind:2.17.2")
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val jmhBaseline = layout.projectDirectory.file("jmh-baseline.json")
+
+jmh {
+    // Machine-readable results so runs can be compared across commits.
+    resultFormat = "JSON"
+    resultsFile = jmhResults
+    fork = 1
+    warmupIterations = 3
+    warmup = "2s"
+    iterations = 5
+    timeOnIteration = "2s"
+    providers.gradleProperty("jmhInclude").orNull?.let { includes = listOf(it) }
+    providers.gradleProperty("jmhThreads").orNull?.let { threads = it.toInt() }
+    providers.gradleProperty("jmhProfilers").orNull?.let { profilers = it.split(",") }
+}
+
+// Reads a JMH JSON result file into benchmark name (with parameters) -> [mode, score].
+fun readScores(file: File): Map<String, Pair<String, Double>> {
+    @Suppress("UNCHECKED_CAST")
+    val runs = JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return runs.associate { run ->
+        val params = (run["params"] as Map<*, *>?)?.entries?.joinToString(",", "[", "]") { "${it.key}=${it.value}" } ?: ""
+        val metric = run["primaryMetric"] as Map<*, *>
+        "${run["benchmark"]}$params@${run["threads"]}" to Pair(run["mode"] as String, (metric["score"] as Number).toDouble())
+    }
+}
+
+tasks.register("jmhSaveBaseline") {
+    group = "benchmark"
+    description = "Stores the latest JMH results as the baseline for jmhRegressionCheck."
+    mustRunAfter("jmh")
+    inputs.file(jmhResults)
+    outputs.file(jmhBaseline)
+    doLast {
+        jmhResults.get().asFile.copyTo(jmhBaseline.asFile, overwrite = true)
+    }
+}
+
+tasks.register("jmhRegressionCheck") {
+    group = "verification"
+    description = "Fails if any benchmark is slower than the baseline by more than -PjmhRegressionThreshold (default 0.10)."
+    val threshold = providers.gradleProperty("jmhRegressionThreshold").map { it.toDouble() }.orElse(0.10)
+    mustRunAfter("jmh")
+    inputs.file(jmhResults)
+    doLast {
+        val baselineFile = jmhBaseline.asFile
+        if (!baselineFile.exists()) {
+            logger.warn("No JMH baseline at $baselineFile, run jmhSaveBaseline first. Skipping regression check.")
+            return@doLast
+        }
+
+        val baseline = readScores(baselineFile)
+        val regressions = readScores(jmhResults.get().asFile).mapNotNull { (name, current) ->
+            val (mode, score) = current
+            val baselineScore = baseline[name]?.second ?: return@mapNotNull null
+            // Throughput is better when higher, every other mode reports time and is better when lower.
+            val change = if (mode == "thrpt") (baselineScore - score) / baselineScore else (score - baselineScore) / baselineScore
+            if (change > threshold.get()) String.format("%s: %.3f -> %.3f (%.1f%% worse)", name, baselineScore, score, change * 100) else null
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("Benchmarks regressed past ${threshold.get() * 100}%:\n" + regressions.joinToString("\n"))
+        }
+        logger.lifecycle("No benchmark regressed past ${threshold.get() * 100}% of the baseline.")
+    }
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "benchmark"
+    description = "Holds -PloadClients (default 10000) slow clients open against an embedded server; -PloadAsync=false for blocking mode."
+    classpath = loadTest.runtimeClasspath
+    mainClass = "skadi15.SlowClientLoadTest"
+    maxHeapSize = "1g"
+    args(
+        providers.gradleProperty("loadClients").getOrElse("10000"),
+        providers.gradleProperty("loadAsync").getOrElse("true"),
+        providers.gradleProperty("loadOrders").getOrElse("20000")
+    )
+}
@@ -0,0 +1,91 @@
+package skadi15;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Polling GETs of a single order and of the listing, with and without the entity tag of the previous response, to
+ * measure what answering with 304 saves over writing the order or listing again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConditionalGetBenchmark {
+    private static final int ORDER_COUNT = 1000;
+
+    @Param({"false", "true"})
+    private boolean conditional;
+
+    private AppServlet appServlet;
+    private HttpServletRequest orderRequest;
+    private HttpServletRequest listingRequest;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        appServlet = new AppServlet();
+        UUID orderId = null;
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            orderId = UUID.randomUUID();
+            appServlet.recordOrder(OrderSummary.builder()
+                    .orderId(orderId)
+                    .numApples(i)
+                    .numOranges(i)
+                    .totalCostCents(i * 85L)
+                    .build());
+        }
+
+        final Map<String, String> headers = new HashMap<>();
+        final ServletOutputStream output = new ServletStubs.DiscardingOutputStream();
+        response = ServletStubs.proxy(HttpServletResponse.class, Map.of(
+                "getOutputStream", args -> output,
+                "setHeader", args -> headers.put((String) args[0], (String) args[1])));
+        orderRequest = request(Map.of("order_id", new String[] {orderId.toString()}), headers);
+        listingRequest = request(Map.of(), headers);
+        final String orderTag = entityTag(orderRequest, headers);
+        final String listingTag = entityTag(listingRequest, headers);
+
+        orderRequest = request(Map.of("order_id", new String[] {orderId.toString()}),
+                conditional ? Map.of("If-None-Match", orderTag) : Map.of());
+        listingRequest = request(Map.of(), conditional ? Map.of("If-None-Match", listingTag) : Map.of());
+    }
+
+    @Benchmark
+    public void order() {
+        appServlet.doGet(orderRequest, response);
+    }
+
+    @Benchmark
+    public void listing() {
+        appServlet.doGet(listingRequest, response);
+    }
+
+    private String entityTag(final HttpServletRequest request, final Map<String, String> headers) {
+        appServlet.doGet(request, response);
+        return headers.get("ETag");
+    }
+
+    private static HttpServletRequest request(final Map<String, String[]> parameters, final Map<String, String> headers) {
+        return ServletStubs.proxy(HttpServletRequest.class, Map.of(
+                "getServletPath", args -> AppServlet.ORDER_PATH,
+                "getParameterMap", args -> parameters,
+                "getParameter", args -> parameters.containsKey((String) args[0]) ? parameters.get((String) args[0])[0] : null,
+                "getHeader", args -> headers.get((String) args[0]),
+                "isAsyncSupported", args -> false));
+    }
+}
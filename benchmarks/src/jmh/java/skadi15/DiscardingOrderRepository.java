@@ -0,0 +1,44 @@
+package skadi15;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Repository that stores nothing, so benchmarks of the pricing path measure pricing rather than a growing store.
+ */
+public class DiscardingOrderRepository implements OrderRepository {
+    @Override
+    public void recordOrder(final OrderSummary order) {
+    }
+
+    @Override
+    public OrderSummary getOrder(final UUID orderId) {
+        return null;
+    }
+
+    @Override
+    public OrderSummary removeOrder(final UUID orderId) {
+        return null;
+    }
+
+    @Override
+    public Collection<OrderSummary> getOrders() {
+        return List.of();
+    }
+
+    @Override
+    public OrderPage findOrders(final OrderQuery query) {
+        return new OrderPage(List.of(), null);
+    }
+
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    @Override
+    public long estimatedBytesPerOrder() {
+        return 0;
+    }
+}
@@ -0,0 +1,43 @@
+package skadi15;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OrderIdBenchmark {
+    private final TimeOrderedIdGenerator timeOrderedIdGenerator = new TimeOrderedIdGenerator(1);
+
+    @Benchmark
+    @Threads(1)
+    public UUID randomUuid() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public UUID randomUuidContended() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UUID timeOrdered() {
+        return timeOrderedIdGenerator.nextId();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public UUID timeOrderedContended() {
+        return timeOrderedIdGenerator.nextId();
+    }
+}
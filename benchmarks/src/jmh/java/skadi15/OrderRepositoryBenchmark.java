@@ -0,0 +1,80 @@
+package skadi15;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Store throughput at one thread and at one thread per core. Writes cycle over a fixed set of orders so the store
+ * reaches a steady size instead of growing for the whole run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OrderRepositoryBenchmark {
+    private static final int ORDER_COUNT = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"memory", "columnar"})
+        String type;
+
+        AppServlet appServlet;
+        final OrderSummary[] orders = new OrderSummary[ORDER_COUNT];
+
+        @Setup
+        public void setup() {
+            appServlet = new AppServlet("columnar".equals(type) ? new ColumnarOrderRepository() : new InMemoryOrderRepository());
+            for (int i = 0; i < ORDER_COUNT; i++) {
+                orders[i] = OrderSummary.builder()
+                        .orderId(UUID.randomUUID())
+                        .numApples(i % 100)
+                        .numOranges(i % 50)
+                        .totalCostCents(i % 1000)
+                        .build();
+                appServlet.recordOrder(orders[i]);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = (int) Thread.currentThread().threadId();
+
+        int next() {
+            return next++ & (ORDER_COUNT - 1);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void recordOrder(final Store store, final Cursor cursor) {
+        store.appServlet.recordOrder(store.orders[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordOrderContended(final Store store, final Cursor cursor) {
+        store.appServlet.recordOrder(store.orders[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public OrderSummary getOrder(final Store store, final Cursor cursor) {
+        return store.appServlet.getOrder(store.orders[cursor.next()].getOrderId());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public OrderSummary getOrderContended(final Store store, final Cursor cursor) {
+        return store.appServlet.getOrder(store.orders[cursor.next()].getOrderId());
+    }
+}
@@ -0,0 +1,51 @@
+package skadi15;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrderStatisticsBenchmark {
+    private OrderStatistics statistics;
+    private OrderSummary order;
+
+    @Setup
+    public void setup() {
+        statistics = new OrderStatistics();
+        order = OrderSummary.builder()
+                .orderId(UUID.randomUUID())
+                .numApples(3)
+                .numOranges(5)
+                .totalCostCents(385)
+                .build();
+        for (int i = 0; i < 1_000_000; i++) {
+            statistics.record(order);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        statistics.record(order);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordContended() {
+        statistics.record(order);
+    }
+
+    @Benchmark
+    public OrderStats snapshot() {
+        return statistics.snapshot();
+    }
+}
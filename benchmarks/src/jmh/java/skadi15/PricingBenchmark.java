@@ -0,0 +1,48 @@
+package skadi15;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PricingBenchmark {
+    // The pricing that was hard-coded before rules were configurable, as the baseline for the compiled rules.
+    private static final long APPLE_COST_CENTS = 25;
+    private static final long ORANGE_COST_CENTS = 60;
+
+    @Param({"1", "1000000"})
+    private int quantity;
+
+    private AppServlet appServlet;
+    private PricingEngine pricing;
+
+    @Setup
+    public void setup() {
+        appServlet = new AppServlet(new DiscardingOrderRepository());
+        pricing = PricingEngine.defaults();
+    }
+
+    @Benchmark
+    public OrderSummary processOrder() {
+        return appServlet.processOrder(quantity, quantity);
+    }
+
+    @Benchmark
+    public long hardCodedPrice() {
+        return Math.ceilDiv(quantity, 2) * APPLE_COST_CENTS + (quantity / 3 * 2 + quantity % 3) * ORANGE_COST_CENTS;
+    }
+
+    @Benchmark
+    public long compiledRulesPrice() {
+        return pricing.current().priceOrder(quantity, quantity);
+    }
+}
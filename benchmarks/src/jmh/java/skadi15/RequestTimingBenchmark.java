@@ -0,0 +1,68 @@
+package skadi15;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A whole order POST with phase timing off and on, to measure what the instrumentation adds to a request. The request
+ * and response are proxies that discard the output, so the cost of a real connection is left out and the overhead
+ * shows up as a larger share than it would in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestTimingBenchmark {
+    private static final Map<String, String[]> PARAMETERS = Map.of("apples", new String[] {"3"}, "oranges", new String[] {"5"});
+
+    @Param({"false", "true"})
+    private boolean timing;
+
+    private AppServlet appServlet;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setup() throws ServletException {
+        appServlet = new AppServlet(new DiscardingOrderRepository());
+        final Map<String, String> settings = Map.of("timing.enabled", Boolean.toString(timing));
+        final ServletContext context = ServletStubs.proxy(ServletContext.class, Map.of());
+        appServlet.init(ServletStubs.proxy(ServletConfig.class, Map.of(
+                "getInitParameter", args -> settings.get((String) args[0]),
+                "getServletContext", args -> context)));
+
+        request = ServletStubs.proxy(HttpServletRequest.class, Map.of(
+                "getServletPath", args -> AppServlet.ORDER_PATH,
+                "getParameterMap", args -> PARAMETERS,
+                "getParameter", args -> PARAMETERS.get((String) args[0])[0],
+                "isAsyncSupported", args -> false));
+        final ServletOutputStream output = new ServletStubs.DiscardingOutputStream();
+        response = ServletStubs.proxy(HttpServletResponse.class, Map.of("getOutputStream", args -> output));
+    }
+
+    @TearDown
+    public void teardown() {
+        appServlet.destroy();
+    }
+
+    @Benchmark
+    public void orderPost() {
+        appServlet.doPost(request, response);
+    }
+}
@@ -0,0 +1,83 @@
+package skadi15;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Repeated single order GETs over a small hot set, with and without the response cache, and with either JSON writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseCacheBenchmark {
+    private static final int ORDER_COUNT = 10_000;
+    private static final int HOT_COUNT = 64;
+
+    @Param({"0", "1024"})
+    private int cacheEntries;
+
+    @Param({"false", "true"})
+    private boolean handWritten;
+
+    private AppServlet appServlet;
+    private HttpServletRequest[] requests;
+    private HttpServletResponse response;
+    private int next;
+
+    @Setup
+    public void setup() throws ServletException {
+        appServlet = new AppServlet();
+        final Map<String, String> settings = Map.of(
+                "responseCache.maxEntries", Integer.toString(cacheEntries),
+                "serialization.handWritten", Boolean.toString(handWritten));
+        final ServletContext context = ServletStubs.proxy(ServletContext.class, Map.of());
+        appServlet.init(ServletStubs.proxy(ServletConfig.class, Map.of(
+                "getInitParameter", args -> settings.get((String) args[0]),
+                "getServletContext", args -> context)));
+
+        requests = new HttpServletRequest[HOT_COUNT];
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            final UUID orderId = UUID.randomUUID();
+            appServlet.recordOrder(OrderSummary.builder()
+                    .orderId(orderId)
+                    .numApples(i)
+                    .numOranges(i)
+                    .totalCostCents(i * 85L)
+                    .build());
+            if (i < HOT_COUNT) {
+                final Map<String, String[]> parameters = Map.of("order_id", new String[] {orderId.toString()});
+                requests[i] = ServletStubs.proxy(HttpServletRequest.class, Map.of(
+                        "getServletPath", args -> AppServlet.ORDER_PATH,
+                        "getParameterMap", args -> parameters,
+                        "getParameter", args -> parameters.containsKey((String) args[0])
+                                ? parameters.get((String) args[0])[0]
+                                : null,
+                        "isAsyncSupported", args -> false));
+            }
+        }
+        final ServletOutputStream output = new ServletStubs.DiscardingOutputStream();
+        response = ServletStubs.proxy(HttpServletResponse.class, Map.of("getOutputStream", args -> output));
+    }
+
+    @Benchmark
+    public void orderGet() {
+        appServlet.doGet(requests[next++ & (HOT_COUNT - 1)], response);
+    }
+}
@@ -0,0 +1,80 @@
+package skadi15;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializationBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OutputStream discard = OutputStream.nullOutputStream();
+    private final OrderJsonWriter handWrittenWriter = new OrderJsonWriter(objectMapper.writer(), true);
+    private final OrderJsonWriter jacksonWriter = new OrderJsonWriter(objectMapper.writer(), false);
+
+    private final ByteBuffer record = ByteBuffer.allocate(OrderRecords.RECORD_BYTES);
+
+    private OrderSummary order;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        order = OrderSummary.builder()
+                .orderId(UUID.randomUUID())
+                .numApples(5)
+                .numOranges(7)
+                .totalCostCents(385)
+                .build();
+        serialized = objectMapper.writeValueAsBytes(order);
+        OrderRecords.write(record, 0, order);
+    }
+
+    @Benchmark
+    public String serializeToString() throws IOException {
+        return objectMapper.writeValueAsString(order);
+    }
+
+    @Benchmark
+    public byte[] serializeToBytes() throws IOException {
+        return objectMapper.writeValueAsBytes(order);
+    }
+
+    @Benchmark
+    public void jacksonToStream() throws IOException {
+        jacksonWriter.write(order, discard);
+    }
+
+    @Benchmark
+    public void handWrittenToStream() throws IOException {
+        handWrittenWriter.write(order, discard);
+    }
+
+    @Benchmark
+    public void recordToStream() throws IOException {
+        OrderRecords.write(record, 0, order);
+        discard.write(record.array());
+    }
+
+    @Benchmark
+    public OrderSummary deserialize() throws IOException {
+        return objectMapper.readValue(serialized, OrderSummary.class);
+    }
+
+    @Benchmark
+    public OrderSummary readRecord() {
+        return OrderRecords.read(record, 0);
+    }
+}
@@ -0,0 +1,45 @@
+package skadi15;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * Stand-ins for container objects, so benchmarks can drive the servlet without a connection.
+ */
+final class ServletStubs {
+    private ServletStubs() {
+    }
+
+    /**
+     * Implements the interface with the given methods, returning null from any other.
+     */
+    static <T> T proxy(final Class<T> type, final Map<String, Function<Object[], Object>> methods) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            final Function<Object[], Object> handler = methods.get(method.getName());
+            return handler != null ? handler.apply(args) : null;
+        }));
+    }
+
+    static final class DiscardingOutputStream extends ServletOutputStream {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+        }
+
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package skadi15;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Opens many clients that request the streamed order listing and then stop reading, against an embedded server with a
+ * small thread pool. In async mode the stalled responses hold no threads, so a fresh order POST is still served while
+ * they are open; in blocking mode each stalled response holds a thread until the pool is exhausted.
+ *
+ * <p>Arguments: client count, async mode ({@code true} or {@code false}) and how many orders to list. Each client is two
+ * sockets in this process, so the open file limit must be more than twice the client count.
+ */
+public final class SlowClientLoadTest {
+    private static final int MAX_THREADS = 32;
+    // Small socket buffers so a client that stops reading stalls the server after a few kilobytes.
+    private static final int SOCKET_BUFFER_BYTES = 16 * 1024;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(10);
+
+    private SlowClientLoadTest() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int clients = Integer.parseInt(args[0]);
+        final boolean async = Boolean.parseBoolean(args[1]);
+        final int orderCount = Integer.parseInt(args[2]);
+
+        final QueuedThreadPool threadPool = new QueuedThreadPool(MAX_THREADS);
+        final Server server = new Server(threadPool);
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        connector.setAcceptQueueSize(clients);
+        connector.setAcceptedSendBufferSize(SOCKET_BUFFER_BYTES);
+        connector.setIdleTimeout(DRAIN_TIMEOUT.toMillis());
+        server.addConnector(connector);
+
+        final AppServlet servlet = new AppServlet();
+        final ServletHolder holder = new ServletHolder(servlet);
+        holder.setInitParameter("async.enabled", Boolean.toString(async));
+        holder.setAsyncSupported(true);
+        final ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(holder, AppServlet.ORDER_PATH);
+        server.setHandler(context);
+        server.start();
+
+        try {
+            final List<OrderSummary> orders = new ArrayList<>(orderCount);
+            for (int i = 0; i < orderCount; i++) {
+                orders.add(OrderSummary.builder().orderId(UUID.randomUUID()).numApples(i).numOranges(i).totalCostCents(i).build());
+            }
+            servlet.recordOrders(orders);
+
+            final InetSocketAddress address = new InetSocketAddress("localhost", connector.getLocalPort());
+            final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(PROBE_TIMEOUT).build();
+            final long bodyBytes = httpClient.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + address.getPort() + "/order?stream=true")).build(),
+                    HttpResponse.BodyHandlers.ofByteArray()).body().length;
+
+            System.out.printf("mode=%s clients=%d listing=%d bytes threads=%d%n",
+                    async ? "async" : "blocking", clients, bodyBytes, MAX_THREADS);
+
+            final long connectStart = System.nanoTime();
+            final List<SocketChannel> channels = openSlowClients(address, clients);
+            System.out.printf("opened %d slow clients in %d ms%n",
+                    channels.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart));
+
+            // Give the server time to start every stalled response.
+            Thread.sleep(2_000);
+            System.out.printf("busy threads with slow clients open: %d of %d%n", threadPool.getBusyThreads(), threadPool.getMaxThreads());
+
+            final boolean probeServed = probe(httpClient, address);
+
+            final long drainStart = System.nanoTime();
+            final int completed = drain(channels, bodyBytes);
+            System.out.printf("slow clients drained: %d of %d complete in %d ms%n",
+                    completed, clients, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drainStart));
+
+            if (!probeServed || completed != clients) {
+                System.exit(1);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static List<SocketChannel> openSlowClients(final InetSocketAddress address, final int clients)
+            throws IOException {
+        final byte[] request = ("GET /order?stream=true HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        final List<SocketChannel> channels = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            final SocketChannel channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_BYTES);
+            channel.connect(address);
+            channel.write(ByteBuffer.wrap(request));
+            channels.add(channel);
+        }
+        return channels;
+    }
+
+    /**
+     * Places an order while the slow clients are open.
+     *
+     * @return whether it was served within {@link #PROBE_TIMEOUT}.
+     */
+    private static boolean probe(final HttpClient httpClient, final InetSocketAddress address) throws InterruptedException {
+        final HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + address.getPort() + "/order?apples=1&oranges=2"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .timeout(PROBE_TIMEOUT)
+                .build();
+        final long start = System.nanoTime();
+        try {
+            final HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            System.out.printf("order POST with slow clients open: status %d in %d ms%n",
+                    response.statusCode(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return response.statusCode() == 200;
+        } catch (final IOException e) {
+            System.out.printf("order POST with slow clients open: failed after %d ms (%s)%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads every response to the end.
+     *
+     * @return how many clients received at least the full listing before the server closed the connection.
+     */
+    private static int drain(final List<SocketChannel> channels, final long bodyBytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        final long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        int open = channels.size();
+        int completed = 0;
+        try (Selector selector = Selector.open()) {
+            for (final SocketChannel channel : channels) {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new long[1]);
+            }
+            while (open > 0 && System.nanoTime() < deadline) {
+                selector.select(1_000);
+                for (final SelectionKey key : selector.selectedKeys()) {
+                    final long[] received = (long[]) key.attachment();
+                    final SocketChannel channel = (SocketChannel) key.channel();
+                    buffer.clear();
+                    final int read = channel.read(buffer);
+                    if (read > 0) {
+                        received[0] += read;
+                    } else if (read < 0) {
+                        key.cancel();
+                        channel.close();
+                        open--;
+                        if (received[0] >= bodyBytes) {
+                            completed++;
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+        for (final SocketChannel channel : channels) {
+            channel.close();
+        }
+        return completed;
+    }
+}
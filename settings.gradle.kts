@@ -11,4 +11,4 @@ plugins {
 }
 
 rootProject.name = "Take_Home_Assessment"
-include("app")
+include("app", "benchmarks")